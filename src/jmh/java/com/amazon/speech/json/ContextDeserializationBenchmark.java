@@ -0,0 +1,179 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.json;
+
+import com.amazon.speech.speechlet.Context;
+import com.amazon.speech.speechlet.Interface;
+import com.amazon.speech.speechlet.SupportedInterfaces;
+import com.amazon.speech.speechlet.interfaces.audioplayer.AudioPlayerInterface;
+import com.amazon.speech.speechlet.interfaces.system.SystemInterface;
+import com.amazon.speech.speechlet.interfaces.system.SystemState;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading recorded envelopes with their context parsed eagerly. {@link #streaming()} uses
+ * the SDK's deserializers, which read each interface straight from the token stream.
+ * {@link #tree()} replaces them with the previous ones, which read the object into a
+ * {@code JsonNode} and converted each interface out of it. Run with {@code -prof gc} to compare the
+ * allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContextDeserializationBenchmark {
+    @Param({"intent-request.json", "launch-request.json"})
+    public String envelope;
+
+    private byte[] serializedSpeechletRequest;
+    private ObjectReader treeReader;
+
+    @Setup
+    public void setUp() throws Exception {
+        try (InputStream in = getClass().getResourceAsStream("/envelopes/" + envelope)) {
+            serializedSpeechletRequest = IOUtils.toByteArray(in);
+        }
+
+        // configured as SpeechletRequestEnvelope's mapper; mix-in annotations take precedence
+        // over the deserializers of the module
+        ObjectMapper treeMapper = new ObjectMapper();
+        treeMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        treeMapper.configure(DeserializationFeature.READ_UNKNOWN_ENUM_VALUES_AS_NULL, true);
+        treeMapper.registerModule(new SpeechletRequestModule());
+        treeMapper.addMixInAnnotations(Context.class, TreeContextMixIn.class);
+        treeMapper.addMixInAnnotations(SupportedInterfaces.class,
+                TreeSupportedInterfacesMixIn.class);
+        treeReader =
+                treeMapper.reader(SpeechletRequestEnvelope.class).withAttribute(
+                        LazyContextDeserializer.LAZY_CONTEXT_PARSING_ATTRIBUTE, Boolean.FALSE);
+
+        if (!describe(streaming()).equals(describe(tree()))) {
+            throw new IllegalStateException("The contexts of " + envelope + " differ");
+        }
+    }
+
+    private static String describe(Context context) {
+        SystemState systemState = context.getState(SystemInterface.class, SystemState.class);
+        return "AudioPlayer state: " + context.hasState(AudioPlayerInterface.class)
+                + ", AudioPlayer supported: "
+                + systemState.getDevice().getSupportedInterfaces().isInterfaceSupported(
+                        AudioPlayerInterface.class);
+    }
+
+    @Benchmark
+    public Context streaming() throws Exception {
+        return SpeechletRequestEnvelope.fromJson(serializedSpeechletRequest, false).getContext();
+    }
+
+    @Benchmark
+    public Context tree() throws Exception {
+        SpeechletRequestEnvelope<?> requestEnvelope =
+                treeReader.readValue(serializedSpeechletRequest);
+        return requestEnvelope.getContext();
+    }
+
+    @JsonDeserialize(using = TreeContextDeserializer.class)
+    abstract static class TreeContextMixIn {
+    }
+
+    @JsonDeserialize(using = TreeSupportedInterfacesDeserializer.class)
+    abstract static class TreeSupportedInterfacesMixIn {
+    }
+
+    /**
+     * The {@code ContextDeserializer} before it streamed the context.
+     */
+    static class TreeContextDeserializer extends StdDeserializer<Context> {
+        private static final long serialVersionUID = 1L;
+
+        TreeContextDeserializer() {
+            super(Context.class);
+        }
+
+        @Override
+        public Context deserialize(JsonParser parser, DeserializationContext context)
+                throws IOException {
+            ObjectMapper underlyingMapper = ((ObjectMapper) parser.getCodec());
+            JsonNode messageNode = parser.readValueAsTree();
+            Context.Builder contextBuilder = Context.builder();
+
+            for (SerializedInterface interfaceName : SerializedInterface.values()) {
+                if (messageNode.has(interfaceName.name())) {
+                    com.amazon.speech.speechlet.State<?> state =
+                            underlyingMapper.convertValue(messageNode.get(interfaceName.name()),
+                                    interfaceName.getStateClass());
+                    contextBuilder.addState(state);
+                }
+            }
+
+            return contextBuilder.build();
+        }
+    }
+
+    /**
+     * The {@code SupportedInterfacesDeserializer} before it streamed the interfaces.
+     */
+    static class TreeSupportedInterfacesDeserializer extends
+            StdDeserializer<SupportedInterfaces> {
+        private static final long serialVersionUID = 1L;
+
+        TreeSupportedInterfacesDeserializer() {
+            super(SupportedInterfaces.class);
+        }
+
+        @Override
+        public SupportedInterfaces deserialize(JsonParser parser, DeserializationContext context)
+                throws IOException {
+            ObjectMapper underlyingMapper = ((ObjectMapper) parser.getCodec());
+            JsonNode messageNode = parser.readValueAsTree();
+            SupportedInterfaces.Builder supportedInterfacesBuilder = SupportedInterfaces.builder();
+
+            for (SerializedInterface interfaceName : SerializedInterface.values()) {
+                if (messageNode.has(interfaceName.name())) {
+                    Interface supportedInterface =
+                            underlyingMapper.convertValue(messageNode.get(interfaceName.name()),
+                                    interfaceName.getInterfaceClass());
+                    supportedInterfacesBuilder.addSupportedInterface(supportedInterface);
+                }
+            }
+
+            return supportedInterfacesBuilder.build();
+        }
+    }
+}
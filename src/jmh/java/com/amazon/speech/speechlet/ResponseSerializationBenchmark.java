@@ -0,0 +1,107 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.json.SpeechletResponseEnvelope;
+import com.amazon.speech.speechlet.verifier.CardSpeechletResponseVerifier;
+import com.amazon.speech.speechlet.verifier.OutputSpeechSpeechletResponseVerifier;
+import com.amazon.speech.speechlet.verifier.ResponseSizeSpeechletResponseVerifier;
+import com.amazon.speech.speechlet.verifier.SpeechletRequestEnvelopeVerifier;
+import com.amazon.speech.speechlet.verifier.SpeechletResponseVerifier;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import com.amazon.speech.ui.Reprompt;
+import com.amazon.speech.ui.SimpleCard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the verification and serialization of a response, as the skill answers a recorded
+ * intent request. {@link #serializeOnce()} is the handler's path, which verifies the bytes it
+ * returns. {@link #serializeForVerificationAndOutput()} is the path before it, in which the size
+ * check serialized the response on its own. Run with {@code -prof gc} to compare the allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseSerializationBenchmark {
+    private final List<SpeechletResponseVerifier> responseVerifiers = Arrays.asList(
+            new ResponseSizeSpeechletResponseVerifier(),
+            new OutputSpeechSpeechletResponseVerifier(), new CardSpeechletResponseVerifier());
+    private final SpeechletRequestHandler handler = new SpeechletRequestHandler(
+            Collections.<SpeechletRequestEnvelopeVerifier>emptyList());
+
+    private SpeechletRequest request;
+    private Session session;
+    private SpeechletResponseEnvelope responseEnvelope;
+
+    @Setup
+    public void setUp() throws Exception {
+        SpeechletRequestEnvelope<?> requestEnvelope;
+        try (InputStream in = getClass().getResourceAsStream("/envelopes/intent-request.json")) {
+            requestEnvelope = SpeechletRequestEnvelope.fromJson(in);
+        }
+        request = requestEnvelope.getRequest();
+        session = requestEnvelope.getSession();
+
+        String speechText =
+                "180 pounds for bob. bob is 180 pounds, carol is 150 pounds, "
+                        + "and alice is 131 pounds.";
+        PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+        speech.setText(speechText);
+        PlainTextOutputSpeech repromptSpeech = new PlainTextOutputSpeech();
+        repromptSpeech.setText("You can set a weight, tell the weights, or add a user.");
+        Reprompt reprompt = new Reprompt();
+        reprompt.setOutputSpeech(repromptSpeech);
+        SimpleCard card = new SimpleCard();
+        card.setTitle("Session");
+        card.setContent(speechText);
+
+        responseEnvelope = new SpeechletResponseEnvelope();
+        responseEnvelope.setResponse(SpeechletResponse.newAskResponse(speech, reprompt, card));
+        responseEnvelope.setSessionAttributes(session.getAttributes());
+    }
+
+    @Benchmark
+    public byte[] serializeOnce() throws Exception {
+        return handler.serializeResponse(request, responseEnvelope, session);
+    }
+
+    @Benchmark
+    public byte[] serializeForVerificationAndOutput() throws Exception {
+        for (SpeechletResponseVerifier verifier : responseVerifiers) {
+            if (!verifier.verify(responseEnvelope, session)) {
+                throw new IllegalStateException("Response rejected by " + verifier);
+            }
+        }
+        return responseEnvelope.toJsonBytes();
+    }
+}
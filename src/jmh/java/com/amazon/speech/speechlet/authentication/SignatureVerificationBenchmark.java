@@ -0,0 +1,115 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet.authentication;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStream;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the signature check of a request over recorded envelopes, signed in the setup with a
+ * test certificate. {@link #signatureInstancePerRequest()} is the check as it was done before
+ * {@link SignatureVerificationEngine}: a new {@code Signature} initialized with the public key, and
+ * a signature header decoded through a copy of its bytes. {@link #parseRequest()} is the JSON
+ * parsing of the same request, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureVerificationBenchmark {
+    @Param({"intent-request.json", "launch-request.json"})
+    public String envelope;
+
+    private final SignatureVerificationEngine engine = new SignatureVerificationEngine();
+
+    private byte[] serializedSpeechletRequest;
+    private String baseEncoded64Signature;
+    private X509Certificate signingCertificate;
+
+    @Setup
+    public void setUp() throws Exception {
+        serializedSpeechletRequest = readResource("/envelopes/" + envelope);
+
+        try (InputStream in = getClass().getResourceAsStream(
+                "/certificates/signing-certificate.pem")) {
+            signingCertificate =
+                    (X509Certificate) CertificateFactory.getInstance("X.509")
+                            .generateCertificate(in);
+        }
+        String keyPem = new String(readResource("/certificates/signing-key.pem"), "US-ASCII");
+        PrivateKey signingKey =
+                KeyFactory.getInstance(Sdk.SIGNATURE_KEY_TYPE).generatePrivate(
+                        new PKCS8EncodedKeySpec(Base64.decodeBase64(keyPem.replaceAll(
+                                "-----[A-Z ]+-----", ""))));
+
+        Signature signer = Signature.getInstance(Sdk.SIGNATURE_ALGORITHM);
+        signer.initSign(signingKey);
+        signer.update(serializedSpeechletRequest);
+        baseEncoded64Signature = Base64.encodeBase64String(signer.sign());
+
+        if (!verificationEngine() || !signatureInstancePerRequest()) {
+            throw new IllegalStateException("The signature of " + envelope + " does not verify");
+        }
+    }
+
+    @Benchmark
+    public boolean verificationEngine() throws Exception {
+        return engine.verify(serializedSpeechletRequest, baseEncoded64Signature,
+                signingCertificate);
+    }
+
+    @Benchmark
+    public boolean signatureInstancePerRequest() throws Exception {
+        Signature signature = Signature.getInstance(Sdk.SIGNATURE_ALGORITHM);
+        signature.initVerify(signingCertificate.getPublicKey());
+        signature.update(serializedSpeechletRequest);
+        return signature.verify(Base64.decodeBase64(baseEncoded64Signature
+                .getBytes(Sdk.CHARACTER_ENCODING)));
+    }
+
+    @Benchmark
+    public SpeechletRequestEnvelope<?> parseRequest() throws Exception {
+        return SpeechletRequestEnvelope.fromJson(serializedSpeechletRequest);
+    }
+
+    private byte[] readResource(String name) throws Exception {
+        try (InputStream in = getClass().getResourceAsStream(name)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+}
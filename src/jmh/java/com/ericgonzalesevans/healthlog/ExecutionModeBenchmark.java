@@ -0,0 +1,220 @@
+package com.ericgonzalesevans.healthlog;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.speechlet.SpeechletRequestHandler;
+import com.amazon.speech.speechlet.SpeechletToSpeechletV2Adapter;
+import com.amazon.speech.speechlet.SpeechletV2;
+import com.amazon.speech.speechlet.VirtualThreads;
+import com.amazon.speech.speechlet.lambda.LambdaSpeechletRequestHandler;
+import com.ericgonzalesevans.healthlog.storage.HealthLogDao;
+import com.ericgonzalesevans.healthlog.storage.HealthLogMeasurementItem;
+import com.ericgonzalesevans.healthlog.storage.HealthLogMetricType;
+import com.ericgonzalesevans.healthlog.storage.HealthLogMetricsCache;
+import com.ericgonzalesevans.healthlog.storage.HealthLogStore;
+import com.ericgonzalesevans.healthlog.storage.HealthLogUserDataItem;
+import com.ericgonzalesevans.healthlog.storage.InMemoryHealthLogStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the request throughput of the skill on a fixed pool of platform threads, as
+ * {@code AsyncSpeechletServlet} and {@code SpeechletHttpServer} run it by default, with a virtual
+ * thread per request, when every storage call waits for a simulated network round trip. The
+ * summary cache, the session copy and the prefetch are disabled, so reads are not served from
+ * memory after the warmup.
+ * <p>
+ * Each invocation handles {@value #REQUESTS} requests at once, alternating weight updates and
+ * weight reads of different customers. The virtual mode needs Java 21 or later; on older JVMs its
+ * setup fails and JMH reports the error.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(ExecutionModeBenchmark.REQUESTS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionModeBenchmark {
+    static final int REQUESTS = 1000;
+
+    private static final String APPLICATION_ID = "amzn1.ask.skill.benchmark";
+
+    @Param({"platform", "virtual"})
+    public String executionMode;
+
+    /** Size of the platform thread pool. */
+    @Param({"" + Sdk.DEFAULT_ASYNC_SERVLET_THREADS})
+    public int threads;
+
+    /** Time each storage call waits, as for a DynamoDB round trip. */
+    @Param({"5"})
+    public long storageLatencyMillis;
+
+    private final SpeechletRequestHandler handler =
+            new LambdaSpeechletRequestHandler(Collections.singleton(APPLICATION_ID));
+    private final List<byte[]> requests = new ArrayList<byte[]>();
+
+    private ExecutorService executor;
+    private SpeechletV2 speechlet;
+
+    @Setup
+    public void setUp() throws Exception {
+        if ("virtual".equals(executionMode)) {
+            executor = VirtualThreads.newVirtualThreadPerTaskExecutor("benchmark-");
+        } else {
+            executor = Executors.newFixedThreadPool(threads);
+        }
+
+        InMemoryHealthLogStore store = new InMemoryHealthLogStore();
+        SpeechletV2 setupSpeechlet =
+                new SpeechletToSpeechletV2Adapter(new HealthLogSpeechlet(new HealthLogManager(
+                        store)));
+        for (int i = 0; i < REQUESTS; i++) {
+            handle(setupSpeechlet, envelope(i, "AddUserIntent",
+                    "{\"UserName\":{\"name\":\"UserName\",\"value\":\"bob\"}}"), "bob has been added");
+            if (i % 2 == 0) {
+                requests.add(envelope(i, "SetWeightIntent",
+                        "{\"UserName\":{\"name\":\"UserName\",\"value\":\"bob\"},"
+                                + "\"WeightNumber\":{\"name\":\"WeightNumber\",\"value\":\"150\"}}"));
+            } else {
+                requests.add(envelope(i, "TellWeightIntent", "{}"));
+            }
+        }
+
+        // no cache, session copy or prefetch, so every request waits for its storage calls
+        HealthLogDao healthLogDao = new HealthLogDao(
+                new SimulatedLatencyHealthLogStore(store, storageLatencyMillis),
+                new HealthLogMetricsCache(0, 0), 0L, 0);
+        speechlet = new SpeechletToSpeechletV2Adapter(new HealthLogSpeechlet(new HealthLogManager(
+                healthLogDao)));
+        handle(speechlet, requests.get(0), "150 pounds for bob");
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void handleRequests() throws Exception {
+        List<Future<byte[]>> responses = new ArrayList<Future<byte[]>>(REQUESTS);
+        for (final byte[] request : requests) {
+            responses.add(executor.submit(() -> handler.handleSpeechletCall(speechlet, request)));
+        }
+        for (Future<byte[]> response : responses) {
+            response.get();
+        }
+    }
+
+    private void handle(SpeechletV2 speechlet, byte[] request, String expectedText)
+            throws Exception {
+        String response =
+                new String(handler.handleSpeechletCall(speechlet, request),
+                        StandardCharsets.UTF_8);
+        if (!response.contains(expectedText)) {
+            throw new IllegalStateException("Unexpected response: " + response);
+        }
+    }
+
+    private static byte[] envelope(int customerNumber, String intentName, String slots) {
+        return ("{\"version\":\"1.0\",\"session\":{\"new\":true,\"sessionId\":\"session-"
+                + customerNumber + "\",\"application\":{\"applicationId\":\"" + APPLICATION_ID
+                + "\"},\"attributes\":{},\"user\":{\"userId\":\"customer-" + customerNumber
+                + "\"}},\"request\":{\"type\":\"IntentRequest\",\"requestId\":\"request-"
+                + customerNumber + "\",\"timestamp\":\"2016-01-01T00:00:00Z\",\"intent\":"
+                + "{\"name\":\"" + intentName + "\",\"slots\":" + slots + "}}}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Delegates to a store after sleeping for the latency of each call.
+     */
+    static final class SimulatedLatencyHealthLogStore implements HealthLogStore {
+        private final HealthLogStore delegate;
+        private final long latencyMillis;
+
+        SimulatedLatencyHealthLogStore(HealthLogStore delegate, long latencyMillis) {
+            this.delegate = delegate;
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public HealthLogUserDataItem loadItem(HealthLogUserDataItem tableItem) {
+            awaitRoundTrip();
+            return delegate.loadItem(tableItem);
+        }
+
+        @Override
+        public void saveItem(HealthLogUserDataItem tableItem) {
+            awaitRoundTrip();
+            delegate.saveItem(tableItem);
+        }
+
+        @Override
+        public HealthLogUserDataItem updateMetricValue(String customerId, String userName,
+                HealthLogMetricType metricType, long value, long timestamp) {
+            // the summary update and the measurement are two requests
+            awaitRoundTrip();
+            awaitRoundTrip();
+            return delegate.updateMetricValue(customerId, userName, metricType, value,
+                    timestamp);
+        }
+
+        @Override
+        public Long clearItem(String customerId, Collection<String> userNames,
+                Long expectedVersion, long timestamp) {
+            awaitRoundTrip();
+            return delegate.clearItem(customerId, userNames, expectedVersion, timestamp);
+        }
+
+        @Override
+        public void saveMeasurementItem(HealthLogMeasurementItem measurementItem) {
+            awaitRoundTrip();
+            delegate.saveMeasurementItem(measurementItem);
+        }
+
+        @Override
+        public List<HealthLogMeasurementItem> queryLatestMeasurementItems(String seriesKey,
+                int limit) {
+            awaitRoundTrip();
+            return delegate.queryLatestMeasurementItems(seriesKey, limit);
+        }
+
+        @Override
+        public List<HealthLogMeasurementItem> queryMeasurementItemsBetween(String seriesKey,
+                long fromTimestamp, long toTimestamp) {
+            awaitRoundTrip();
+            return delegate.queryMeasurementItemsBetween(seriesKey, fromTimestamp, toTimestamp);
+        }
+
+        private void awaitRoundTrip() {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for storage", ex);
+            }
+        }
+    }
+}
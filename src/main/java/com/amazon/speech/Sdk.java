@@ -220,6 +220,88 @@ public final class Sdk {
     public static final String TIMESTAMP_TOLERANCE_SYSTEM_PROPERTY =
             "com.amazon.speech.speechlet.servlet.timestampTolerance";
 
+    /**
+     * <p>
+     * The name of the system property that sets the number of threads the
+     * {@link com.amazon.speech.speechlet.servlet.AsyncSpeechletServlet} verifies and dispatches
+     * requests on. Defaults to {@value #DEFAULT_ASYNC_SERVLET_THREADS}.
+     * </p>
+     * {@code -Dcom.amazon.speech.speechlet.servlet.asyncThreads=32}
+     */
+    public static final String ASYNC_SERVLET_THREADS_SYSTEM_PROPERTY =
+            "com.amazon.speech.speechlet.servlet.asyncThreads";
+
+    /**
+     * Default number of threads of the
+     * {@link com.amazon.speech.speechlet.servlet.AsyncSpeechletServlet}.
+     */
+    public static final int DEFAULT_ASYNC_SERVLET_THREADS = 16;
+
+    /**
+     * <p>
+     * The name of the system property that sets how many requests the
+     * {@link com.amazon.speech.speechlet.servlet.AsyncSpeechletServlet} queues when all its threads
+     * are busy. Requests beyond that are rejected with a 503 status code. Defaults to
+     * {@value #DEFAULT_ASYNC_SERVLET_QUEUE_CAPACITY}.
+     * </p>
+     * {@code -Dcom.amazon.speech.speechlet.servlet.asyncQueueCapacity=256}
+     */
+    public static final String ASYNC_SERVLET_QUEUE_CAPACITY_SYSTEM_PROPERTY =
+            "com.amazon.speech.speechlet.servlet.asyncQueueCapacity";
+
+    /**
+     * Default queue capacity of the
+     * {@link com.amazon.speech.speechlet.servlet.AsyncSpeechletServlet}.
+     */
+    public static final int DEFAULT_ASYNC_SERVLET_QUEUE_CAPACITY = 256;
+
+    /**
+     * <p>
+     * The name of the system property that sets the time, in milliseconds, the
+     * {@link com.amazon.speech.speechlet.servlet.AsyncSpeechletServlet} allows for a request,
+     * including the time it waits in the queue. Requests that take longer are answered with a 503
+     * status code. Defaults to {@value #DEFAULT_ASYNC_SERVLET_TIMEOUT_MILLIS}.
+     * </p>
+     * {@code -Dcom.amazon.speech.speechlet.servlet.asyncTimeout=7000}
+     */
+    public static final String ASYNC_SERVLET_TIMEOUT_SYSTEM_PROPERTY =
+            "com.amazon.speech.speechlet.servlet.asyncTimeout";
+
+    /**
+     * Default request timeout of the
+     * {@link com.amazon.speech.speechlet.servlet.AsyncSpeechletServlet}, a little below the time
+     * the Alexa service waits for a response.
+     */
+    public static final long DEFAULT_ASYNC_SERVLET_TIMEOUT_MILLIS = 7000;
+
+    /**
+     * <p>
+     * The name of the system property that makes the
+     * {@link com.amazon.speech.speechlet.servlet.AsyncSpeechletServlet} and the
+     * {@link com.amazon.speech.speechlet.server.SpeechletHttpServer} run each request on its own
+     * virtual thread instead of a fixed pool of threads, so that requests blocked on the
+     * certificate download or on storage do not hold a platform thread. Requires Java 21 or later;
+     * on older JVMs the property is ignored with a warning.
+     * </p>
+     * {@code -Dcom.amazon.speech.speechlet.virtualThreads=true}
+     */
+    public static final String VIRTUAL_THREADS_SYSTEM_PROPERTY =
+            "com.amazon.speech.speechlet.virtualThreads";
+
+    /**
+     * <p>
+     * The name of the system property that defers parsing of the {@code context} object of a
+     * request until {@link com.amazon.speech.json.SpeechletRequestEnvelope#getContext()} is first
+     * called. Skills that never read the context save the cost of deserializing the AudioPlayer
+     * and System state on every request. The property is the default of
+     * {@link com.amazon.speech.speechlet.SpeechletRequestHandler#setLazyContextParsing}, read when
+     * a handler is created, and applies to requests read without that option.
+     * </p>
+     * {@code -Dcom.amazon.speech.json.lazyContextParsing=true}
+     */
+    public static final String LAZY_CONTEXT_PARSING_SYSTEM_PROPERTY =
+            "com.amazon.speech.json.lazyContextParsing";
+
     private Sdk() {
     }
 }
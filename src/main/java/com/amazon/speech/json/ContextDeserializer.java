@@ -16,14 +16,19 @@ package com.amazon.speech.json;
 import com.amazon.speech.speechlet.Context;
 import com.amazon.speech.speechlet.State;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 
 import java.io.IOException;
 
+/**
+ * Reads the {@code Context} of a request straight from the token stream, dispatching on the
+ * field name of each interface without building an intermediate tree.
+ */
 class ContextDeserializer extends StdDeserializer<Context> {
+    private static final long serialVersionUID = 1L;
+
     ContextDeserializer() {
         super(Context.class);
     }
@@ -31,17 +36,24 @@ class ContextDeserializer extends StdDeserializer<Context> {
     @Override
     public Context deserialize(JsonParser parser, DeserializationContext context)
             throws IOException {
-        ObjectMapper underlyingMapper = ((ObjectMapper) parser.getCodec());
-        JsonNode messageNode = parser.readValueAsTree();
         Context.Builder contextBuilder = Context.builder();
 
-        for (SerializedInterface interfaceName : SerializedInterface.values()) {
-            if (messageNode.has(interfaceName.name())) {
-                State<?> state =
-                        underlyingMapper.convertValue(messageNode.get(interfaceName.name()),
-                                interfaceName.getStateClass());
-                contextBuilder.addState(state);
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = parser.nextToken();
+        }
+        for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+            SerializedInterface interfaceName =
+                    SerializedInterface.forName(parser.getCurrentName());
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            if (interfaceName == null) {
+                parser.skipChildren();
+                continue;
             }
+            State<?> state = parser.readValueAs(interfaceName.<State<?>>getStateClass());
+            contextBuilder.addState(state);
         }
 
         return contextBuilder.build();
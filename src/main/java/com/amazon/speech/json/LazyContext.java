@@ -0,0 +1,63 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.json;
+
+import com.amazon.speech.speechlet.Context;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+
+/**
+ * The {@code Context} of a request envelope, either already deserialized or kept as the buffered
+ * JSON tokens of the {@code context} object until it is first read.
+ */
+final class LazyContext {
+    private final TokenBuffer tokens;
+    private volatile Context context;
+
+    private LazyContext(final TokenBuffer tokens, final Context context) {
+        this.tokens = tokens;
+        this.context = context;
+    }
+
+    static LazyContext of(final Context context) {
+        return new LazyContext(null, context);
+    }
+
+    static LazyContext ofTokens(final TokenBuffer tokens) {
+        return new LazyContext(tokens, null);
+    }
+
+    /**
+     * Returns the context, deserializing it from the buffered tokens the first time.
+     *
+     * @return the context
+     * @throws IllegalStateException
+     *             if the buffered tokens cannot be deserialized into a {@code Context}
+     */
+    Context get() {
+        Context result = context;
+        if (result == null && tokens != null) {
+            try (JsonParser parser = tokens.asParser()) {
+                parser.nextToken();
+                result = parser.readValueAs(Context.class);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not deserialize the request context", e);
+            }
+            context = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.json;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.speechlet.Context;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+
+/**
+ * Reads the {@code context} of a request envelope. If lazy context parsing is enabled, the tokens
+ * of the object are only buffered, and the {@code Context} is deserialized when it is first read.
+ * <p>
+ * Lazy context parsing is enabled by the {@link #LAZY_CONTEXT_PARSING_ATTRIBUTE} attribute of the
+ * reader, or if the reader does not set it, by the
+ * {@value Sdk#LAZY_CONTEXT_PARSING_SYSTEM_PROPERTY} system property.
+ */
+class LazyContextDeserializer extends StdDeserializer<LazyContext> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Name of the {@code Boolean} reader attribute that enables or disables lazy context parsing.
+     */
+    static final String LAZY_CONTEXT_PARSING_ATTRIBUTE = "lazyContextParsing";
+
+    private final boolean defaultLazyContextParsing;
+
+    LazyContextDeserializer() {
+        super(LazyContext.class);
+        defaultLazyContextParsing = Boolean.getBoolean(Sdk.LAZY_CONTEXT_PARSING_SYSTEM_PROPERTY);
+    }
+
+    @Override
+    public LazyContext deserialize(JsonParser parser, DeserializationContext context)
+            throws IOException {
+        Object lazyContextParsing = context.getAttribute(LAZY_CONTEXT_PARSING_ATTRIBUTE);
+        if (!(lazyContextParsing != null ? (Boolean) lazyContextParsing
+                : defaultLazyContextParsing)) {
+            return LazyContext.of(parser.readValueAs(Context.class));
+        }
+        TokenBuffer tokens = new TokenBuffer(parser);
+        tokens.copyCurrentStructure(parser);
+        return LazyContext.ofTokens(tokens);
+    }
+}
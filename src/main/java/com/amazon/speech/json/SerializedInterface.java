@@ -20,10 +20,21 @@ import com.amazon.speech.speechlet.interfaces.audioplayer.AudioPlayerState;
 import com.amazon.speech.speechlet.interfaces.system.SystemInterface;
 import com.amazon.speech.speechlet.interfaces.system.SystemState;
 
+import java.util.HashMap;
+import java.util.Map;
+
 enum SerializedInterface {
     AudioPlayer(AudioPlayerInterface.class, AudioPlayerState.class),
     System(SystemInterface.class, SystemState.class);
 
+    private static final Map<String, SerializedInterface> BY_NAME =
+            new HashMap<String, SerializedInterface>();
+    static {
+        for (SerializedInterface serializedInterface : values()) {
+            BY_NAME.put(serializedInterface.name(), serializedInterface);
+        }
+    }
+
     private final Class<? extends Interface> interfaceClass;
     private final Class<? extends State> stateClass;
 
@@ -40,4 +51,14 @@ enum SerializedInterface {
     protected <T extends State> Class<T> getStateClass() {
         return (Class<T>) stateClass;
     }
+
+    /**
+     * Returns the interface serialized under the given field name, or null if it is not known.
+     *
+     * @param name
+     * @return
+     */
+    static SerializedInterface forName(String name) {
+        return BY_NAME.get(name);
+    }
 }
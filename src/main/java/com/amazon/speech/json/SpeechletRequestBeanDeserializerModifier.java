@@ -26,6 +26,8 @@ class SpeechletRequestBeanDeserializerModifier extends BeanDeserializerModifier
             BeanDescription beanDesc, JsonDeserializer<?> deserializer) {
         if (Context.class.isAssignableFrom(beanDesc.getBeanClass())) {
             return new ContextDeserializer();
+        } else if (LazyContext.class.isAssignableFrom(beanDesc.getBeanClass())) {
+            return new LazyContextDeserializer();
         } else if (SupportedInterfaces.class.isAssignableFrom(beanDesc.getBeanClass())) {
             return new SupportedInterfacesDeserializer();
         } else {
@@ -20,6 +20,7 @@ import com.amazon.speech.speechlet.SpeechletRequest;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -50,12 +51,22 @@ public class SpeechletRequestEnvelope<T extends SpeechletRequest> {
         OBJECT_MAPPER.registerModule(new SpeechletRequestModule());
     }
 
+    /**
+     * Readers that parse the context eagerly or lazily, whatever the system property says.
+     */
+    private static final ObjectReader EAGER_CONTEXT_READER = OBJECT_MAPPER.reader(
+            SpeechletRequestEnvelope.class).withAttribute(
+            LazyContextDeserializer.LAZY_CONTEXT_PARSING_ATTRIBUTE, Boolean.FALSE);
+    private static final ObjectReader LAZY_CONTEXT_READER = OBJECT_MAPPER.reader(
+            SpeechletRequestEnvelope.class).withAttribute(
+            LazyContextDeserializer.LAZY_CONTEXT_PARSING_ATTRIBUTE, Boolean.TRUE);
+
     // ----------
     // Attributes
 
     private final String version;
     private final Session session;
-    private final Context context;
+    private final LazyContext context;
     private final T request;
 
     /**
@@ -92,7 +103,7 @@ public class SpeechletRequestEnvelope<T extends SpeechletRequest> {
      */
     private SpeechletRequestEnvelope(@JsonProperty("version") final String version,
             @JsonProperty("session") final Session session,
-            @JsonProperty("context") final Context context,
+            @JsonProperty("context") final LazyContext context,
             @JsonProperty("request") final T request) {
         this.version = version;
         this.session = session;
@@ -125,12 +136,13 @@ public class SpeechletRequestEnvelope<T extends SpeechletRequest> {
     }
 
     /**
-     * Returns the context.
+     * Returns the context. If the envelope was read with lazy context parsing, the context is
+     * deserialized on the first call.
      *
      * @return the context
      */
     public Context getContext() {
-        return context;
+        return context != null ? context.get() : null;
     }
 
     /**
@@ -159,6 +171,24 @@ public class SpeechletRequestEnvelope<T extends SpeechletRequest> {
         return OBJECT_MAPPER.readValue(in, SpeechletRequestEnvelope.class);
     }
 
+    /**
+     * Read a {@code SpeechletRequestEnvelope} from an {@code InputStream}, parsing the context
+     * eagerly or lazily regardless of the {@value Sdk#LAZY_CONTEXT_PARSING_SYSTEM_PROPERTY}
+     * system property. The byte stream must be UTF-8 encoded.
+     *
+     * @param in
+     *            the input stream to read from
+     * @param lazyContextParsing
+     *            whether to defer parsing the context until {@link #getContext()} is called
+     * @return the envelope read from the stream
+     * @throws IOException
+     *             if deserialization fails
+     */
+    public static SpeechletRequestEnvelope<?> fromJson(final InputStream in,
+            final boolean lazyContextParsing) throws IOException {
+        return readerFor(lazyContextParsing).readValue(in);
+    }
+
     /**
      * Read a {@code SpeechletRequestEnvelope} from a byte array. The byte array must be UTF-8
      * encoded.
@@ -173,6 +203,24 @@ public class SpeechletRequestEnvelope<T extends SpeechletRequest> {
         return OBJECT_MAPPER.readValue(json, SpeechletRequestEnvelope.class);
     }
 
+    /**
+     * Read a {@code SpeechletRequestEnvelope} from a byte array, parsing the context eagerly or
+     * lazily regardless of the {@value Sdk#LAZY_CONTEXT_PARSING_SYSTEM_PROPERTY} system property.
+     * The byte array must be UTF-8 encoded.
+     *
+     * @param json
+     *            the bytes to read from
+     * @param lazyContextParsing
+     *            whether to defer parsing the context until {@link #getContext()} is called
+     * @return the envelope read from the bytes
+     * @throws IOException
+     *             if deserialization fails
+     */
+    public static SpeechletRequestEnvelope<?> fromJson(final byte[] json,
+            final boolean lazyContextParsing) throws IOException {
+        return readerFor(lazyContextParsing).readValue(json);
+    }
+
     /**
      * Read a {@code SpeechletRequestEnvelope} from a {@code String}.
      *
@@ -186,13 +234,17 @@ public class SpeechletRequestEnvelope<T extends SpeechletRequest> {
         return OBJECT_MAPPER.readValue(json, SpeechletRequestEnvelope.class);
     }
 
+    private static ObjectReader readerFor(final boolean lazyContextParsing) {
+        return lazyContextParsing ? LAZY_CONTEXT_READER : EAGER_CONTEXT_READER;
+    }
+
     /**
      * Builder used to construct a new {@code SpeechletRequestEnvelope}.
      */
     public static final class Builder<T extends SpeechletRequest> {
         private String version = Sdk.VERSION;
         private Session session;
-        private Context context;
+        private LazyContext context;
         private T request;
 
         private Builder() {
@@ -209,7 +261,20 @@ public class SpeechletRequestEnvelope<T extends SpeechletRequest> {
         }
 
         public Builder<T> withContext(final Context context) {
-            this.context = context;
+            this.context = context != null ? LazyContext.of(context) : null;
+            return this;
+        }
+
+        /**
+         * Uses the context of another envelope, without deserializing it if its parsing has been
+         * deferred.
+         *
+         * @param envelope
+         *            the envelope to take the context from
+         * @return this builder
+         */
+        public Builder<T> withContextOf(final SpeechletRequestEnvelope<?> envelope) {
+            this.context = envelope.context;
             return this;
         }
 
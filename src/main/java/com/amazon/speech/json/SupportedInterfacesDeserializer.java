@@ -16,14 +16,19 @@ package com.amazon.speech.json;
 import com.amazon.speech.speechlet.Interface;
 import com.amazon.speech.speechlet.SupportedInterfaces;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 
 import java.io.IOException;
 
+/**
+ * Reads the {@code SupportedInterfaces} of a device straight from the token stream, dispatching
+ * on the field name of each interface without building an intermediate tree.
+ */
 class SupportedInterfacesDeserializer extends StdDeserializer<SupportedInterfaces> {
+    private static final long serialVersionUID = 1L;
+
     SupportedInterfacesDeserializer() {
         super(SupportedInterfaces.class);
     }
@@ -31,17 +36,25 @@ class SupportedInterfacesDeserializer extends StdDeserializer<SupportedInterface
     @Override
     public SupportedInterfaces deserialize(JsonParser parser, DeserializationContext context)
             throws IOException {
-        ObjectMapper underlyingMapper = ((ObjectMapper) parser.getCodec());
-        JsonNode messageNode = parser.readValueAsTree();
         SupportedInterfaces.Builder supportedInterfacesBuilder = SupportedInterfaces.builder();
 
-        for (SerializedInterface interfaceName : SerializedInterface.values()) {
-            if (messageNode.has(interfaceName.name())) {
-                Interface supportedInterface =
-                        underlyingMapper.convertValue(messageNode.get(interfaceName.name()),
-                                interfaceName.getInterfaceClass());
-                supportedInterfacesBuilder.addSupportedInterface(supportedInterface);
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = parser.nextToken();
+        }
+        for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+            SerializedInterface interfaceName =
+                    SerializedInterface.forName(parser.getCurrentName());
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            if (interfaceName == null) {
+                parser.skipChildren();
+                continue;
             }
+            Interface supportedInterface =
+                    parser.readValueAs(interfaceName.<Interface>getInterfaceClass());
+            supportedInterfacesBuilder.addSupportedInterface(supportedInterface);
         }
 
         return supportedInterfacesBuilder.build();
@@ -0,0 +1,233 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+
+package com.amazon.speech.speechlet;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.json.SpeechletResponseEnvelope;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class takes an incoming request from the Alexa service, executes that call on the
+ * {@link AsyncSpeechletV2} and returns a future of the resulting response.
+ * <p>
+ * The life-cycle requests are chained on the futures returned by the speechlet, so that no thread
+ * waits for them. Requests for the optional interfaces, such as {@code AudioPlayer}, are
+ * dispatched by a {@link SpeechletRequestDispatcher} on the calling thread, since those interfaces
+ * return their responses directly.
+ * <p>
+ * Cancelling the future of a response cancels the future the speechlet returned for it, so that a
+ * request that timed out does not keep the speechlet's work going.
+ */
+public class AsyncSpeechletRequestDispatcher {
+    private final AsyncSpeechletV2 speechlet;
+    private final SpeechletRequestDispatcher interfaceDispatcher;
+
+    public AsyncSpeechletRequestDispatcher(AsyncSpeechletV2 speechlet) {
+        this.speechlet = speechlet;
+        if (speechlet instanceof SpeechletV2ToAsyncSpeechletV2Adapter) {
+            interfaceDispatcher =
+                    new SpeechletRequestDispatcher(
+                            ((SpeechletV2ToAsyncSpeechletV2Adapter) speechlet).getSpeechlet());
+        } else {
+            interfaceDispatcher =
+                    new SpeechletRequestDispatcher(new BlockingSpeechlet(speechlet), speechlet);
+        }
+    }
+
+    /**
+     * Returns whether this dispatcher calls the given speechlet, or a speechlet adapting the same
+     * {@link SpeechletV2}.
+     *
+     * @param speechlet
+     *            the speechlet to compare with
+     * @return true if requests for the speechlet can be dispatched by this dispatcher
+     */
+    boolean isFor(AsyncSpeechletV2 speechlet) {
+        if (this.speechlet == speechlet) {
+            return true;
+        }
+        if (!(this.speechlet instanceof SpeechletV2ToAsyncSpeechletV2Adapter)
+                || !(speechlet instanceof SpeechletV2ToAsyncSpeechletV2Adapter)) {
+            return false;
+        }
+        return interfaceDispatcher.isFor(((SpeechletV2ToAsyncSpeechletV2Adapter) speechlet)
+                .getSpeechlet());
+    }
+
+    /**
+     * Starts the prefetch of a request if the speechlet is a {@link SpeechletRequestPrefetcher}.
+     *
+     * @param requestEnvelope
+     *            the parsed, unverified request
+     * @return the prefetch to cancel once the request is done, or null
+     */
+    Future<?> prefetch(SpeechletRequestEnvelope<?> requestEnvelope) {
+        return interfaceDispatcher.prefetch(requestEnvelope);
+    }
+
+    /**
+     * Processes the provided {@link SpeechletRequestEnvelope} by calling the
+     * {@link AsyncSpeechletV2} provided at construction time, and returns a future of the
+     * response. If the session is new, the request is handled once the future returned by
+     * {@code onSessionStarted} completes.
+     *
+     * @param requestEnvelope
+     *            the current request
+     * @param session
+     *            the session for the request
+     * @return a future of the {@link SpeechletResponseEnvelope}, completed exceptionally with a
+     *         {@link SpeechletRequestHandlerException} if the request type is not supported, or
+     *         with the exception of the speechlet; cancelling it cancels the speechlet's future
+     */
+    public CompletableFuture<SpeechletResponseEnvelope> dispatchSpeechletCall(
+            final SpeechletRequestEnvelope<?> requestEnvelope, final Session session) {
+        final SpeechletRequest speechletRequest = requestEnvelope.getRequest();
+        if (!(speechletRequest instanceof LaunchRequest)
+                && !(speechletRequest instanceof IntentRequest)
+                && !(speechletRequest instanceof SessionEndedRequest)) {
+            try {
+                return CompletableFuture.completedFuture(interfaceDispatcher.dispatchSpeechletCall(
+                        requestEnvelope, session));
+            } catch (Exception e) {
+                return failedFuture(e);
+            }
+        }
+
+        // the future of the speechlet call in progress, cancelled with the response
+        final AtomicReference<CompletableFuture<?>> speechletCall =
+                new AtomicReference<CompletableFuture<?>>();
+
+        CompletableFuture<Void> sessionStarted = CompletableFuture.completedFuture(null);
+        // If this is a new session, invoke the speechlet's onSessionStarted life-cycle method.
+        if ((session != null) && session.isNew()) {
+            sessionStarted = sessionStarted.thenCompose(ignored -> track(speechletCall,
+                    speechlet.onSessionStarted(SpeechletRequestDispatcher
+                            .newSessionStartedRequestEnvelope(requestEnvelope, session))));
+        }
+
+        final CompletableFuture<SpeechletResponseEnvelope> response = sessionStarted
+                .thenCompose(ignored -> track(speechletCall, handleCoreRequest(requestEnvelope)))
+                .thenApply(speechletResponse -> SpeechletRequestDispatcher.newResponseEnvelope(
+                        speechletResponse, session,
+                        !(speechletRequest instanceof SessionEndedRequest)));
+        response.whenComplete((responseEnvelope, failure) -> {
+            CompletableFuture<?> call = speechletCall.get();
+            if (response.isCancelled() && call != null) {
+                call.cancel(true);
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Checks the future of a speechlet call and records it as the call in progress.
+     */
+    private static <T> CompletableFuture<T> track(
+            AtomicReference<CompletableFuture<?>> speechletCall, CompletableFuture<T> future) {
+        speechletCall.set(checkReturned(future));
+        return future;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<SpeechletResponse> handleCoreRequest(
+            SpeechletRequestEnvelope<?> requestEnvelope) {
+        SpeechletRequest speechletRequest = requestEnvelope.getRequest();
+        if (speechletRequest instanceof LaunchRequest) {
+            return speechlet.onLaunch((SpeechletRequestEnvelope<LaunchRequest>) requestEnvelope);
+        }
+        if (speechletRequest instanceof IntentRequest) {
+            return speechlet.onIntent((SpeechletRequestEnvelope<IntentRequest>) requestEnvelope);
+        }
+        CompletableFuture<Void> sessionEnded =
+                speechlet.onSessionEnded(
+                        (SpeechletRequestEnvelope<SessionEndedRequest>) requestEnvelope);
+        return checkReturned(sessionEnded).thenApply(ignored -> (SpeechletResponse) null);
+    }
+
+    private static <T> CompletableFuture<T> checkReturned(CompletableFuture<T> future) {
+        if (future == null) {
+            throw new IllegalStateException("The speechlet returned a null future");
+        }
+        return future;
+    }
+
+    /**
+     * Returns a future completed exceptionally, which {@code CompletableFuture} only provides from
+     * Java 9.
+     *
+     * @param ex
+     *            the exception
+     * @return the failed future
+     */
+    static <T> CompletableFuture<T> failedFuture(Throwable ex) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(ex);
+        return future;
+    }
+
+    /**
+     * Presents an {@link AsyncSpeechletV2} as a {@link SpeechletV2} to the dispatcher of the
+     * optional interfaces, which only calls {@code onSessionStarted} if a request for an interface
+     * starts a session. The call waits for the future of the speechlet.
+     */
+    private static final class BlockingSpeechlet implements SpeechletV2 {
+        private final AsyncSpeechletV2 speechlet;
+
+        BlockingSpeechlet(AsyncSpeechletV2 speechlet) {
+            this.speechlet = speechlet;
+        }
+
+        @Override
+        public void onSessionStarted(
+                SpeechletRequestEnvelope<SessionStartedRequest> requestEnvelope) {
+            join(speechlet.onSessionStarted(requestEnvelope));
+        }
+
+        @Override
+        public SpeechletResponse onLaunch(SpeechletRequestEnvelope<LaunchRequest> requestEnvelope) {
+            return join(speechlet.onLaunch(requestEnvelope));
+        }
+
+        @Override
+        public SpeechletResponse onIntent(SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            return join(speechlet.onIntent(requestEnvelope));
+        }
+
+        @Override
+        public void onSessionEnded(SpeechletRequestEnvelope<SessionEndedRequest> requestEnvelope) {
+            join(speechlet.onSessionEnded(requestEnvelope));
+        }
+
+        /**
+         * Waits for a future, throwing its exception as the {@link SpeechletToSpeechletV2Adapter}
+         * does, so that the dispatcher unwraps a {@link SpeechletException}.
+         */
+        private static <T> T join(CompletableFuture<T> future) {
+            try {
+                return checkReturned(future).join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+
+package com.amazon.speech.speechlet;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.json.SpeechletResponseEnvelope;
+import com.amazon.speech.speechlet.SpeechletRequestHandler.RequestSignature;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+
+/**
+ * The AsyncSpeechletRequestHandler processes an incoming request from the Alexa service for an
+ * {@link AsyncSpeechletV2}, with the request and response verification of a
+ * {@link SpeechletRequestHandler}, and returns a future of the response bytes.
+ * <p>
+ * The request is parsed and verified on the calling thread, since the signature check does not
+ * wait once the signing certificate is cached. The future returned by the speechlet is then
+ * chained with the serialization and verification of the response, so that no thread waits while
+ * the speechlet completes it. If the speechlet is a {@link SpeechletRequestPrefetcher}, its
+ * prefetch is started before the request is verified, and cancelled once the response is done.
+ * <p>
+ * The returned futures complete exceptionally with the exceptions that
+ * {@link SpeechletRequestHandler#handleSpeechletCall(SpeechletV2, byte[])} throws. Cancelling one
+ * cancels the future returned by the speechlet.
+ */
+public class AsyncSpeechletRequestHandler {
+    private final SpeechletRequestHandler requestHandler;
+    private volatile AsyncSpeechletRequestDispatcher dispatcher;
+
+    /**
+     * @param requestHandler
+     *            the handler whose verifiers are applied to requests and responses
+     */
+    public AsyncSpeechletRequestHandler(SpeechletRequestHandler requestHandler) {
+        this.requestHandler = requestHandler;
+    }
+
+    /**
+     * Processes the provided bytes as a request from the Alexa service and returns a future of
+     * the response, after dispatching the request to the appropriate method of the
+     * {@code AsyncSpeechletV2}.
+     *
+     * @param speechlet
+     *            the speechlet to be invoked
+     * @param serializedSpeechletRequest
+     *            the request coming from Alexa service
+     * @return a future of the response that should be returned to the Alexa service
+     */
+    public CompletableFuture<byte[]> handleSpeechletCall(AsyncSpeechletV2 speechlet,
+            byte[] serializedSpeechletRequest) {
+        SpeechletRequestEnvelope<?> requestEnvelope;
+        try {
+            requestEnvelope = requestHandler.parseRequest(serializedSpeechletRequest);
+        } catch (IOException | RuntimeException ex) {
+            return AsyncSpeechletRequestDispatcher.failedFuture(ex);
+        }
+        return internalHandleSpeechletCall(speechlet, requestEnvelope, null);
+    }
+
+    /**
+     * Processes the provided bytes as a signed request from the Alexa service and returns a
+     * future of the response. The signature is checked after the request is parsed, as
+     * {@link SpeechletRequestHandler#handleSpeechletCall(SpeechletV2, byte[], String, String)}
+     * does, and the future completes exceptionally with a {@link SecurityException} if it is
+     * invalid.
+     *
+     * @param speechlet
+     *            the speechlet to be invoked
+     * @param serializedSpeechletRequest
+     *            the request coming from Alexa service
+     * @param baseEncoded64Signature
+     *            the value of the signature request header
+     * @param signingCertificateChainUrl
+     *            the value of the certificate chain URL request header
+     * @return a future of the response that should be returned to the Alexa service
+     */
+    public CompletableFuture<byte[]> handleSpeechletCall(AsyncSpeechletV2 speechlet,
+            byte[] serializedSpeechletRequest, String baseEncoded64Signature,
+            String signingCertificateChainUrl) {
+        RequestSignature requestSignature =
+                new RequestSignature(serializedSpeechletRequest, baseEncoded64Signature,
+                        signingCertificateChainUrl);
+        SpeechletRequestEnvelope<?> requestEnvelope;
+        try {
+            requestEnvelope = requestHandler.parseSignedRequest(requestSignature);
+        } catch (IOException | RuntimeException ex) {
+            return AsyncSpeechletRequestDispatcher.failedFuture(ex);
+        }
+        return internalHandleSpeechletCall(speechlet, requestEnvelope, requestSignature);
+    }
+
+    private CompletableFuture<byte[]> internalHandleSpeechletCall(AsyncSpeechletV2 speechlet,
+            final SpeechletRequestEnvelope<?> requestEnvelope,
+            final RequestSignature requestSignature) {
+        AsyncSpeechletRequestDispatcher dispatcher = getDispatcher(speechlet);
+        final SpeechletRequest request = requestEnvelope.getRequest();
+        final Session session = requestEnvelope.getSession();
+
+        // Start loading what the request needs while it is verified
+        final Future<?> prefetch = dispatcher.prefetch(requestEnvelope);
+
+        CompletableFuture<SpeechletResponseEnvelope> response;
+        try {
+            requestHandler.verifyRequest(requestEnvelope, requestSignature);
+            response = dispatcher.dispatchSpeechletCall(requestEnvelope, session);
+        } catch (SpeechletRequestHandlerException | RuntimeException ex) {
+            response = AsyncSpeechletRequestDispatcher.failedFuture(ex);
+        }
+
+        final CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+        response.whenComplete((responseEnvelope, failure) -> {
+            if (prefetch != null) {
+                prefetch.cancel(true);
+            }
+            if (failure != null) {
+                result.completeExceptionally(unwrap(failure));
+                return;
+            }
+            try {
+                result.complete(requestHandler.serializeResponse(request, responseEnvelope,
+                        session));
+            } catch (IOException | SpeechletRequestHandlerException | RuntimeException ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        final CompletableFuture<SpeechletResponseEnvelope> dispatched = response;
+        result.whenComplete((outputBytes, failure) -> {
+            if (result.isCancelled()) {
+                dispatched.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the exception a synchronous handler would have thrown for a failed future: the
+     * cause of a {@link CompletionException}, and the {@link SpeechletException} of a
+     * {@link Speechlet} wrapped by the {@link SpeechletToSpeechletV2Adapter}.
+     */
+    private static Throwable unwrap(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure instanceof RuntimeException
+                && failure.getCause() instanceof SpeechletException) {
+            return failure.getCause();
+        }
+        return failure;
+    }
+
+    /**
+     * Returns the dispatcher for a speechlet, reusing the one built for the previous request when
+     * it is for the same speechlet.
+     */
+    private AsyncSpeechletRequestDispatcher getDispatcher(AsyncSpeechletV2 speechlet) {
+        AsyncSpeechletRequestDispatcher current = dispatcher;
+        if (current == null || !current.isFor(speechlet)) {
+            current = new AsyncSpeechletRequestDispatcher(speechlet);
+            dispatcher = current;
+        }
+        return current;
+    }
+}
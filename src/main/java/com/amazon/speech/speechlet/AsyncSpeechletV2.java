@@ -0,0 +1,88 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+
+package com.amazon.speech.speechlet;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>
+ * An asynchronous {@link SpeechletV2}. Its life-cycle methods return futures instead of waiting
+ * for a response, so that a speechlet calling non-blocking clients, for instance for storage,
+ * does not hold the thread that dispatched the request while they complete.
+ * </p>
+ *
+ * <p>
+ * The methods are called on the thread that dispatches the request and should return promptly.
+ * The response is serialized and verified on the thread that completes the future. A future
+ * completed exceptionally with a {@link SpeechletException} reports a problem from within the
+ * speechlet, as the {@code SpeechletException} thrown by a {@link Speechlet} does.
+ * </p>
+ *
+ * <p>
+ * A {@code SpeechletV2} is hosted as an {@code AsyncSpeechletV2} with a
+ * {@link SpeechletV2ToAsyncSpeechletV2Adapter}.
+ * </p>
+ *
+ * @see AsyncSpeechletRequestHandler
+ * @see SpeechletV2
+ */
+public interface AsyncSpeechletV2 {
+    /**
+     * Used to notify that a new session started as a result of a user interacting with the device.
+     * The request is handled once the returned future completes.
+     *
+     * @param requestEnvelope
+     *            the session started request envelope
+     * @return a future completed once the session is initialized
+     */
+    CompletableFuture<Void> onSessionStarted(
+            SpeechletRequestEnvelope<SessionStartedRequest> requestEnvelope);
+
+    /**
+     * Entry point for handling a speech initiated request to start the skill without providing an
+     * {@code Intent}.<br>
+     *
+     * This method is only invoked when {@link Session#isNew()} is {@code true}.
+     *
+     * @param requestEnvelope
+     *            the launch request envelope
+     * @return a future of the response, spoken and visual, to the request
+     */
+    CompletableFuture<SpeechletResponse> onLaunch(
+            SpeechletRequestEnvelope<LaunchRequest> requestEnvelope);
+
+    /**
+     * Entry point for handling speech initiated requests.
+     *
+     * @param requestEnvelope
+     *            the intent request envelope to handle
+     * @return a future of the response, spoken and visual, to the request
+     */
+    CompletableFuture<SpeechletResponse> onIntent(
+            SpeechletRequestEnvelope<IntentRequest> requestEnvelope);
+
+    /**
+     * Callback used to notify that the session ended as a result of the user interacting, or not
+     * interacting with the device.
+     *
+     * @param requestEnvelope
+     *            the end of session request envelope
+     * @return a future completed once the session is cleaned up
+     */
+    CompletableFuture<Void> onSessionEnded(
+            SpeechletRequestEnvelope<SessionEndedRequest> requestEnvelope);
+}
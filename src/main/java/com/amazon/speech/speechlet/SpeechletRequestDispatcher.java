@@ -23,25 +23,94 @@ import com.amazon.speech.speechlet.interfaces.playbackcontroller.request.*;
 import com.amazon.speech.speechlet.interfaces.system.System;
 import com.amazon.speech.speechlet.interfaces.system.request.ExceptionEncounteredRequest;
 import com.amazon.speech.speechlet.interfaces.system.request.SystemRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * This class takes an incoming request from the Alexa service, executes that call on the
  * {@link SpeechletV2} and returns the resulting response.
+ * <p>
+ * The method to call for each type of request is looked up in a table keyed by request class,
+ * built once from the interfaces the speechlet implements, so a dispatcher should be reused for
+ * all the requests to the same speechlet.
  */
 public class SpeechletRequestDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(SpeechletRequestDispatcher.class);
+
     private final SpeechletV2 speechlet;
+    private final SpeechletRequestPrefetcher prefetcher;
+    private final Map<Class<?>, RequestHandler<?>> requestHandlers =
+            new HashMap<Class<?>, RequestHandler<?>>();
 
     public SpeechletRequestDispatcher(SpeechletV2 speechlet) {
-        this.speechlet = speechlet;
+        this(speechlet, getSpeechletWithInterfaces(speechlet));
     }
 
     public SpeechletRequestDispatcher(Speechlet speechlet) {
         this(new SpeechletToSpeechletV2Adapter(speechlet));
     }
 
+    /**
+     * @param speechlet
+     *            the speechlet called for the life-cycle requests
+     * @param speechletWithInterfaces
+     *            the object that may implement the optional interfaces, such as
+     *            {@link AudioPlayer} and {@link SpeechletRequestPrefetcher}
+     */
+    SpeechletRequestDispatcher(SpeechletV2 speechlet, Object speechletWithInterfaces) {
+        this.speechlet = speechlet;
+        this.prefetcher =
+                speechletWithInterfaces instanceof SpeechletRequestPrefetcher
+                        ? (SpeechletRequestPrefetcher) speechletWithInterfaces : null;
+        registerRequestHandlers(speechletWithInterfaces);
+    }
+
+    /**
+     * Returns whether this dispatcher calls the given speechlet, or a speechlet adapting the same
+     * {@link Speechlet}.
+     *
+     * @param speechlet
+     *            the speechlet to compare with
+     * @return true if requests for the speechlet can be dispatched by this dispatcher
+     */
+    boolean isFor(SpeechletV2 speechlet) {
+        if (this.speechlet == speechlet) {
+            return true;
+        }
+        if (!(this.speechlet instanceof SpeechletToSpeechletV2Adapter)
+                || !(speechlet instanceof SpeechletToSpeechletV2Adapter)) {
+            return false;
+        }
+        return ((SpeechletToSpeechletV2Adapter) this.speechlet).getSpeechlet() ==
+                ((SpeechletToSpeechletV2Adapter) speechlet).getSpeechlet();
+    }
+
+    /**
+     * Starts the prefetch of a request if the speechlet is a {@link SpeechletRequestPrefetcher}.
+     * A failing prefetch is only logged, since the request can be handled without it.
+     *
+     * @param requestEnvelope
+     *            the parsed, unverified request
+     * @return the prefetch to cancel once the request is done, or null
+     */
+    Future<?> prefetch(SpeechletRequestEnvelope<?> requestEnvelope) {
+        if (prefetcher == null) {
+            return null;
+        }
+        try {
+            return prefetcher.prefetch(requestEnvelope);
+        } catch (RuntimeException e) {
+            log.warn("Unable to start the prefetch of a request, handling it without", e);
+            return null;
+        }
+    }
+
     /**
      * Processes the provided {@link SpeechletRequestEnvelope} and generates an appropriate response
      * after dispatching the appropriate method calls on the {@link SpeechletV2} provided at
@@ -64,33 +133,23 @@ public class SpeechletRequestDispatcher {
             throws IOException, SpeechletRequestHandlerException, SpeechletException {
         SpeechletRequest speechletRequest = requestEnvelope.getRequest();
 
-        // Prepare a response envelope
-        final SpeechletResponseEnvelope responseEnvelope = new SpeechletResponseEnvelope();
-        responseEnvelope.setVersion(Sdk.VERSION);
+        RequestHandler<SpeechletRequest> requestHandler = getRequestHandler(speechletRequest);
+        if (requestHandler == null) {
+            String requestType =
+                    (speechletRequest != null) ? speechletRequest.getClass().getName() : null;
+            String message =
+                    String.format(
+                            "Unsupported request type %s. Consider updating your SDK version. "
+                                    + "Request envelope version %s, SDK version %s", requestType,
+                            requestEnvelope.getVersion(), Sdk.VERSION);
+            throw new SpeechletRequestHandlerException(message);
+        }
 
         // If this is a new session, invoke the speechlet's onSessionStarted life-cycle method.
         if ((session != null) && session.isNew()) {
-            final String requestId =
-                    (speechletRequest != null) ? speechletRequest.getRequestId() : null;
-            final Locale locale = (speechletRequest != null) ? speechletRequest.getLocale() : null;
-
-            SessionStartedRequest sessionStartedRequest =
-                    SessionStartedRequest
-                            .builder()
-                            .withRequestId(requestId)
-                            .withLocale(locale)
-                            .build();
-
-            SpeechletRequestEnvelope<SessionStartedRequest> sessionStartedRequestEnvelope =
-                    SpeechletRequestEnvelope
-                            .<SessionStartedRequest>builder()
-                            .withContext(requestEnvelope.getContext())
-                            .withRequest(sessionStartedRequest)
-                            .withSession(session)
-                            .withVersion(requestEnvelope.getVersion())
-                            .build();
             try {
-                speechlet.onSessionStarted(sessionStartedRequestEnvelope);
+                speechlet.onSessionStarted(newSessionStartedRequestEnvelope(requestEnvelope,
+                        session));
             } catch (RuntimeException e) {
                 // Doing this to preserve backwards compatibility if a Speechlet instead of a
                 // SpeechletV2 is used
@@ -102,151 +161,305 @@ public class SpeechletRequestDispatcher {
             }
         }
 
-        Object speechletWithInterfaces = speechlet instanceof SpeechletToSpeechletV2Adapter ?
-                ((SpeechletToSpeechletV2Adapter) speechlet).getSpeechlet() : speechlet;
+        SpeechletResponse speechletResponse;
+        try {
+            @SuppressWarnings("unchecked")
+            SpeechletRequestEnvelope<SpeechletRequest> typeSpecificRequestEnvelope =
+                    (SpeechletRequestEnvelope<SpeechletRequest>) requestEnvelope;
+            speechletResponse = requestHandler.handle(typeSpecificRequestEnvelope);
+        } catch (RuntimeException e) {
+            // Doing this to preserve backwards compatibility if a Speechlet instead of a
+            // SpeechletV2 is used
+            if (requestHandler.isCoreRequest() && e.getCause() instanceof SpeechletException) {
+                throw (SpeechletException) e.getCause();
+            }
+
+            throw e;
+        }
+
+        return newResponseEnvelope(speechletResponse, session,
+                requestHandler.savesSessionAttributes());
+    }
+
+    /**
+     * Builds the request passed to {@code onSessionStarted} before the first request of a new
+     * session.
+     *
+     * @param requestEnvelope
+     *            the first request of the session
+     * @param session
+     *            the new session
+     * @return the session started request envelope
+     */
+    static SpeechletRequestEnvelope<SessionStartedRequest> newSessionStartedRequestEnvelope(
+            SpeechletRequestEnvelope<?> requestEnvelope, Session session) {
+        SpeechletRequest speechletRequest = requestEnvelope.getRequest();
+        final String requestId = speechletRequest.getRequestId();
+        final Locale locale = speechletRequest.getLocale();
+
+        SessionStartedRequest sessionStartedRequest =
+                SessionStartedRequest
+                        .builder()
+                        .withRequestId(requestId)
+                        .withLocale(locale)
+                        .build();
+
+        return SpeechletRequestEnvelope
+                .<SessionStartedRequest>builder()
+                .withContextOf(requestEnvelope)
+                .withRequest(sessionStartedRequest)
+                .withSession(session)
+                .withVersion(requestEnvelope.getVersion())
+                .build();
+    }
+
+    /**
+     * Builds the envelope of a response, with the session attributes if the request saves them
+     * and the response does not end the session.
+     *
+     * @param speechletResponse
+     *            the response of the speechlet, or null
+     * @param session
+     *            the session for the request, or null
+     * @param savesSessionAttributes
+     *            whether the type of request returns the session attributes
+     * @return the response envelope
+     */
+    static SpeechletResponseEnvelope newResponseEnvelope(SpeechletResponse speechletResponse,
+            Session session, boolean savesSessionAttributes) {
+        final SpeechletResponseEnvelope responseEnvelope = new SpeechletResponseEnvelope();
+        responseEnvelope.setVersion(Sdk.VERSION);
 
         boolean saveSessionAttributes = false;
-        SpeechletResponse speechletResponse = null;
+        if (savesSessionAttributes) {
+            saveSessionAttributes =
+                    speechletResponse == null || !speechletResponse.getShouldEndSession();
+        }
 
-        /** AudioPlayer **/
-        if (speechletRequest instanceof AudioPlayerRequest) {
-            if (speechletWithInterfaces instanceof AudioPlayer) {
-                AudioPlayer audioPlayerSpeechlet = (AudioPlayer) speechletWithInterfaces;
-                if (speechletRequest instanceof PlaybackFailedRequest) {
-                    @SuppressWarnings("unchecked")
-                    SpeechletRequestEnvelope<PlaybackFailedRequest> typeSpecificRequestEnvelope =
-                            (SpeechletRequestEnvelope<PlaybackFailedRequest>) requestEnvelope;
-                    speechletResponse = audioPlayerSpeechlet.onPlaybackFailed(typeSpecificRequestEnvelope);
-                } else if (speechletRequest instanceof PlaybackFinishedRequest) {
-                    @SuppressWarnings("unchecked")
-                    SpeechletRequestEnvelope<PlaybackFinishedRequest> typeSpecificRequestEnvelope =
-                            (SpeechletRequestEnvelope<PlaybackFinishedRequest>) requestEnvelope;
-                    speechletResponse =
-                            audioPlayerSpeechlet
-                                    .onPlaybackFinished(typeSpecificRequestEnvelope);
-                } else if (speechletRequest instanceof PlaybackNearlyFinishedRequest) {
-                    @SuppressWarnings("unchecked")
-                    SpeechletRequestEnvelope<PlaybackNearlyFinishedRequest> typeSpecificRequestEnvelope =
-                            (SpeechletRequestEnvelope<PlaybackNearlyFinishedRequest>) requestEnvelope;
-                    speechletResponse =
-                            audioPlayerSpeechlet
-                                    .onPlaybackNearlyFinished(typeSpecificRequestEnvelope);
-                } else if (speechletRequest instanceof PlaybackStartedRequest) {
-                    @SuppressWarnings("unchecked")
-                    SpeechletRequestEnvelope<PlaybackStartedRequest> typeSpecificRequestEnvelope =
-                            (SpeechletRequestEnvelope<PlaybackStartedRequest>) requestEnvelope;
-                    speechletResponse =
-                            audioPlayerSpeechlet
-                                    .onPlaybackStarted(typeSpecificRequestEnvelope);
-                } else if (speechletRequest instanceof PlaybackStoppedRequest) {
-                    @SuppressWarnings("unchecked")
-                    SpeechletRequestEnvelope<PlaybackStoppedRequest> typeSpecificRequestEnvelope =
-                            (SpeechletRequestEnvelope<PlaybackStoppedRequest>) requestEnvelope;
-                    speechletResponse =
-                            audioPlayerSpeechlet
-                                    .onPlaybackStopped(typeSpecificRequestEnvelope);
-                }
+        responseEnvelope.setResponse(speechletResponse);
+
+        if (saveSessionAttributes && session != null) {
+            responseEnvelope.setSessionAttributes(session.getAttributes());
+        }
+
+        return responseEnvelope;
+    }
+
+    /**
+     * Returns the handler for the class of a request, or one of its superclasses, or null if the
+     * request type is not supported.
+     */
+    @SuppressWarnings("unchecked")
+    private RequestHandler<SpeechletRequest> getRequestHandler(SpeechletRequest speechletRequest) {
+        if (speechletRequest == null) {
+            return null;
+        }
+        Class<?> requestClass = speechletRequest.getClass();
+        for (; requestClass != null; requestClass = requestClass.getSuperclass()) {
+            RequestHandler<?> requestHandler = requestHandlers.get(requestClass);
+            if (requestHandler != null) {
+                return (RequestHandler<SpeechletRequest>) requestHandler;
             }
-            /** PlaybackController **/
-        } else if (speechletRequest instanceof PlaybackControllerRequest) {
-            if (speechletWithInterfaces instanceof PlaybackController) {
-                PlaybackController playbackControllerSpeechlet = (PlaybackController) speechletWithInterfaces;
-                if (speechletRequest instanceof NextCommandIssuedRequest) {
-                    @SuppressWarnings("unchecked")
-                    SpeechletRequestEnvelope<NextCommandIssuedRequest> typeSpecificRequestEnvelope =
-                            (SpeechletRequestEnvelope<NextCommandIssuedRequest>) requestEnvelope;
-                    speechletResponse =
-                            playbackControllerSpeechlet
-                                    .onNextCommandIssued(typeSpecificRequestEnvelope);
-                } else if (speechletRequest instanceof PreviousCommandIssuedRequest) {
-                    @SuppressWarnings("unchecked")
-                    SpeechletRequestEnvelope<PreviousCommandIssuedRequest> typeSpecificRequestEnvelope =
-                            (SpeechletRequestEnvelope<PreviousCommandIssuedRequest>) requestEnvelope;
-                    speechletResponse =
-                            playbackControllerSpeechlet
-                                    .onPreviousCommandIssued(typeSpecificRequestEnvelope);
-                } else if (speechletRequest instanceof PauseCommandIssuedRequest) {
-                    @SuppressWarnings("unchecked")
-                    SpeechletRequestEnvelope<PauseCommandIssuedRequest> typeSpecificRequestEnvelope =
-                            (SpeechletRequestEnvelope<PauseCommandIssuedRequest>) requestEnvelope;
-                    speechletResponse =
-                            playbackControllerSpeechlet
-                                    .onPauseCommandIssued(typeSpecificRequestEnvelope);
-                } else if (speechletRequest instanceof PlayCommandIssuedRequest) {
-                    @SuppressWarnings("unchecked")
-                    SpeechletRequestEnvelope<PlayCommandIssuedRequest> typeSpecificRequestEnvelope =
-                            (SpeechletRequestEnvelope<PlayCommandIssuedRequest>) requestEnvelope;
-                    speechletResponse =
-                            playbackControllerSpeechlet
-                                    .onPlayCommandIssued(typeSpecificRequestEnvelope);
-                }
+        }
+        return null;
+    }
+
+    /**
+     * Registers the handler for a type of request. Requests of that type are dispatched to the
+     * handler with a single lookup.
+     */
+    private <T extends SpeechletRequest> void register(Class<T> requestClass,
+            RequestHandler<T> requestHandler) {
+        requestHandlers.put(requestClass, requestHandler);
+    }
+
+    /**
+     * Returns the object that may implement the optional interfaces: the adapted
+     * {@link Speechlet} for an adapter, the speechlet itself otherwise.
+     */
+    private static Object getSpeechletWithInterfaces(SpeechletV2 speechlet) {
+        return speechlet instanceof SpeechletToSpeechletV2Adapter ?
+                ((SpeechletToSpeechletV2Adapter) speechlet).getSpeechlet() : speechlet;
+    }
+
+    private void registerRequestHandlers(Object speechletWithInterfaces) {
+        /** SpeechletV2 **/
+        register(LaunchRequest.class, new RequestHandler<LaunchRequest>(true, true) {
+            @Override
+            SpeechletResponse handle(SpeechletRequestEnvelope<LaunchRequest> requestEnvelope)
+                    throws SpeechletException {
+                return speechlet.onLaunch(requestEnvelope);
             }
-            /** System **/
-        } else if (speechletRequest instanceof SystemRequest) {
-            if (speechletWithInterfaces instanceof System) {
-                System systemSpeechlet = (System) speechletWithInterfaces;
-                if (speechletRequest instanceof ExceptionEncounteredRequest) {
-                    @SuppressWarnings("unchecked")
-                    SpeechletRequestEnvelope<ExceptionEncounteredRequest> typeSpecificRequestEnvelope =
-                            (SpeechletRequestEnvelope<ExceptionEncounteredRequest>) requestEnvelope;
-                    systemSpeechlet
-                            .onExceptionEncountered(typeSpecificRequestEnvelope);
-                }
+        });
+        register(IntentRequest.class, new RequestHandler<IntentRequest>(true, true) {
+            @Override
+            SpeechletResponse handle(SpeechletRequestEnvelope<IntentRequest> requestEnvelope)
+                    throws SpeechletException {
+                return speechlet.onIntent(requestEnvelope);
             }
-            /** SpeechletV2 **/
-        } else if (speechletRequest instanceof CoreSpeechletRequest) {
-            try {
-                if (speechletRequest instanceof SessionEndedRequest) {
-                    @SuppressWarnings("unchecked")
-                    SpeechletRequestEnvelope<SessionEndedRequest> parameterizedRequestEnvelope =
-                            (SpeechletRequestEnvelope<SessionEndedRequest>) requestEnvelope;
-                    speechlet.onSessionEnded(parameterizedRequestEnvelope);
-                } else {
-                    if (speechletRequest instanceof IntentRequest) {
-                        @SuppressWarnings("unchecked")
-                        SpeechletRequestEnvelope<IntentRequest> parameterizedRequestEnvelope =
-                                (SpeechletRequestEnvelope<IntentRequest>) requestEnvelope;
-                        speechletResponse = speechlet.onIntent(parameterizedRequestEnvelope);
-                    } else if (speechletRequest instanceof LaunchRequest) {
-                        @SuppressWarnings("unchecked")
-                        SpeechletRequestEnvelope<LaunchRequest> parameterizedRequestEnvelope =
-                                (SpeechletRequestEnvelope<LaunchRequest>) requestEnvelope;
-                        speechletResponse = speechlet.onLaunch(parameterizedRequestEnvelope);
+        });
+        register(SessionEndedRequest.class, new RequestHandler<SessionEndedRequest>(true, false) {
+            @Override
+            SpeechletResponse handle(SpeechletRequestEnvelope<SessionEndedRequest> requestEnvelope)
+                    throws SpeechletException {
+                speechlet.onSessionEnded(requestEnvelope);
+                return null;
+            }
+        });
+
+        /** AudioPlayer **/
+        final AudioPlayer audioPlayerSpeechlet =
+                speechletWithInterfaces instanceof AudioPlayer
+                        ? (AudioPlayer) speechletWithInterfaces : null;
+        register(PlaybackFailedRequest.class,
+                new InterfaceRequestHandler<PlaybackFailedRequest>(audioPlayerSpeechlet) {
+                    @Override
+                    SpeechletResponse handleImplemented(
+                            SpeechletRequestEnvelope<PlaybackFailedRequest> requestEnvelope) {
+                        return audioPlayerSpeechlet.onPlaybackFailed(requestEnvelope);
+                    }
+                });
+        register(PlaybackFinishedRequest.class,
+                new InterfaceRequestHandler<PlaybackFinishedRequest>(audioPlayerSpeechlet) {
+                    @Override
+                    SpeechletResponse handleImplemented(
+                            SpeechletRequestEnvelope<PlaybackFinishedRequest> requestEnvelope) {
+                        return audioPlayerSpeechlet.onPlaybackFinished(requestEnvelope);
                     }
+                });
+        register(PlaybackNearlyFinishedRequest.class,
+                new InterfaceRequestHandler<PlaybackNearlyFinishedRequest>(audioPlayerSpeechlet) {
+                    @Override
+                    SpeechletResponse handleImplemented(
+                            SpeechletRequestEnvelope<PlaybackNearlyFinishedRequest> requestEnvelope) {
+                        return audioPlayerSpeechlet.onPlaybackNearlyFinished(requestEnvelope);
+                    }
+                });
+        register(PlaybackStartedRequest.class,
+                new InterfaceRequestHandler<PlaybackStartedRequest>(audioPlayerSpeechlet) {
+                    @Override
+                    SpeechletResponse handleImplemented(
+                            SpeechletRequestEnvelope<PlaybackStartedRequest> requestEnvelope) {
+                        return audioPlayerSpeechlet.onPlaybackStarted(requestEnvelope);
+                    }
+                });
+        register(PlaybackStoppedRequest.class,
+                new InterfaceRequestHandler<PlaybackStoppedRequest>(audioPlayerSpeechlet) {
+                    @Override
+                    SpeechletResponse handleImplemented(
+                            SpeechletRequestEnvelope<PlaybackStoppedRequest> requestEnvelope) {
+                        return audioPlayerSpeechlet.onPlaybackStopped(requestEnvelope);
+                    }
+                });
 
-                    if (speechletResponse != null) {
-                        saveSessionAttributes = !speechletResponse.getShouldEndSession();
-                    } else {
-                        saveSessionAttributes = true;
+        /** PlaybackController **/
+        final PlaybackController playbackControllerSpeechlet =
+                speechletWithInterfaces instanceof PlaybackController
+                        ? (PlaybackController) speechletWithInterfaces : null;
+        register(NextCommandIssuedRequest.class,
+                new InterfaceRequestHandler<NextCommandIssuedRequest>(playbackControllerSpeechlet) {
+                    @Override
+                    SpeechletResponse handleImplemented(
+                            SpeechletRequestEnvelope<NextCommandIssuedRequest> requestEnvelope) {
+                        return playbackControllerSpeechlet.onNextCommandIssued(requestEnvelope);
                     }
-                }
-            } catch (RuntimeException e) {
-                // Doing this to preserve backwards compatibility if a Speechlet instead of a
-                // SpeechletV2 is used
-                if (e.getCause() instanceof SpeechletException) {
-                    throw (SpeechletException) e.getCause();
-                }
+                });
+        register(PreviousCommandIssuedRequest.class,
+                new InterfaceRequestHandler<PreviousCommandIssuedRequest>(
+                        playbackControllerSpeechlet) {
+                    @Override
+                    SpeechletResponse handleImplemented(
+                            SpeechletRequestEnvelope<PreviousCommandIssuedRequest> requestEnvelope) {
+                        return playbackControllerSpeechlet.onPreviousCommandIssued(requestEnvelope);
+                    }
+                });
+        register(PauseCommandIssuedRequest.class,
+                new InterfaceRequestHandler<PauseCommandIssuedRequest>(playbackControllerSpeechlet) {
+                    @Override
+                    SpeechletResponse handleImplemented(
+                            SpeechletRequestEnvelope<PauseCommandIssuedRequest> requestEnvelope) {
+                        return playbackControllerSpeechlet.onPauseCommandIssued(requestEnvelope);
+                    }
+                });
+        register(PlayCommandIssuedRequest.class,
+                new InterfaceRequestHandler<PlayCommandIssuedRequest>(playbackControllerSpeechlet) {
+                    @Override
+                    SpeechletResponse handleImplemented(
+                            SpeechletRequestEnvelope<PlayCommandIssuedRequest> requestEnvelope) {
+                        return playbackControllerSpeechlet.onPlayCommandIssued(requestEnvelope);
+                    }
+                });
 
-                throw e;
-            }
-            /** Exception **/
-        } else {
-            String requestType =
-                    (speechletRequest != null) ? speechletRequest.getClass().getName() : null;
-            String message =
-                    String.format(
-                            "Unsupported request type %s. Consider updating your SDK version. "
-                                    + "Request envelope version %s, SDK version %s", requestType,
-                            requestEnvelope.getVersion(), Sdk.VERSION);
-            throw new SpeechletRequestHandlerException(message);
+        /** System **/
+        final System systemSpeechlet =
+                speechletWithInterfaces instanceof System ? (System) speechletWithInterfaces : null;
+        register(ExceptionEncounteredRequest.class,
+                new InterfaceRequestHandler<ExceptionEncounteredRequest>(systemSpeechlet) {
+                    @Override
+                    SpeechletResponse handleImplemented(
+                            SpeechletRequestEnvelope<ExceptionEncounteredRequest> requestEnvelope) {
+                        systemSpeechlet.onExceptionEncountered(requestEnvelope);
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Calls the speechlet method for one type of request.
+     *
+     * @param <T>
+     *            the type of request handled
+     */
+    private abstract static class RequestHandler<T extends SpeechletRequest> {
+        private final boolean coreRequest;
+        private final boolean savesSessionAttributes;
+
+        RequestHandler(boolean coreRequest, boolean savesSessionAttributes) {
+            this.coreRequest = coreRequest;
+            this.savesSessionAttributes = savesSessionAttributes;
         }
 
-        responseEnvelope.setResponse(speechletResponse);
+        /**
+         * Returns whether the request is one of the {@link SpeechletV2} life-cycle requests.
+         */
+        boolean isCoreRequest() {
+            return coreRequest;
+        }
 
-        if (saveSessionAttributes && session != null) {
-            responseEnvelope.setSessionAttributes(session.getAttributes());
+        /**
+         * Returns whether the session attributes are returned with a response that does not end
+         * the session.
+         */
+        boolean savesSessionAttributes() {
+            return savesSessionAttributes;
         }
 
-        return responseEnvelope;
+        abstract SpeechletResponse handle(SpeechletRequestEnvelope<T> requestEnvelope)
+                throws SpeechletException;
+    }
+
+    /**
+     * Handles a request of an interface, such as AudioPlayer. The request is ignored if the
+     * speechlet does not implement the interface.
+     *
+     * @param <T>
+     *            the type of request handled
+     */
+    private abstract static class InterfaceRequestHandler<T extends SpeechletRequest> extends
+            RequestHandler<T> {
+        private final boolean implemented;
+
+        InterfaceRequestHandler(Object interfaceSpeechlet) {
+            super(false, false);
+            this.implemented = interfaceSpeechlet != null;
+        }
+
+        @Override
+        SpeechletResponse handle(SpeechletRequestEnvelope<T> requestEnvelope)
+                throws SpeechletException {
+            return implemented ? handleImplemented(requestEnvelope) : null;
+        }
+
+        abstract SpeechletResponse handleImplemented(SpeechletRequestEnvelope<T> requestEnvelope);
     }
 }
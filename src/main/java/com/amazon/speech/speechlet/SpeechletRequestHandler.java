@@ -13,12 +13,16 @@
 
 package com.amazon.speech.speechlet;
 
+import com.amazon.speech.Sdk;
 import com.amazon.speech.json.SpeechletRequestEnvelope;
 import com.amazon.speech.json.SpeechletResponseEnvelope;
+import com.amazon.speech.speechlet.authentication.SpeechletRequestSignatureVerifier;
 import com.amazon.speech.speechlet.verifier.*;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.Future;
 
 /**
  * The SpeechletRequestHandler processes an incoming request from the Alexa service, decides what
@@ -26,12 +30,22 @@ import java.util.*;
  * response bytes. This class can be hosted by a servlet (for instance, for a web server) or by AWS
  * Lambda. In either case, the logic is the same with different surrounding logic to handle the
  * generated output bytes.
+ * <p>
+ * If the speechlet is a {@link SpeechletRequestPrefetcher}, its prefetch is started as soon as the
+ * request is parsed, so that it runs while the request is verified, and is cancelled once the
+ * request has been handled or rejected.
+ * <p>
+ * Requests are parsed with lazy context parsing if {@link #setLazyContextParsing(boolean)} turned
+ * it on, which defaults to the {@value Sdk#LAZY_CONTEXT_PARSING_SYSTEM_PROPERTY} system property.
  */
 @SuppressWarnings("deprecation")
 public class SpeechletRequestHandler {
     private final List<SpeechletRequestVerifier> requestVerifiers;
     private final List<SpeechletRequestEnvelopeVerifier> requestEnvelopeVerifiers;
     private final List<SpeechletResponseVerifier> responseVerifiers;
+    private volatile SpeechletRequestDispatcher dispatcher;
+    private volatile boolean lazyContextParsing =
+            Boolean.getBoolean(Sdk.LAZY_CONTEXT_PARSING_SYSTEM_PROPERTY);
 
     @Deprecated
     public SpeechletRequestHandler(final List<SpeechletRequestVerifier> requestVerifiers,
@@ -55,6 +69,25 @@ public class SpeechletRequestHandler {
         this.responseVerifiers = responseVerifiers;
     }
 
+    /**
+     * Sets whether the context of a request is only parsed when the speechlet first reads it.
+     * Speechlets that never read the context save the cost of deserializing the AudioPlayer and
+     * System state on every request.
+     *
+     * @param lazyContextParsing
+     *            whether to defer parsing the context of requests
+     */
+    public void setLazyContextParsing(boolean lazyContextParsing) {
+        this.lazyContextParsing = lazyContextParsing;
+    }
+
+    /**
+     * @return whether the context of a request is only parsed when the speechlet first reads it
+     */
+    public boolean isLazyContextParsing() {
+        return lazyContextParsing;
+    }
+
     /**
      * Processes the provided bytes as a request from the Alexa service and generates an appropriate
      * response after dispatching the request to the appropriate method calls on the
@@ -104,16 +137,160 @@ public class SpeechletRequestHandler {
         return internalHandleSpeechletCall(speechlet, serializedSpeechletRequest);
     }
 
+    /**
+     * Processes the provided bytes as a signed request from the Alexa service, checking the
+     * signature after the request is parsed so that a {@link SpeechletRequestPrefetcher} can start
+     * loading data while the signature is verified. Requests that cannot be parsed are still
+     * rejected for an invalid signature first.
+     *
+     * @param speechlet
+     *            the speechlet to be invoked
+     * @param serializedSpeechletRequest
+     *            the request coming from Alexa service
+     * @param baseEncoded64Signature
+     *            the value of the signature request header
+     * @param signingCertificateChainUrl
+     *            the value of the certificate chain URL request header
+     * @return the response that should be returned to the Alexa service. This comes from the
+     *         appropriate method call in the configured {@code SpeechletV2}
+     * @throws IOException
+     *             may occur during request or response serialization
+     * @throws SpeechletRequestHandlerException
+     *             indicates a problem with the request or response
+     * @throws SpeechletException
+     *             indicates a problem from within the included {@code SpeechletV2}
+     * @throws SecurityException
+     *             if the signature is invalid
+     */
+    public byte[] handleSpeechletCall(SpeechletV2 speechlet, byte[] serializedSpeechletRequest,
+            String baseEncoded64Signature, String signingCertificateChainUrl) throws IOException,
+            SpeechletRequestHandlerException, SpeechletException {
+        RequestSignature requestSignature =
+                new RequestSignature(serializedSpeechletRequest, baseEncoded64Signature,
+                        signingCertificateChainUrl);
+        return internalHandleSpeechletCall(speechlet, parseSignedRequest(requestSignature),
+                requestSignature);
+    }
+
+    /**
+     * Processes a request from the Alexa service read directly from a stream, without buffering
+     * its bytes first, and generates an appropriate response after dispatching the request to the
+     * appropriate method calls on the {@code SpeechletV2} provided at construction time. Use this
+     * method only when the raw request bytes are not needed, for instance to check the request
+     * signature.
+     *
+     * @param speechlet
+     *            the speechlet to be invoked
+     * @param speechletRequestStream
+     *            the UTF-8 encoded request coming from Alexa service
+     * @return the response that should be returned to the Alexa service. This comes from the
+     *         appropriate method call in the configured {@code SpeechletV2}
+     * @throws IOException
+     *             may occur during request or response serialization
+     * @throws SpeechletRequestHandlerException
+     *             indicates a problem with the request or response
+     * @throws SpeechletException
+     *             indicates a problem from within the included {@code SpeechletV2}
+     */
+    public byte[] handleSpeechletCall(SpeechletV2 speechlet, InputStream speechletRequestStream)
+            throws IOException, SpeechletRequestHandlerException, SpeechletException {
+        return internalHandleSpeechletCall(speechlet,
+                SpeechletRequestEnvelope.fromJson(speechletRequestStream, lazyContextParsing),
+                null);
+    }
+
     private byte[] internalHandleSpeechletCall(SpeechletV2 speechlet,
             byte[] serializedSpeechletRequest) throws IOException,
             SpeechletRequestHandlerException, SpeechletException {
+        return internalHandleSpeechletCall(speechlet, parseRequest(serializedSpeechletRequest),
+                null);
+    }
 
-        final SpeechletRequestEnvelope<?> requestEnvelope =
-                SpeechletRequestEnvelope.fromJson(serializedSpeechletRequest);
+    private byte[] internalHandleSpeechletCall(SpeechletV2 speechlet,
+            final SpeechletRequestEnvelope<?> requestEnvelope,
+            final RequestSignature requestSignature) throws IOException,
+            SpeechletRequestHandlerException, SpeechletException {
+        SpeechletRequestDispatcher dispatcher = getDispatcher(speechlet);
 
+        // Start loading what the request needs while it is verified
+        Future<?> prefetch = dispatcher.prefetch(requestEnvelope);
+        try {
+            return verifyAndDispatch(dispatcher, requestEnvelope, requestSignature);
+        } finally {
+            if (prefetch != null) {
+                prefetch.cancel(true);
+            }
+        }
+    }
+
+    private byte[] verifyAndDispatch(SpeechletRequestDispatcher dispatcher,
+            final SpeechletRequestEnvelope<?> requestEnvelope,
+            final RequestSignature requestSignature) throws IOException,
+            SpeechletRequestHandlerException, SpeechletException {
+        final Session session = requestEnvelope.getSession();
+
+        verifyRequest(requestEnvelope, requestSignature);
+
+        // Dispatch request to Speechlet
+        SpeechletResponseEnvelope responseEnvelope =
+                dispatcher.dispatchSpeechletCall(requestEnvelope, session);
+
+        return serializeResponse(requestEnvelope.getRequest(), responseEnvelope, session);
+    }
+
+    /**
+     * Parses a request with the configured context parsing.
+     *
+     * @param serializedSpeechletRequest
+     *            the request coming from Alexa service
+     * @return the parsed request
+     * @throws IOException
+     *             if the request cannot be parsed
+     */
+    SpeechletRequestEnvelope<?> parseRequest(byte[] serializedSpeechletRequest)
+            throws IOException {
+        return SpeechletRequestEnvelope.fromJson(serializedSpeechletRequest, lazyContextParsing);
+    }
+
+    /**
+     * Parses a signed request. A request that cannot be parsed is checked for an invalid
+     * signature first, so that it is rejected for it.
+     *
+     * @param requestSignature
+     *            the request bytes with their signature headers
+     * @return the parsed request
+     * @throws IOException
+     *             if the request cannot be parsed
+     */
+    SpeechletRequestEnvelope<?> parseSignedRequest(RequestSignature requestSignature)
+            throws IOException {
+        try {
+            return parseRequest(requestSignature.serializedSpeechletRequest);
+        } catch (IOException ex) {
+            requestSignature.check();
+            throw ex;
+        }
+    }
+
+    /**
+     * Checks the signature of a request, if it has one, and runs the request verifiers.
+     *
+     * @param requestEnvelope
+     *            the parsed request
+     * @param requestSignature
+     *            the signature of the request, or null if it is not checked
+     * @throws SpeechletRequestHandlerException
+     *             if a verifier rejects the request
+     */
+    void verifyRequest(final SpeechletRequestEnvelope<?> requestEnvelope,
+            final RequestSignature requestSignature) throws SpeechletRequestHandlerException {
         final SpeechletRequest request = requestEnvelope.getRequest();
         final Session session = requestEnvelope.getSession();
 
+        if (requestSignature != null) {
+            requestSignature.check();
+        }
+
         // Verify request
         for (SpeechletRequestVerifier verifier : requestVerifiers) {
             if (!verifier.verify(request, session)) {
@@ -134,15 +311,37 @@ public class SpeechletRequestHandler {
                 throw new SpeechletRequestHandlerException(message);
             }
         }
+    }
 
-        // Dispatch request to Speechlet
-        SpeechletRequestDispatcher dispatcher = new SpeechletRequestDispatcher(speechlet);
-        SpeechletResponseEnvelope responseEnvelope =
-                dispatcher.dispatchSpeechletCall(requestEnvelope, session);
+    /**
+     * Serializes a response and runs the response verifiers on it.
+     *
+     * @param request
+     *            the request answered
+     * @param responseEnvelope
+     *            the response of the speechlet
+     * @param session
+     *            the session for the request
+     * @return the serialized response
+     * @throws IOException
+     *             if the response cannot be serialized
+     * @throws SpeechletRequestHandlerException
+     *             if a verifier rejects the response
+     */
+    byte[] serializeResponse(final SpeechletRequest request,
+            final SpeechletResponseEnvelope responseEnvelope, final Session session)
+            throws IOException, SpeechletRequestHandlerException {
+        // Serialize the response once, and verify the bytes that are returned
+        byte[] serializedResponse = responseEnvelope.toJsonBytes();
 
         // Verify response
         for (SpeechletResponseVerifier verifier : responseVerifiers) {
-            if (!verifier.verify(responseEnvelope, session)) {
+            boolean verified =
+                    verifier instanceof SerializedSpeechletResponseVerifier
+                            ? ((SerializedSpeechletResponseVerifier) verifier).verify(
+                                    responseEnvelope, serializedResponse, session)
+                            : verifier.verify(responseEnvelope, session);
+            if (!verified) {
                 String message =
                         String.format("Could not validate SpeechletResponse %s using verifier %s, "
                                 + "rejecting response", request.getRequestId(), verifier
@@ -152,7 +351,20 @@ public class SpeechletRequestHandler {
             }
         }
 
-        return responseEnvelope.toJsonBytes();
+        return serializedResponse;
+    }
+
+    /**
+     * Returns the dispatcher for a speechlet, reusing the one built for the previous request when
+     * it is for the same speechlet.
+     */
+    private SpeechletRequestDispatcher getDispatcher(SpeechletV2 speechlet) {
+        SpeechletRequestDispatcher current = dispatcher;
+        if (current == null || !current.isFor(speechlet)) {
+            current = new SpeechletRequestDispatcher(speechlet);
+            dispatcher = current;
+        }
+        return current;
     }
 
     private void addApplicationIdSpeechletRequestEnvelopeVerifierIfNecessary() {
@@ -166,4 +378,27 @@ public class SpeechletRequestHandler {
             }
         }
     }
+
+    /**
+     * The raw bytes of a request with its signature headers.
+     */
+    static final class RequestSignature {
+        private final byte[] serializedSpeechletRequest;
+        private final String baseEncoded64Signature;
+        private final String signingCertificateChainUrl;
+
+        RequestSignature(byte[] serializedSpeechletRequest, String baseEncoded64Signature,
+                String signingCertificateChainUrl) {
+            this.serializedSpeechletRequest = serializedSpeechletRequest;
+            this.baseEncoded64Signature = baseEncoded64Signature;
+            this.signingCertificateChainUrl = signingCertificateChainUrl;
+        }
+
+        void check() {
+            // Verify the authenticity of the request by checking the provided signature &
+            // certificate.
+            SpeechletRequestSignatureVerifier.checkRequestSignature(serializedSpeechletRequest,
+                    baseEncoded64Signature, signingCertificateChainUrl);
+        }
+    }
 }
@@ -0,0 +1,40 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+
+import java.util.concurrent.Future;
+
+/**
+ * Implemented by speechlets that start loading the data a request needs before the request has
+ * been verified, so that the load overlaps the signature, application id and timestamp checks.
+ * <p>
+ * The {@link SpeechletRequestHandler} calls {@link #prefetch(SpeechletRequestEnvelope)} right
+ * after parsing the request, and cancels the returned future once the request has been handled or
+ * rejected. The speechlet consumes the prefetched data itself while it handles the request;
+ * anything not consumed by then should be released when the future is cancelled.
+ */
+public interface SpeechletRequestPrefetcher {
+    /**
+     * Starts loading the data a request will need, without waiting for it. The request has not
+     * been verified yet, so nothing may be changed on its behalf.
+     *
+     * @param requestEnvelope
+     *            the parsed, unverified request
+     * @return the prefetch, cancelled by the handler once the request is done, or null if nothing
+     *         was started
+     */
+    Future<?> prefetch(SpeechletRequestEnvelope<?> requestEnvelope);
+}
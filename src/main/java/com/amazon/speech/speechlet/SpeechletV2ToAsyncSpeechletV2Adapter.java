@@ -0,0 +1,80 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+
+package com.amazon.speech.speechlet;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class is intended for internal use only.
+ *
+ * It adapts a {@link SpeechletV2} into an {@link AsyncSpeechletV2}. The speechlet is called on the
+ * thread that dispatches the request, and its response or exception is returned as a completed
+ * future.
+ */
+public class SpeechletV2ToAsyncSpeechletV2Adapter implements AsyncSpeechletV2 {
+    private final SpeechletV2 speechlet;
+
+    public SpeechletV2ToAsyncSpeechletV2Adapter(SpeechletV2 speechlet) {
+        this.speechlet = speechlet;
+    }
+
+    @Override
+    public CompletableFuture<Void> onSessionStarted(
+            SpeechletRequestEnvelope<SessionStartedRequest> requestEnvelope) {
+        try {
+            speechlet.onSessionStarted(requestEnvelope);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return AsyncSpeechletRequestDispatcher.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<SpeechletResponse> onLaunch(
+            SpeechletRequestEnvelope<LaunchRequest> requestEnvelope) {
+        try {
+            return CompletableFuture.completedFuture(speechlet.onLaunch(requestEnvelope));
+        } catch (RuntimeException e) {
+            return AsyncSpeechletRequestDispatcher.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<SpeechletResponse> onIntent(
+            SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+        try {
+            return CompletableFuture.completedFuture(speechlet.onIntent(requestEnvelope));
+        } catch (RuntimeException e) {
+            return AsyncSpeechletRequestDispatcher.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> onSessionEnded(
+            SpeechletRequestEnvelope<SessionEndedRequest> requestEnvelope) {
+        try {
+            speechlet.onSessionEnded(requestEnvelope);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return AsyncSpeechletRequestDispatcher.failedFuture(e);
+        }
+    }
+
+    public SpeechletV2 getSpeechlet() {
+        return speechlet;
+    }
+}
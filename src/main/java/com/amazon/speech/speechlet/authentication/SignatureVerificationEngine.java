@@ -0,0 +1,234 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet.authentication;
+
+import com.amazon.speech.Sdk;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.X509Certificate;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies request signatures with pooled {@code Signature} objects already initialized with the
+ * public key of each signing certificate, so that a verification does not look up the algorithm
+ * or initialize a key. The state is pooled rather than kept per thread, so that it is also reused
+ * when every request runs on a new virtual thread.
+ * <p>
+ * The Base64 signature header is decoded straight into a pooled buffer. The engine also counts
+ * verifications and failures and keeps their total and maximum latency.
+ */
+public final class SignatureVerificationEngine {
+    /**
+     * Number of certificates a pooled state keeps an initialized {@code Signature} for before it
+     * drops them all; signing certificates change rarely.
+     */
+    private static final int MAX_SIGNATURES_PER_STATE = 8;
+
+    /** Number of idle states kept, about the number of verifications expected at once. */
+    private static final int MAX_POOLED_STATES = 64;
+
+    private static final int INITIAL_SIGNATURE_BUFFER_BYTES = 512;
+
+    private static final byte[] BASE64_VALUES = new byte[128];
+    static {
+        for (int i = 0; i < BASE64_VALUES.length; i++) {
+            BASE64_VALUES[i] = -1;
+        }
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private final BlockingQueue<VerifierState> idleStates =
+            new ArrayBlockingQueue<VerifierState>(MAX_POOLED_STATES);
+
+    private final AtomicLong verificationCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong totalVerificationNanos = new AtomicLong();
+    private final AtomicLong maxVerificationNanos = new AtomicLong();
+
+    /**
+     * Verifies that data was signed by the private key of a certificate.
+     *
+     * @param data
+     *            the signed data
+     * @param baseEncoded64Signature
+     *            the Base64 encoded signature
+     * @param signingCertificate
+     *            the certificate of the signer
+     * @return true if the signature is valid, false if it is not or cannot be decoded
+     * @throws NoSuchAlgorithmException
+     *             if the signature algorithm is not available
+     * @throws InvalidKeyException
+     *             if the certificate's public key cannot be used to verify signatures
+     * @throws SignatureException
+     *             if the signature cannot be verified
+     */
+    boolean verify(final byte[] data, final String baseEncoded64Signature,
+            final X509Certificate signingCertificate) throws NoSuchAlgorithmException,
+            InvalidKeyException, SignatureException {
+        long startNanos = System.nanoTime();
+        boolean verified = false;
+        VerifierState state = idleStates.poll();
+        if (state == null) {
+            state = new VerifierState();
+        }
+        try {
+            int signatureLength = state.decodeSignature(baseEncoded64Signature);
+            if (signatureLength < 0) {
+                return false;
+            }
+
+            Signature signature = state.getSignature(signingCertificate);
+            try {
+                signature.update(data);
+                // verify() also resets the signature for the next use with the same key
+                verified = signature.verify(state.signatureBuffer, 0, signatureLength);
+            } catch (SignatureException ex) {
+                // the signature may be left part way through, so initialize a new one next time
+                state.signatures.remove(signingCertificate);
+                throw ex;
+            }
+            return verified;
+        } finally {
+            // dropped if the pool is already full
+            idleStates.offer(state);
+            recordVerification(System.nanoTime() - startNanos, verified);
+        }
+    }
+
+    /**
+     * Returns the number of signatures verified, successfully or not.
+     *
+     * @return
+     */
+    public long getVerificationCount() {
+        return verificationCount.get();
+    }
+
+    /**
+     * Returns the number of signatures that were invalid or could not be verified.
+     *
+     * @return
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    public long getTotalVerificationNanos() {
+        return totalVerificationNanos.get();
+    }
+
+    public long getMaxVerificationNanos() {
+        return maxVerificationNanos.get();
+    }
+
+    /**
+     * Returns the mean verification latency in nanoseconds, or 0 if nothing has been verified.
+     *
+     * @return
+     */
+    public long getMeanVerificationNanos() {
+        long count = verificationCount.get();
+        return count == 0 ? 0 : totalVerificationNanos.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "SignatureVerificationEngine[verifications=" + getVerificationCount()
+                + ", failures=" + getFailureCount() + ", meanNanos="
+                + getMeanVerificationNanos() + ", maxNanos=" + getMaxVerificationNanos() + "]";
+    }
+
+    private void recordVerification(long elapsedNanos, boolean verified) {
+        verificationCount.incrementAndGet();
+        if (!verified) {
+            failureCount.incrementAndGet();
+        }
+        totalVerificationNanos.addAndGet(elapsedNanos);
+        long max = maxVerificationNanos.get();
+        while (elapsedNanos > max && !maxVerificationNanos.compareAndSet(max, elapsedNanos)) {
+            max = maxVerificationNanos.get();
+        }
+    }
+
+    /**
+     * Initialized signatures and a signature buffer, used by one verification at a time.
+     */
+    private static final class VerifierState {
+        private final Map<X509Certificate, Signature> signatures =
+                new IdentityHashMap<X509Certificate, Signature>();
+        private byte[] signatureBuffer = new byte[INITIAL_SIGNATURE_BUFFER_BYTES];
+
+        Signature getSignature(X509Certificate signingCertificate)
+                throws NoSuchAlgorithmException, InvalidKeyException {
+            Signature signature = signatures.get(signingCertificate);
+            if (signature == null) {
+                if (signatures.size() >= MAX_SIGNATURES_PER_STATE) {
+                    signatures.clear();
+                }
+                signature = Signature.getInstance(Sdk.SIGNATURE_ALGORITHM);
+                signature.initVerify(signingCertificate.getPublicKey());
+                signatures.put(signingCertificate, signature);
+            }
+            return signature;
+        }
+
+        /**
+         * Decodes a Base64 signature into the signature buffer, skipping whitespace and stopping
+         * at padding.
+         *
+         * @param encoded
+         * @return the number of bytes decoded, or -1 if the signature is not valid Base64
+         */
+        int decodeSignature(String encoded) {
+            int maxLength = (encoded.length() * 3) / 4;
+            if (signatureBuffer.length < maxLength) {
+                signatureBuffer = new byte[maxLength];
+            }
+
+            int length = 0;
+            int bits = 0;
+            int bitCount = 0;
+            for (int i = 0; i < encoded.length(); i++) {
+                char c = encoded.charAt(i);
+                if (c == '=') {
+                    break;
+                }
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                int value = c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+                if (value < 0) {
+                    return -1;
+                }
+                bits = (bits << 6) | value;
+                bitCount += 6;
+                if (bitCount >= 8) {
+                    bitCount -= 8;
+                    signatureBuffer[length++] = (byte) (bits >> bitCount);
+                }
+            }
+            return length;
+        }
+    }
+}
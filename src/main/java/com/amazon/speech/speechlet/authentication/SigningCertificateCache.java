@@ -0,0 +1,222 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded cache of verified signing certificates, keyed by certificate chain URL.
+ * <p>
+ * A certificate is cached until its {@code notAfter} date. Only one thread retrieves and verifies
+ * the chain of a URL that is not cached, while the other threads asking for it wait for the
+ * result. Shortly before a cached certificate expires, it is retrieved again in the background,
+ * so that requests do not wait for the download. When the cache is full, the certificate closest
+ * to expiry is evicted.
+ */
+class SigningCertificateCache {
+    private static final Logger log = LoggerFactory.getLogger(SigningCertificateCache.class);
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final int maxEntries;
+    private final long refreshBeforeExpiryMillis;
+    private final ScheduledExecutorService refreshExecutor;
+
+    SigningCertificateCache(int maxEntries, long refreshBeforeExpiryMillis) {
+        this.maxEntries = maxEntries;
+        this.refreshBeforeExpiryMillis = refreshBeforeExpiryMillis;
+        ScheduledThreadPoolExecutor executor =
+                new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "signing-certificate-refresh");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.setRemoveOnCancelPolicy(true);
+        this.refreshExecutor = executor;
+    }
+
+    /**
+     * Returns the verified signing certificate at a URL, retrieving it if it is not cached or has
+     * expired.
+     *
+     * @param signingCertificateChainUrl
+     *            the URL of the certificate chain
+     * @return the signing certificate
+     * @throws CertificateException
+     *             if the certificate cannot be retrieved or is invalid
+     */
+    X509Certificate get(final String signingCertificateChainUrl) throws CertificateException {
+        while (true) {
+            Entry entry = entries.get(signingCertificateChainUrl);
+            if (entry == null) {
+                entry = new Entry(signingCertificateChainUrl);
+                Entry existing = entries.putIfAbsent(signingCertificateChainUrl, entry);
+                if (existing == null) {
+                    evictIfFull();
+                    entry.load.run();
+                } else {
+                    entry = existing;
+                }
+            }
+
+            X509Certificate certificate;
+            try {
+                certificate = entry.await();
+            } catch (CertificateException | RuntimeException ex) {
+                // not cached, so the next request retries
+                entries.remove(signingCertificateChainUrl, entry);
+                throw ex;
+            }
+
+            if (System.currentTimeMillis() < certificate.getNotAfter().getTime()) {
+                return certificate;
+            }
+            // expired and not refreshed in time, so drop it and retrieve it again
+            entries.remove(signingCertificateChainUrl, entry);
+        }
+    }
+
+    /**
+     * Retrieves and verifies the certificate chain at a URL.
+     *
+     * @param signingCertificateChainUrl
+     *            the URL of the certificate chain
+     * @return the signing certificate
+     * @throws CertificateException
+     *             if the certificate cannot be retrieved or is invalid
+     */
+    X509Certificate load(String signingCertificateChainUrl) throws CertificateException {
+        return SpeechletRequestSignatureVerifier
+                .retrieveAndVerifyCertificateChain(signingCertificateChainUrl);
+    }
+
+    private void scheduleRefresh(final Entry entry, X509Certificate certificate) {
+        long delayMillis =
+                certificate.getNotAfter().getTime() - refreshBeforeExpiryMillis
+                        - System.currentTimeMillis();
+        if (delayMillis <= 0) {
+            // already within the refresh window; it is retrieved again once it has expired
+            return;
+        }
+        refreshExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refresh(entry);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void refresh(Entry entry) {
+        if (entries.get(entry.url) != entry) {
+            return;
+        }
+
+        Entry refreshed = new Entry(entry.url);
+        refreshed.load.run();
+        try {
+            refreshed.await();
+        } catch (CertificateException | RuntimeException ex) {
+            // keep serving the current certificate until it expires
+            log.warn("Unable to refresh the signing certificate at {}", entry.url, ex);
+            return;
+        }
+        entries.replace(entry.url, entry, refreshed);
+    }
+
+    private void evictIfFull() {
+        while (entries.size() > maxEntries) {
+            Map.Entry<String, Entry> soonestToExpire = null;
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                if (soonestToExpire == null
+                        || candidate.getValue().getNotAfter() < soonestToExpire.getValue()
+                                .getNotAfter()) {
+                    soonestToExpire = candidate;
+                }
+            }
+            if (soonestToExpire == null) {
+                return;
+            }
+            entries.remove(soonestToExpire.getKey(), soonestToExpire.getValue());
+        }
+    }
+
+    /**
+     * The certificate of one URL, loaded once by the thread that created the entry.
+     */
+    private final class Entry {
+        private final String url;
+        private final FutureTask<X509Certificate> load;
+        private volatile long notAfter = Long.MAX_VALUE;
+
+        Entry(final String url) {
+            this.url = url;
+            this.load = new FutureTask<X509Certificate>(new Callable<X509Certificate>() {
+                @Override
+                public X509Certificate call() throws CertificateException {
+                    X509Certificate certificate = SigningCertificateCache.this.load(url);
+                    notAfter = certificate.getNotAfter().getTime();
+                    scheduleRefresh(Entry.this, certificate);
+                    return certificate;
+                }
+            });
+        }
+
+        long getNotAfter() {
+            return notAfter;
+        }
+
+        X509Certificate await() throws CertificateException {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return load.get();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof CertificateException) {
+                    throw (CertificateException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new CertificateException("Unable to verify certificate at URL: " + url,
+                        cause);
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -14,7 +14,6 @@
 package com.amazon.speech.speechlet.authentication;
 
 import com.amazon.speech.Sdk;
-import org.apache.commons.codec.binary.Base64;
 
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
@@ -31,14 +30,19 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides a utility method to verify the signature of a speechlet request.
  */
 public final class SpeechletRequestSignatureVerifier {
-    private static final Map<String, X509Certificate> CERTIFICATE_CACHE = new ConcurrentHashMap<>();
+    private static final int MAX_CACHED_CERTIFICATES = 32;
+    private static final long CERTIFICATE_REFRESH_BEFORE_EXPIRY_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final SigningCertificateCache CERTIFICATE_CACHE = new SigningCertificateCache(
+            MAX_CACHED_CERTIFICATES, CERTIFICATE_REFRESH_BEFORE_EXPIRY_MILLIS);
+    private static volatile X509TrustManager trustManager;
+    private static final SignatureVerificationEngine VERIFICATION_ENGINE =
+            new SignatureVerificationEngine();
     private static final Integer DOMAIN_NAME_SUBJECT_ALTERNATIVE_NAME_ENTRY = 2;
     private static final String VALID_SIGNING_CERT_CHAIN_PROTOCOL = "https";
     private static final String VALID_SIGNING_CERT_CHAIN_URL_HOST_NAME = "s3.amazonaws.com";
@@ -48,6 +52,16 @@ public final class SpeechletRequestSignatureVerifier {
     private SpeechletRequestSignatureVerifier() {
     }
 
+    /**
+     * Returns the engine that verifies request signatures, with its verification counts and
+     * latencies.
+     *
+     * @return the signature verification engine
+     */
+    public static SignatureVerificationEngine getVerificationEngine() {
+        return VERIFICATION_ENGINE;
+    }
+
     /**
      * Verifies the certificate authenticity using the configured TrustStore and the signature of
      * the speechlet request.
@@ -67,32 +81,21 @@ public final class SpeechletRequestSignatureVerifier {
         }
 
         try {
-            X509Certificate signingCertificate;
-            if (CERTIFICATE_CACHE.containsKey(signingCertificateChainUrl)) {
-                signingCertificate = CERTIFICATE_CACHE.get(signingCertificateChainUrl);
-                /*
-                 * check the before/after dates on the certificate are still valid for the present
-                 * time
-                 */
-                signingCertificate.checkValidity();
-            } else {
-                signingCertificate = retrieveAndVerifyCertificateChain(signingCertificateChainUrl);
-
-                // if certificate is valid, then add it to the cache
-                CERTIFICATE_CACHE.put(signingCertificateChainUrl, signingCertificate);
-            }
+            // retrieved and verified once per URL, and again when it is about to expire
+            X509Certificate signingCertificate = CERTIFICATE_CACHE.get(signingCertificateChainUrl);
+            /*
+             * check the before/after dates on the certificate are still valid for the present time
+             */
+            signingCertificate.checkValidity();
 
             // verify that the request was signed by the provided certificate
-            Signature signature = Signature.getInstance(Sdk.SIGNATURE_ALGORITHM);
-            signature.initVerify(signingCertificate.getPublicKey());
-            signature.update(serializedSpeechletRequest);
-            if (!signature.verify(Base64.decodeBase64(baseEncoded64Signature
-                    .getBytes(Sdk.CHARACTER_ENCODING)))) {
+            if (!VERIFICATION_ENGINE.verify(serializedSpeechletRequest, baseEncoded64Signature,
+                    signingCertificate)) {
                 throw new SecurityException(
                         "Failed to verify the signature/certificate for the provided speechlet request");
             }
         } catch (CertificateException | SignatureException | NoSuchAlgorithmException
-                | InvalidKeyException | IOException ex) {
+                | InvalidKeyException ex) {
             throw new SecurityException(
                     "Failed to verify the signature/certificate for the provided speechlet request",
                     ex);
@@ -125,25 +128,9 @@ public final class SpeechletRequestSignatureVerifier {
             signingCertificate.checkValidity();
 
             // check the certificate chain
-            TrustManagerFactory trustManagerFactory =
-                    TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            trustManagerFactory.init((KeyStore) null);
-
-            X509TrustManager x509TrustManager = null;
-            for (TrustManager trustManager : trustManagerFactory.getTrustManagers()) {
-                if (trustManager instanceof X509TrustManager) {
-                    x509TrustManager = (X509TrustManager) trustManager;
-                }
-            }
-
-            if (x509TrustManager == null) {
-                throw new IllegalStateException(
-                        "No X509 TrustManager available. Unable to check certificate chain");
-            } else {
-                x509TrustManager.checkServerTrusted(
-                        certificateChain.toArray(new X509Certificate[certificateChain.size()]),
-                        Sdk.SIGNATURE_KEY_TYPE);
-            }
+            getTrustManager().checkServerTrusted(
+                    certificateChain.toArray(new X509Certificate[certificateChain.size()]),
+                    Sdk.SIGNATURE_KEY_TYPE);
 
             /*
              * verify Echo API's hostname is specified as one of subject alternative names on the
@@ -162,6 +149,40 @@ public final class SpeechletRequestSignatureVerifier {
         }
     }
 
+    /**
+     * Returns the X509 trust manager of the default trust store, initialized on first use.
+     *
+     * @return the trust manager
+     * @throws KeyStoreException
+     *             if the trust store cannot be loaded
+     * @throws NoSuchAlgorithmException
+     *             if the default trust manager algorithm is not available
+     */
+    private static X509TrustManager getTrustManager() throws KeyStoreException,
+            NoSuchAlgorithmException {
+        X509TrustManager x509TrustManager = trustManager;
+        if (x509TrustManager != null) {
+            return x509TrustManager;
+        }
+
+        TrustManagerFactory trustManagerFactory =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init((KeyStore) null);
+
+        for (TrustManager candidate : trustManagerFactory.getTrustManagers()) {
+            if (candidate instanceof X509TrustManager) {
+                x509TrustManager = (X509TrustManager) candidate;
+            }
+        }
+
+        if (x509TrustManager == null) {
+            throw new IllegalStateException(
+                    "No X509 TrustManager available. Unable to check certificate chain");
+        }
+        trustManager = x509TrustManager;
+        return x509TrustManager;
+    }
+
     private static boolean subjectAlernativeNameListContainsEchoSdkDomainName(
             final Collection<List<?>> subjectAlternativeNameEntries) {
         for (List<?> entry : subjectAlternativeNameEntries) {
@@ -16,7 +16,6 @@ package com.amazon.speech.speechlet.lambda;
 import com.amazon.speech.speechlet.*;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
-import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -63,6 +62,18 @@ public abstract class SpeechletRequestStreamHandler implements RequestStreamHand
         this(new SpeechletToSpeechletV2Adapter(speechlet), supportedApplicationIds);
     }
 
+    /**
+     * Sets whether the context of a request is only parsed when the speechlet first reads it. Call
+     * this from the constructor of the extending class.
+     *
+     * @param lazyContextParsing
+     *            whether to defer parsing the context of requests
+     * @see SpeechletRequestHandler#setLazyContextParsing(boolean)
+     */
+    protected void setLazyContextParsing(boolean lazyContextParsing) {
+        speechletRequestHandler.setLazyContextParsing(lazyContextParsing);
+    }
+
     /**
      * This method is the primary entry point when executing your Lambda function. The configured
      * {@code SpeechletRequestHandler} determines the type of request and dispatches the request to
@@ -76,12 +87,11 @@ public abstract class SpeechletRequestStreamHandler implements RequestStreamHand
     @Override
     public final void handleRequest(InputStream input, OutputStream output, Context context)
             throws IOException {
-        byte[] serializedSpeechletRequest = IOUtils.toByteArray(input);
+        // No signature check needs the raw request bytes here, so the request is parsed
+        // straight from the stream rather than buffered first.
         byte[] outputBytes;
         try {
-            outputBytes =
-                    speechletRequestHandler.handleSpeechletCall(speechlet,
-                            serializedSpeechletRequest);
+            outputBytes = speechletRequestHandler.handleSpeechletCall(speechlet, input);
         } catch (SpeechletRequestHandlerException | SpeechletException ex) {
             throw new RuntimeException(ex);
         }
@@ -0,0 +1,61 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of direct read buffers of the same size, so that connections do not allocate a buffer
+ * for every read. The pool is only used by the selector thread, so it is not thread-safe.
+ */
+final class ByteBufferPool {
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<ByteBuffer>();
+    private final int bufferSize;
+    private final int maxPooledBuffers;
+
+    ByteBufferPool(int bufferSize, int maxPooledBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * Returns a cleared buffer from the pool, or a new one if the pool is empty.
+     *
+     * @return
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.pollFirst();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool, dropping it if the pool is full.
+     *
+     * @param buffer
+     */
+    void release(ByteBuffer buffer) {
+        if (buffers.size() < maxPooledBuffers) {
+            buffers.offerFirst(buffer);
+        }
+    }
+
+    int getPooledBufferCount() {
+        return buffers.size();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet.server;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * The state of one client connection of the {@link SpeechletHttpServer}. Pipelined requests are
+ * queued and processed one at a time, so that their responses are written in request order.
+ * <p>
+ * A connection is only used by the selector thread, apart from the request being processed by a
+ * worker.
+ */
+final class HttpConnection {
+    private static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n"
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    final SocketChannel channel;
+    final SelectionKey key;
+
+    /**
+     * The bytes read but not parsed yet, in fill mode. Borrowed from the pool while the
+     * connection has unparsed bytes and null otherwise.
+     */
+    ByteBuffer readBuffer;
+
+    final ArrayDeque<HttpRequest> pendingRequests = new ArrayDeque<HttpRequest>();
+    final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<ByteBuffer>();
+
+    /** The request being processed by a worker, if any. */
+    HttpRequest inFlight;
+
+    /** Set once a request closes the connection; anything sent after it is ignored. */
+    boolean stopReading;
+    boolean inputShutdown;
+    boolean closed;
+    long lastActivityMillis;
+
+    /** Time the first bytes of the request being read arrived, or 0 between requests. */
+    long requestStartMillis;
+
+    private HttpRequest awaitingBody;
+    /** The body read so far, grown as more of it arrives up to the content length. */
+    private byte[] body;
+    private int bodyOffset;
+
+    HttpConnection(SocketChannel channel, SelectionKey key, long nowMillis) {
+        this.channel = channel;
+        this.key = key;
+        this.lastActivityMillis = nowMillis;
+    }
+
+    /**
+     * Parses every complete request in the read buffer into {@link #pendingRequests}, keeping the
+     * bytes of an incomplete request for the next read. Headers must fit in the read buffer.
+     *
+     * @param maxBodyBytes
+     *            the largest body accepted
+     * @param nowMillis
+     *            the current time, which starts the read deadline of a new incomplete request
+     */
+    void parseRequests(int maxBodyBytes, long nowMillis) {
+        readBuffer.flip();
+        try {
+            while (!stopReading) {
+                if (awaitingBody != null) {
+                    int contentLength = awaitingBody.getContentLength();
+                    int length = Math.min(readBuffer.remaining(), contentLength - bodyOffset);
+                    ensureBodyCapacity(bodyOffset + length, contentLength);
+                    readBuffer.get(body, bodyOffset, length);
+                    bodyOffset += length;
+                    if (bodyOffset < contentLength) {
+                        return;
+                    }
+                    awaitingBody.setBody(body);
+                    pendingRequests.addLast(awaitingBody);
+                    stopReading = !awaitingBody.isKeepAlive();
+                    awaitingBody = null;
+                    body = null;
+                    requestStartMillis = 0;
+                    continue;
+                }
+
+                skipEmptyLines();
+                int headerEnd = findHeaderEnd();
+                if (headerEnd < 0) {
+                    if (readBuffer.position() == 0 && readBuffer.limit() == readBuffer.capacity()) {
+                        addError(431, "Request headers are larger than " + readBuffer.capacity()
+                                + " bytes");
+                    }
+                    return;
+                }
+
+                byte[] headerBytes = new byte[headerEnd - readBuffer.position()];
+                readBuffer.get(headerBytes);
+                readBuffer.position(headerEnd + 4);
+                HttpRequest request = HttpRequest.parse(headerBytes, maxBodyBytes);
+                if (request.isError()) {
+                    addError(request);
+                    return;
+                }
+
+                // the declared length is only allocated as the body arrives
+                body = new byte[Math.min(request.getContentLength(), readBuffer.capacity())];
+                awaitingBody = request;
+                bodyOffset = 0;
+                if ("100-continue".equalsIgnoreCase(request.getHeader("expect"))
+                        && readBuffer.remaining() < request.getContentLength()
+                        && inFlight == null && pendingRequests.isEmpty()) {
+                    pendingWrites.addLast(ByteBuffer.wrap(CONTINUE_RESPONSE));
+                }
+            }
+        } finally {
+            readBuffer.compact();
+            if (requestStartMillis == 0 && isReadingRequest()) {
+                requestStartMillis = nowMillis;
+            }
+        }
+    }
+
+    /**
+     * Returns true if part of a request has been read but not all of it.
+     *
+     * @return
+     */
+    boolean isReadingRequest() {
+        return !stopReading
+                && (awaitingBody != null || (readBuffer != null && readBuffer.position() > 0));
+    }
+
+    /**
+     * Returns true if the read buffer holds no unparsed bytes, so that it can go back to the
+     * pool.
+     *
+     * @return
+     */
+    boolean isReadBufferEmpty() {
+        return readBuffer != null && readBuffer.position() == 0;
+    }
+
+    /**
+     * Returns true if nothing more will be read from or written to the connection.
+     *
+     * @return
+     */
+    boolean isFinished() {
+        return (stopReading || inputShutdown) && inFlight == null && pendingRequests.isEmpty()
+                && pendingWrites.isEmpty();
+    }
+
+    /**
+     * Returns true if the connection has no request in progress.
+     *
+     * @return
+     */
+    boolean isIdle() {
+        return inFlight == null && pendingRequests.isEmpty() && pendingWrites.isEmpty();
+    }
+
+    private void addError(int status, String message) {
+        addError(HttpRequest.error(status, message));
+    }
+
+    private void addError(HttpRequest error) {
+        pendingRequests.addLast(error);
+        stopReading = true;
+    }
+
+    /**
+     * Grows the body buffer to hold at least {@code capacity} bytes, doubling it so that a body
+     * arriving in many reads is copied a logarithmic number of times.
+     */
+    private void ensureBodyCapacity(int capacity, int contentLength) {
+        if (capacity > body.length) {
+            body = Arrays.copyOf(body, Math.min(contentLength, Math.max(capacity,
+                    2 * body.length)));
+        }
+    }
+
+    /**
+     * Skips the empty lines a client may send between pipelined requests.
+     */
+    private void skipEmptyLines() {
+        while (readBuffer.remaining() >= 2 && readBuffer.get(readBuffer.position()) == '\r'
+                && readBuffer.get(readBuffer.position() + 1) == '\n') {
+            readBuffer.position(readBuffer.position() + 2);
+        }
+    }
+
+    /**
+     * Returns the index of the blank line that ends the headers, or -1 if it has not been read.
+     */
+    private int findHeaderEnd() {
+        for (int i = readBuffer.position(); i + 3 < readBuffer.limit(); i++) {
+            if (readBuffer.get(i) == '\r' && readBuffer.get(i + 1) == '\n'
+                    && readBuffer.get(i + 2) == '\r' && readBuffer.get(i + 3) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
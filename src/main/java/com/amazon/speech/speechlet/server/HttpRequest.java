@@ -0,0 +1,184 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An HTTP/1.1 request read by the {@link SpeechletHttpServer}: the request line, the headers and
+ * the body. A request that could not be parsed carries the status code of its error response
+ * instead.
+ */
+final class HttpRequest {
+    private final String method;
+    private final Map<String, String> headers;
+    private final boolean keepAlive;
+    private final int contentLength;
+    private final int errorStatus;
+    private final String errorMessage;
+    private byte[] body;
+
+    private HttpRequest(String method, Map<String, String> headers, boolean keepAlive,
+            int contentLength, int errorStatus, String errorMessage) {
+        this.method = method;
+        this.headers = headers;
+        this.keepAlive = keepAlive;
+        this.contentLength = contentLength;
+        this.errorStatus = errorStatus;
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * Returns a request that is answered with an error and closes the connection.
+     *
+     * @param errorStatus
+     *            the status code of the error response
+     * @param errorMessage
+     *            the body of the error response
+     * @return
+     */
+    static HttpRequest error(int errorStatus, String errorMessage) {
+        return new HttpRequest(null, new HashMap<String, String>(), false, 0, errorStatus,
+                errorMessage);
+    }
+
+    /**
+     * Parses the request line and headers of a request, without the blank line that ends them.
+     * Only POST requests with a {@code Content-Length} of at most {@code maxBodyBytes} are
+     * accepted; anything else becomes an error request.
+     *
+     * @param headerBytes
+     *            the request line and headers
+     * @param maxBodyBytes
+     *            the largest body accepted
+     * @return the request
+     */
+    static HttpRequest parse(byte[] headerBytes, int maxBodyBytes) {
+        String[] lines = new String(headerBytes, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            return error(400, "Malformed request line");
+        }
+        String method = requestLine[0];
+        String version = requestLine[2];
+        if (!version.startsWith("HTTP/1.")) {
+            return error(505, "HTTP version not supported: " + version);
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                return error(400, "Malformed header");
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+            String value = lines[i].substring(colon + 1).trim();
+            String previous = headers.put(name, value);
+            if (previous != null && !"content-length".equals(name)) {
+                headers.put(name, previous + "," + value);
+            } else if (previous != null && !previous.equals(value)) {
+                return error(400, "Conflicting Content-Length headers");
+            }
+        }
+
+        if (!"POST".equals(method)) {
+            return error(405, "Method not allowed: " + method);
+        }
+        if (headers.containsKey("transfer-encoding")) {
+            return error(501, "Transfer-Encoding is not supported");
+        }
+        String contentLengthHeader = headers.get("content-length");
+        if (contentLengthHeader == null) {
+            return error(411, "Content-Length is required");
+        }
+        long contentLength;
+        try {
+            contentLength = Long.parseLong(contentLengthHeader);
+        } catch (NumberFormatException ex) {
+            return error(400, "Invalid Content-Length: " + contentLengthHeader);
+        }
+        if (contentLength < 0) {
+            return error(400, "Invalid Content-Length: " + contentLengthHeader);
+        }
+        if (contentLength > maxBodyBytes) {
+            return error(413, "Request body is larger than " + maxBodyBytes + " bytes");
+        }
+
+        return new HttpRequest(method, headers, isKeepAlive(version, headers.get("connection")),
+                (int) contentLength, 0, null);
+    }
+
+    /**
+     * HTTP/1.1 connections are persistent unless the client asks to close them, HTTP/1.0
+     * connections only if the client asks to keep them alive.
+     */
+    private static boolean isKeepAlive(String version, String connection) {
+        boolean close = false;
+        boolean keepAlive = false;
+        if (connection != null) {
+            for (String token : connection.split(",")) {
+                String option = token.trim();
+                close |= "close".equalsIgnoreCase(option);
+                keepAlive |= "keep-alive".equalsIgnoreCase(option);
+            }
+        }
+        return "HTTP/1.0".equals(version) ? keepAlive && !close : !close;
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the value of a header, or null if the request does not have it. Header names are
+     * case-insensitive.
+     *
+     * @param name
+     * @return
+     */
+    String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.ENGLISH));
+    }
+
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    int getContentLength() {
+        return contentLength;
+    }
+
+    boolean isError() {
+        return errorStatus != 0;
+    }
+
+    int getErrorStatus() {
+        return errorStatus;
+    }
+
+    String getErrorMessage() {
+        return errorMessage;
+    }
+
+    byte[] getBody() {
+        return body;
+    }
+
+    void setBody(byte[] body) {
+        this.body = body;
+    }
+}
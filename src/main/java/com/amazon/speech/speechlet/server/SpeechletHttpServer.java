@@ -0,0 +1,606 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet.server;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.speechlet.Speechlet;
+import com.amazon.speech.speechlet.SpeechletToSpeechletV2Adapter;
+import com.amazon.speech.speechlet.SpeechletV2;
+import com.amazon.speech.speechlet.VirtualThreads;
+import com.amazon.speech.speechlet.servlet.ServletSpeechletRequestHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A standalone HTTP/1.1 server that hosts a {@code SpeechletV2} without a servlet container. Use
+ * this class when the skill runs as its own process, for example in a container.
+ * </p>
+ * <p>
+ * A single selector thread accepts connections, reads requests into pooled buffers and writes
+ * responses without blocking. Each POST body is verified and dispatched on a worker thread, with
+ * the same signature check as {@code SpeechletServlet} and the application id and timestamp
+ * verification configured by {@link ServletSpeechletRequestHandler}. Connections are kept alive
+ * and pipelined requests are answered in order.
+ * </p>
+ * <p>
+ * At most {@value #MAX_CONNECTIONS} connections are open at a time; further clients wait in the
+ * accept backlog. A request must be read completely within {@value #REQUEST_READ_TIMEOUT_MILLIS}
+ * milliseconds of its first bytes, or its connection is closed, so slow clients cannot hold on to
+ * connections and buffers.
+ * </p>
+ * <p>
+ * With the {@link Sdk#VIRTUAL_THREADS_SYSTEM_PROPERTY} system property, each request runs on its
+ * own virtual thread instead of a fixed pool of workers.
+ * </p>
+ *
+ * @see SpeechletV2
+ */
+public class SpeechletHttpServer implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(SpeechletHttpServer.class);
+
+    public static final int DEFAULT_WORKER_THREADS = 16;
+
+    /**
+     * Size of the pooled read buffers, which is also the largest request line and headers
+     * accepted.
+     */
+    private static final int READ_BUFFER_BYTES = 8 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+
+    /** Number of parsed requests a connection may queue before the server stops reading it. */
+    private static final int MAX_PIPELINED_REQUESTS = 16;
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+    private static final int MAX_CONNECTIONS = 1024;
+    private static final long REQUEST_READ_TIMEOUT_MILLIS = 10 * 1000;
+    private static final long IDLE_CHECK_INTERVAL_MILLIS = 1000;
+
+    private final SpeechletV2 speechlet;
+    private final InetSocketAddress address;
+    private final int workerThreads;
+    private final boolean disableRequestSignatureCheck;
+    private final ServletSpeechletRequestHandler speechletRequestHandler;
+    private final ByteBufferPool bufferPool =
+            new ByteBufferPool(READ_BUFFER_BYTES, MAX_POOLED_BUFFERS);
+
+    /** Responses produced by workers, handed to the selector thread. */
+    private final Queue<Completion> completions = new ConcurrentLinkedQueue<Completion>();
+    private final Set<HttpConnection> connections = new HashSet<HttpConnection>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private volatile boolean running;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private SelectionKey serverKey;
+    private ExecutorService workers;
+    private Thread selectorThread;
+
+    public SpeechletHttpServer(final SpeechletV2 speechlet, final int port) {
+        this(speechlet, new InetSocketAddress(port), DEFAULT_WORKER_THREADS);
+    }
+
+    public SpeechletHttpServer(final Speechlet speechlet, final int port) {
+        this(new SpeechletToSpeechletV2Adapter(speechlet), port);
+    }
+
+    /**
+     * @param speechlet
+     *            the speechlet that handles the requests
+     * @param address
+     *            the address to listen on
+     * @param workerThreads
+     *            the number of threads that verify and handle requests, unless requests run on
+     *            virtual threads
+     */
+    public SpeechletHttpServer(final SpeechletV2 speechlet, final InetSocketAddress address,
+            final int workerThreads) {
+        this.speechlet = speechlet;
+        this.address = address;
+        this.workerThreads = workerThreads;
+        // An invalid value or null will turn signature checking on.
+        disableRequestSignatureCheck =
+                Boolean.parseBoolean(System
+                        .getProperty(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY));
+        speechletRequestHandler = new ServletSpeechletRequestHandler();
+    }
+
+    /**
+     * Sets whether the context of a request is only parsed when the speechlet first reads it.
+     *
+     * @param lazyContextParsing
+     *            whether to defer parsing the context of requests
+     * @see com.amazon.speech.speechlet.SpeechletRequestHandler#setLazyContextParsing(boolean)
+     */
+    public void setLazyContextParsing(boolean lazyContextParsing) {
+        speechletRequestHandler.setLazyContextParsing(lazyContextParsing);
+    }
+
+    /**
+     * Binds the server socket and starts accepting requests.
+     *
+     * @throws IOException
+     *             if the server socket cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("Server is already running");
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.bind(address, ACCEPT_BACKLOG);
+        serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        workers = createWorkers();
+
+        running = true;
+        selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runSelector();
+            }
+        }, "speechlet-http-selector");
+        selectorThread.start();
+        log.info("Speechlet HTTP server listening on {}", serverChannel.getLocalAddress());
+    }
+
+    private ExecutorService createWorkers() {
+        if (VirtualThreads.isEnabled()) {
+            return VirtualThreads.newVirtualThreadPerTaskExecutor("speechlet-http-worker-");
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread =
+                        new Thread(runnable, "speechlet-http-worker-"
+                                + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stops accepting requests, closes all connections and waits for the selector thread to
+     * finish. Requests still being handled are interrupted.
+     *
+     * @throws IOException
+     *             never; declared by {@code Closeable}
+     */
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            thread = selectorThread;
+        }
+        selector.wakeup();
+        workers.shutdownNow();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the port the server listens on, which is useful when it was started on port 0.
+     *
+     * @return
+     */
+    public int getLocalPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : -1;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Returns the number of requests handled successfully.
+     *
+     * @return
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of requests answered with an error status code.
+     *
+     * @return
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Verifies the signature of a request, unless signature checking is disabled, and dispatches
+     * it to the {@code SpeechletV2}.
+     *
+     * @param request
+     *            the HTTP request
+     * @return the serialized response
+     * @throws Exception
+     *             if the request cannot be verified or handled
+     */
+    byte[] processRequest(final HttpRequest request) throws Exception {
+        byte[] serializedSpeechletRequest = request.getBody();
+        if (disableRequestSignatureCheck) {
+            log.warn("Warning: Speechlet request signature verification has been disabled!");
+            return speechletRequestHandler.handleSpeechletCall(speechlet,
+                    serializedSpeechletRequest);
+        }
+
+        // The handler verifies the authenticity of the request by checking the provided
+        // signature & certificate, while the speechlet may already prefetch what it needs.
+        return speechletRequestHandler.handleSpeechletCall(speechlet, serializedSpeechletRequest,
+                request.getHeader(Sdk.SIGNATURE_REQUEST_HEADER),
+                request.getHeader(Sdk.SIGNATURE_CERTIFICATE_CHAIN_URL_REQUEST_HEADER));
+    }
+
+    /**
+     * Encodes a complete response with its status line and headers.
+     *
+     * @param status
+     *            the status code
+     * @param contentType
+     *            the content type of the body
+     * @param body
+     *            the body
+     * @param keepAlive
+     *            false if the connection is closed after the response
+     * @return the response, ready to be written
+     */
+    static ByteBuffer encodeResponse(int status, String contentType, byte[] body,
+            boolean keepAlive) {
+        StringBuilder head = new StringBuilder(128);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(getReasonPhrase(status));
+        if (status == 405) {
+            head.append("\r\nAllow: POST");
+        }
+        head.append("\r\nContent-Type: ").append(contentType);
+        head.append("\r\nContent-Length: ").append(body.length);
+        head.append("\r\nConnection: ").append(keepAlive ? "keep-alive" : "close");
+        head.append("\r\n\r\n");
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        ByteBuffer response = ByteBuffer.allocate(headBytes.length + body.length);
+        response.put(headBytes).put(body);
+        response.flip();
+        return response;
+    }
+
+    private static ByteBuffer encodeError(int status, String message, boolean keepAlive) {
+        byte[] body = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        return encodeResponse(status, "text/plain;charset=UTF-8", body, keepAlive);
+    }
+
+    private static String getReasonPhrase(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 400:
+                return "Bad Request";
+            case 405:
+                return "Method Not Allowed";
+            case 411:
+                return "Length Required";
+            case 413:
+                return "Payload Too Large";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 500:
+                return "Internal Server Error";
+            case 501:
+                return "Not Implemented";
+            case 503:
+                return "Service Unavailable";
+            case 505:
+                return "HTTP Version Not Supported";
+            default:
+                return "Unknown";
+        }
+    }
+
+    private void runSelector() {
+        long lastIdleCheckMillis = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(IDLE_CHECK_INTERVAL_MILLIS);
+                processCompletions();
+
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    } else if (key.isValid()) {
+                        processKey(key, (HttpConnection) key.attachment());
+                    }
+                }
+
+                long nowMillis = System.currentTimeMillis();
+                if (nowMillis - lastIdleCheckMillis >= IDLE_CHECK_INTERVAL_MILLIS) {
+                    closeStalledConnections(nowMillis);
+                    lastIdleCheckMillis = nowMillis;
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.error("Speechlet HTTP server selector failed", ex);
+            running = false;
+        } finally {
+            for (HttpConnection connection : new ArrayList<HttpConnection>(connections)) {
+                closeConnection(connection);
+            }
+            closeQuietly(serverChannel);
+            closeQuietly(selector);
+            workers.shutdownNow();
+            log.info("Speechlet HTTP server stopped");
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while (connections.size() < MAX_CONNECTIONS
+                    && (channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                HttpConnection connection =
+                        new HttpConnection(channel, key, System.currentTimeMillis());
+                key.attach(connection);
+                connections.add(connection);
+            }
+            if (connections.size() >= MAX_CONNECTIONS) {
+                // resumed by closeConnection
+                serverKey.interestOps(0);
+            }
+        } catch (IOException ex) {
+            // for example too many open files; the pending connection is retried on the next
+            // select
+            log.warn("Unable to accept connection", ex);
+        }
+    }
+
+    private void processKey(SelectionKey key, HttpConnection connection) {
+        try {
+            if (key.isReadable()) {
+                read(connection);
+            }
+            if (!connection.closed && key.isValid() && key.isWritable()) {
+                write(connection);
+            }
+        } catch (IOException | CancelledKeyException ex) {
+            log.debug("Closing connection after I/O error", ex);
+            closeConnection(connection);
+        }
+    }
+
+    private void read(HttpConnection connection) throws IOException {
+        if (connection.readBuffer == null) {
+            connection.readBuffer = bufferPool.acquire();
+        }
+        int bytesRead = connection.channel.read(connection.readBuffer);
+        if (bytesRead < 0) {
+            connection.inputShutdown = true;
+        } else {
+            connection.lastActivityMillis = System.currentTimeMillis();
+            connection.parseRequests(MAX_BODY_BYTES, connection.lastActivityMillis);
+        }
+        if (connection.isReadBufferEmpty() || connection.inputShutdown) {
+            // idle keep-alive connections do not hold on to a buffer
+            bufferPool.release(connection.readBuffer);
+            connection.readBuffer = null;
+        }
+
+        dispatchNext(connection);
+        write(connection);
+    }
+
+    private void write(HttpConnection connection) throws IOException {
+        while (!connection.pendingWrites.isEmpty()) {
+            ByteBuffer response = connection.pendingWrites.peekFirst();
+            connection.channel.write(response);
+            if (response.hasRemaining()) {
+                break;
+            }
+            connection.pendingWrites.pollFirst();
+        }
+
+        if (connection.isFinished()) {
+            closeConnection(connection);
+            return;
+        }
+
+        int interestOps = 0;
+        if (!connection.stopReading && !connection.inputShutdown
+                && connection.pendingRequests.size() < MAX_PIPELINED_REQUESTS) {
+            interestOps |= SelectionKey.OP_READ;
+        }
+        if (!connection.pendingWrites.isEmpty()) {
+            interestOps |= SelectionKey.OP_WRITE;
+        }
+        connection.key.interestOps(interestOps);
+    }
+
+    /**
+     * Hands the next queued request of a connection to a worker, unless one is being processed.
+     * Requests that failed to parse are answered straight away.
+     */
+    private void dispatchNext(final HttpConnection connection) {
+        while (connection.inFlight == null && !connection.pendingRequests.isEmpty()) {
+            final HttpRequest request = connection.pendingRequests.pollFirst();
+            if (request.isError()) {
+                errorCount.incrementAndGet();
+                log.warn("Rejecting request with status code {}: {}", request.getErrorStatus(),
+                        request.getErrorMessage());
+                connection.pendingWrites.addLast(encodeError(request.getErrorStatus(),
+                        request.getErrorMessage(), false));
+                continue;
+            }
+
+            connection.inFlight = request;
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(connection, request);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // only happens while the server stops
+                connection.inFlight = null;
+                connection.pendingRequests.clear();
+                connection.stopReading = true;
+                connection.pendingWrites.addLast(encodeError(503, "Server is stopping", false));
+            }
+        }
+    }
+
+    /**
+     * Verifies and handles a request on a worker thread, then hands the response to the selector
+     * thread.
+     */
+    private void handle(HttpConnection connection, HttpRequest request) {
+        ByteBuffer response;
+        try {
+            byte[] outputBytes = processRequest(request);
+            response =
+                    encodeResponse(200, "application/json", outputBytes, request.isKeepAlive());
+            requestCount.incrementAndGet();
+        } catch (Exception ex) {
+            int statusCode = ServletSpeechletRequestHandler.getErrorStatusCode(ex);
+            log.error("Exception occurred in request, returning status code {}", statusCode, ex);
+            response = encodeError(statusCode, ex.getMessage(), request.isKeepAlive());
+            errorCount.incrementAndGet();
+        }
+        completions.add(new Completion(connection, response));
+        selector.wakeup();
+    }
+
+    private void processCompletions() {
+        Completion completion;
+        while ((completion = completions.poll()) != null) {
+            HttpConnection connection = completion.connection;
+            if (connection.closed) {
+                continue;
+            }
+            connection.inFlight = null;
+            connection.pendingWrites.addLast(completion.response);
+            try {
+                dispatchNext(connection);
+                write(connection);
+            } catch (IOException | CancelledKeyException ex) {
+                log.debug("Closing connection after I/O error", ex);
+                closeConnection(connection);
+            }
+        }
+    }
+
+    /**
+     * Closes the connections that have been idle for too long, and those whose client has not
+     * sent a whole request in time. A request that is not read because the connection already
+     * has too many queued is not held against the client.
+     */
+    private void closeStalledConnections(long nowMillis) {
+        for (HttpConnection connection : new ArrayList<HttpConnection>(connections)) {
+            if (connection.isIdle()
+                    && nowMillis - connection.lastActivityMillis > IDLE_TIMEOUT_MILLIS) {
+                closeConnection(connection);
+            } else if (connection.isReadingRequest()
+                    && connection.pendingRequests.size() < MAX_PIPELINED_REQUESTS
+                    && nowMillis - connection.requestStartMillis > REQUEST_READ_TIMEOUT_MILLIS) {
+                log.debug("Closing connection that did not send a request in time");
+                closeConnection(connection);
+            }
+        }
+    }
+
+    private void closeConnection(HttpConnection connection) {
+        if (connection.closed) {
+            return;
+        }
+        connection.closed = true;
+        connection.key.cancel();
+        closeQuietly(connection.channel);
+        if (connection.readBuffer != null) {
+            bufferPool.release(connection.readBuffer);
+            connection.readBuffer = null;
+        }
+        connections.remove(connection);
+        if (running && serverKey.isValid() && serverKey.interestOps() == 0
+                && connections.size() < MAX_CONNECTIONS) {
+            serverKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            log.debug("Unable to close {}", closeable, ex);
+        }
+    }
+
+    /**
+     * A response produced by a worker for a connection.
+     */
+    private static final class Completion {
+        private final HttpConnection connection;
+        private final ByteBuffer response;
+
+        Completion(HttpConnection connection, ByteBuffer response) {
+            this.connection = connection;
+            this.response = response;
+        }
+    }
+}
@@ -0,0 +1,457 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet.servlet;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.speechlet.AsyncSpeechletRequestHandler;
+import com.amazon.speech.speechlet.AsyncSpeechletV2;
+import com.amazon.speech.speechlet.VirtualThreads;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A {@link SpeechletServlet} that processes requests asynchronously, so that a container thread
+ * is not held while a request is verified and handled by the {@code SpeechletV2}.
+ * </p>
+ * <p>
+ * Each POST starts an {@code AsyncContext} and is queued on a bounded executor, which reads the
+ * body, verifies the signature, dispatches the request and writes the response. The number of
+ * threads, the queue capacity and the request timeout are configured with the
+ * {@link Sdk#ASYNC_SERVLET_THREADS_SYSTEM_PROPERTY},
+ * {@link Sdk#ASYNC_SERVLET_QUEUE_CAPACITY_SYSTEM_PROPERTY} and
+ * {@link Sdk#ASYNC_SERVLET_TIMEOUT_SYSTEM_PROPERTY} system properties. Requests that do not fit in
+ * the queue, or that time out, are answered with a 503 status code.
+ * </p>
+ * <p>
+ * With the {@link Sdk#VIRTUAL_THREADS_SYSTEM_PROPERTY} system property, each request runs on its
+ * own virtual thread instead.
+ * </p>
+ * <p>
+ * With an {@link AsyncSpeechletV2} set with {@link #setAsyncSpeechlet(AsyncSpeechletV2)}, the
+ * executor only reads, parses and verifies a request, and the response is written once the future
+ * returned by the speechlet completes, without holding a thread in between. A request that times
+ * out cancels that future.
+ * </p>
+ * <p>
+ * Either way, the servlet admits as many requests at once as the thread pool and its queue would
+ * hold, counting a request until it is answered or its future completes, and rejects the rest.
+ * </p>
+ * <p>
+ * The servlet must be registered with async support enabled.
+ * </p>
+ */
+public class AsyncSpeechletServlet extends SpeechletServlet {
+    private static final Logger log = LoggerFactory.getLogger(AsyncSpeechletServlet.class);
+    private static final long serialVersionUID = -6474187127365238455L;
+
+    private final int threads;
+    private final int queueCapacity;
+    private final long timeoutMillis;
+
+    private transient AsyncSpeechletV2 asyncSpeechlet;
+    private transient AsyncSpeechletRequestHandler asyncSpeechletRequestHandler;
+    private transient ExecutorService executor;
+
+    /** The thread pool, or null when requests run on virtual threads. */
+    private transient ThreadPoolExecutor threadPool;
+
+    /** Limits the requests in progress, including those waiting for an async speechlet. */
+    private transient Semaphore admissions;
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    public AsyncSpeechletServlet() {
+        threads =
+                Integer.getInteger(Sdk.ASYNC_SERVLET_THREADS_SYSTEM_PROPERTY,
+                        Sdk.DEFAULT_ASYNC_SERVLET_THREADS);
+        queueCapacity =
+                Integer.getInteger(Sdk.ASYNC_SERVLET_QUEUE_CAPACITY_SYSTEM_PROPERTY,
+                        Sdk.DEFAULT_ASYNC_SERVLET_QUEUE_CAPACITY);
+        timeoutMillis =
+                Long.getLong(Sdk.ASYNC_SERVLET_TIMEOUT_SYSTEM_PROPERTY,
+                        Sdk.DEFAULT_ASYNC_SERVLET_TIMEOUT_MILLIS);
+    }
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        admissions = new Semaphore(threads + queueCapacity);
+        if (VirtualThreads.isEnabled()) {
+            executor = VirtualThreads.newVirtualThreadPerTaskExecutor("speechlet-async-");
+            return;
+        }
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        threadPool =
+                new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                            Thread thread =
+                                    new Thread(runnable, "speechlet-async-"
+                                            + threadNumber.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        threadPool.allowCoreThreadTimeOut(true);
+        executor = threadPool;
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Starts asynchronous processing of a POST request and queues it on the executor.
+     *
+     * @param request
+     *            the object that contains the request the client has made of the servlet
+     * @param response
+     *            object that contains the response the servlet sends to the client
+     * @throws IOException
+     *             if an input or output error is detected when the servlet handles the request
+     */
+    @Override
+    protected void doPost(final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException {
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(timeoutMillis);
+
+        AsyncRequest asyncRequest =
+                new AsyncRequest(asyncContext, request.getHeader(Sdk.SIGNATURE_REQUEST_HEADER),
+                        request.getHeader(Sdk.SIGNATURE_CERTIFICATE_CHAIN_URL_REQUEST_HEADER));
+        asyncContext.addListener(asyncRequest);
+        try {
+            submit(asyncRequest);
+        } catch (RejectedExecutionException ex) {
+            rejectedCount.incrementAndGet();
+            log.warn("Too many requests in progress ({} active, {} queued), rejecting request",
+                    getActiveCount(), getQueueDepth());
+            asyncRequest.fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Too many requests in progress");
+        }
+    }
+
+    /**
+     * Queues a request on the thread pool, or starts it on a virtual thread, if fewer requests than
+     * the limit are in progress.
+     *
+     * @throws RejectedExecutionException
+     *             if the request cannot be accepted
+     */
+    private void submit(final AsyncRequest asyncRequest) {
+        if (!admissions.tryAcquire()) {
+            throw new RejectedExecutionException("Too many requests in progress");
+        }
+        FutureTask<Void> task = new FutureTask<Void>(asyncRequest, null) {
+            @Override
+            public void run() {
+                // not in done(), which a cancel calls while the request may still be running;
+                // a task cancelled before it started still gets here and returns at once
+                try {
+                    super.run();
+                } finally {
+                    asyncRequest.releaseAdmissionUnlessAwaitingSpeechlet();
+                }
+            }
+        };
+        asyncRequest.future = task;
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            asyncRequest.releaseAdmission();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting for a thread; always 0 with virtual threads.
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        return threadPool != null ? threadPool.getQueue().size() : 0;
+    }
+
+    /**
+     * Returns the number of requests being processed.
+     *
+     * @return
+     */
+    public int getActiveCount() {
+        if (threadPool == null) {
+            return admissions != null ? threads + queueCapacity - admissions.availablePermits()
+                    : 0;
+        }
+        return threadPool.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * Returns the number of requests rejected because the queue was full.
+     *
+     * @return
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the number of requests answered with an error because they timed out.
+     *
+     * @return
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Returns the {@code AsyncSpeechletV2} object that this servlet uses.
+     *
+     * @return the {@code AsyncSpeechletV2} associated with this servlet, or null if there is not
+     *         one
+     */
+    public AsyncSpeechletV2 getAsyncSpeechlet() {
+        return asyncSpeechlet;
+    }
+
+    /**
+     * Sets the {@code AsyncSpeechletV2} object that this servlet uses instead of a
+     * {@code SpeechletV2}.
+     *
+     * @param speechlet
+     *            the {@code AsyncSpeechletV2} to associate with this servlet
+     */
+    public void setAsyncSpeechlet(final AsyncSpeechletV2 speechlet) {
+        asyncSpeechletRequestHandler =
+                new AsyncSpeechletRequestHandler(getSpeechletRequestHandler());
+        asyncSpeechlet = speechlet;
+    }
+
+    /**
+     * One request being processed asynchronously. Whichever of the executor and the timeout
+     * finishes the request first writes its response.
+     */
+    private final class AsyncRequest implements Runnable, AsyncListener {
+        private final AsyncContext asyncContext;
+        private final String signature;
+        private final String signingCertificateChainUrl;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final AtomicBoolean admitted = new AtomicBoolean(true);
+        private volatile Future<?> future;
+
+        /** The future of the async speechlet's response, once the request is handed to it. */
+        private volatile CompletableFuture<byte[]> speechletResponse;
+
+        AsyncRequest(AsyncContext asyncContext, String signature,
+                String signingCertificateChainUrl) {
+            this.asyncContext = asyncContext;
+            this.signature = signature;
+            this.signingCertificateChainUrl = signingCertificateChainUrl;
+        }
+
+        @Override
+        public void run() {
+            byte[] outputBytes;
+            try {
+                byte[] serializedSpeechletRequest =
+                        IOUtils.toByteArray(asyncContext.getRequest().getInputStream());
+                if (asyncSpeechlet != null) {
+                    // answered by the speechlet's future, without holding this thread
+                    callAsyncSpeechlet(serializedSpeechletRequest);
+                    return;
+                }
+                outputBytes =
+                        processRequest(serializedSpeechletRequest, signature,
+                                signingCertificateChainUrl);
+            } catch (Exception ex) {
+                fail(ex);
+                return;
+            }
+            respond(outputBytes);
+        }
+
+        /**
+         * Hands the request to the {@code AsyncSpeechletV2}, and answers it and releases its
+         * admission when the future of the response completes.
+         */
+        private void callAsyncSpeechlet(byte[] serializedSpeechletRequest) {
+            CompletableFuture<byte[]> response;
+            if (isRequestSignatureCheckDisabled()) {
+                log.warn("Warning: Speechlet request signature verification has been disabled!");
+                response =
+                        asyncSpeechletRequestHandler.handleSpeechletCall(asyncSpeechlet,
+                                serializedSpeechletRequest);
+            } else {
+                response =
+                        asyncSpeechletRequestHandler.handleSpeechletCall(asyncSpeechlet,
+                                serializedSpeechletRequest, signature,
+                                signingCertificateChainUrl);
+            }
+            speechletResponse = response;
+            response.whenComplete((outputBytes, failure) -> {
+                releaseAdmission();
+                if (failure != null) {
+                    fail(failure);
+                } else {
+                    respond(outputBytes);
+                }
+            });
+            if (finished.get()) {
+                // timed out before the future was published
+                response.cancel(true);
+            }
+        }
+
+        /**
+         * Releases the admission of the request, once.
+         */
+        void releaseAdmission() {
+            if (admitted.compareAndSet(true, false)) {
+                admissions.release();
+            }
+        }
+
+        /**
+         * Releases the admission of the request when its task returns, unless the request is
+         * waiting for the future of an async speechlet, which releases it when it completes.
+         */
+        void releaseAdmissionUnlessAwaitingSpeechlet() {
+            if (speechletResponse == null) {
+                releaseAdmission();
+            }
+        }
+
+        /**
+         * Writes the response, unless the request has already been answered.
+         */
+        void respond(byte[] outputBytes) {
+            if (finished.compareAndSet(false, true)) {
+                try {
+                    writeResponse((HttpServletResponse) asyncContext.getResponse(), outputBytes);
+                    completedCount.incrementAndGet();
+                } catch (IOException | RuntimeException ex) {
+                    log.warn("Unable to write response", ex);
+                } finally {
+                    asyncContext.complete();
+                }
+            }
+        }
+
+        /**
+         * Answers the request with the status code for an exception, unless it has already been
+         * answered.
+         */
+        void fail(Throwable ex) {
+            int statusCode =
+                    ex instanceof Exception
+                            ? ServletSpeechletRequestHandler.getErrorStatusCode((Exception) ex)
+                            : HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+            if (!finished.get()) {
+                log.error("Exception occurred in doPost, returning status code {}", statusCode,
+                        ex);
+            }
+            fail(statusCode, ex.getMessage());
+        }
+
+        /**
+         * Answers the request with an error, unless it has already been answered.
+         *
+         * @return true if this call answered the request
+         */
+        boolean fail(int statusCode, String message) {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            try {
+                ((HttpServletResponse) asyncContext.getResponse()).sendError(statusCode, message);
+            } catch (IOException | RuntimeException ex) {
+                log.warn("Unable to send error response with status code {}", statusCode, ex);
+            } finally {
+                asyncContext.complete();
+            }
+            return true;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            if (!fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Request timed out")) {
+                return;
+            }
+            timeoutCount.incrementAndGet();
+            log.error("Request timed out after {} ms, returning status code {}", timeoutMillis,
+                    HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            cancel();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            cancel();
+            if (finished.compareAndSet(false, true)) {
+                asyncContext.complete();
+            }
+        }
+
+        /**
+         * Interrupts the task of the request, and cancels the future of the async speechlet.
+         */
+        private void cancel() {
+            Future<?> running = future;
+            if (running != null) {
+                running.cancel(true);
+            }
+            CompletableFuture<byte[]> response = speechletResponse;
+            if (response != null) {
+                response.cancel(true);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
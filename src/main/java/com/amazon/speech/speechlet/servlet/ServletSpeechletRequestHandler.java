@@ -15,11 +15,14 @@ package com.amazon.speech.speechlet.servlet;
 
 import com.amazon.speech.Sdk;
 import com.amazon.speech.speechlet.SpeechletRequestHandler;
+import com.amazon.speech.speechlet.SpeechletRequestHandlerException;
 import com.amazon.speech.speechlet.verifier.*;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.http.HttpServletResponse;
+
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
@@ -33,6 +36,21 @@ public class ServletSpeechletRequestHandler extends SpeechletRequestHandler {
         super(requestVerifiers());
     }
 
+    /**
+     * Returns the status code for an exception thrown while processing a request: bad request
+     * for invalid requests, internal server error otherwise.
+     *
+     * @param ex
+     *            the exception
+     * @return the HTTP status code
+     */
+    public static int getErrorStatusCode(final Exception ex) {
+        if (ex instanceof SpeechletRequestHandlerException || ex instanceof SecurityException) {
+            return HttpServletResponse.SC_BAD_REQUEST;
+        }
+        return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
     private static List<SpeechletRequestEnvelopeVerifier> requestVerifiers() {
         List<SpeechletRequestEnvelopeVerifier> requestVerifiers =
                 new ArrayList<SpeechletRequestEnvelopeVerifier>();
@@ -15,10 +15,8 @@ package com.amazon.speech.speechlet.servlet;
 
 import com.amazon.speech.Sdk;
 import com.amazon.speech.speechlet.Speechlet;
-import com.amazon.speech.speechlet.SpeechletRequestHandlerException;
 import com.amazon.speech.speechlet.SpeechletToSpeechletV2Adapter;
 import com.amazon.speech.speechlet.SpeechletV2;
-import com.amazon.speech.speechlet.authentication.SpeechletRequestSignatureVerifier;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,32 +75,68 @@ public class SpeechletServlet extends HttpServlet {
         byte[] outputBytes = null;
 
         try {
-            if (disableRequestSignatureCheck) {
-                log.warn("Warning: Speechlet request signature verification has been disabled!");
-            } else {
-                // Verify the authenticity of the request by checking the provided signature &
-                // certificate.
-                SpeechletRequestSignatureVerifier.checkRequestSignature(serializedSpeechletRequest,
-                        request.getHeader(Sdk.SIGNATURE_REQUEST_HEADER),
-                        request.getHeader(Sdk.SIGNATURE_CERTIFICATE_CHAIN_URL_REQUEST_HEADER));
-            }
-
             outputBytes =
-                    speechletRequestHandler.handleSpeechletCall(speechlet,
-                            serializedSpeechletRequest);
-        } catch (SpeechletRequestHandlerException | SecurityException ex) {
-            int statusCode = HttpServletResponse.SC_BAD_REQUEST;
-            log.error("Exception occurred in doPost, returning status code {}", statusCode, ex);
-            response.sendError(statusCode, ex.getMessage());
-            return;
+                    processRequest(serializedSpeechletRequest,
+                            request.getHeader(Sdk.SIGNATURE_REQUEST_HEADER),
+                            request.getHeader(Sdk.SIGNATURE_CERTIFICATE_CHAIN_URL_REQUEST_HEADER));
         } catch (Exception ex) {
-            int statusCode = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+            int statusCode = ServletSpeechletRequestHandler.getErrorStatusCode(ex);
             log.error("Exception occurred in doPost, returning status code {}", statusCode, ex);
             response.sendError(statusCode, ex.getMessage());
             return;
         }
 
-        // Generate JSON and send back the response
+        writeResponse(response, outputBytes);
+    }
+
+    /**
+     * Verifies the signature of a request, unless signature checking is disabled, and dispatches
+     * it to the {@code SpeechletV2}.
+     *
+     * @param serializedSpeechletRequest
+     *            the body of the request
+     * @param signature
+     *            the value of the signature request header
+     * @param signingCertificateChainUrl
+     *            the value of the certificate chain URL request header
+     * @return the serialized response
+     * @throws Exception
+     *             if the request cannot be verified or handled
+     */
+    byte[] processRequest(final byte[] serializedSpeechletRequest, final String signature,
+            final String signingCertificateChainUrl) throws Exception {
+        if (disableRequestSignatureCheck) {
+            log.warn("Warning: Speechlet request signature verification has been disabled!");
+            return speechletRequestHandler.handleSpeechletCall(speechlet,
+                    serializedSpeechletRequest);
+        }
+
+        // The handler verifies the authenticity of the request by checking the provided
+        // signature & certificate, while the speechlet may already prefetch what it needs.
+        return speechletRequestHandler.handleSpeechletCall(speechlet, serializedSpeechletRequest,
+                signature, signingCertificateChainUrl);
+    }
+
+    ServletSpeechletRequestHandler getSpeechletRequestHandler() {
+        return speechletRequestHandler;
+    }
+
+    boolean isRequestSignatureCheckDisabled() {
+        return disableRequestSignatureCheck;
+    }
+
+    /**
+     * Generates JSON and sends back the response.
+     *
+     * @param response
+     *            the servlet response
+     * @param outputBytes
+     *            the serialized response
+     * @throws IOException
+     *             if the response cannot be written
+     */
+    static void writeResponse(final HttpServletResponse response, final byte[] outputBytes)
+            throws IOException {
         response.setContentType("application/json");
         response.setStatus(HttpServletResponse.SC_OK);
         try (final OutputStream out = response.getOutputStream()) {
@@ -28,8 +28,12 @@ import java.io.IOException;
  * <p>
  * Note: This verifier currently does not not enforce response checks and always returns true. The
  * primary purpose of this verifier is to log a warning in the app developer's runtime.
+ * <p>
+ * When called by the {@code SpeechletRequestHandler}, the size is measured on the bytes that are
+ * returned to the Alexa service rather than on a separate serialization of the response.
  */
-public class ResponseSizeSpeechletResponseVerifier implements SpeechletResponseVerifier {
+public class ResponseSizeSpeechletResponseVerifier implements
+        SerializedSpeechletResponseVerifier {
     private static final Logger log = LoggerFactory
             .getLogger(ResponseSizeSpeechletResponseVerifier.class);
 
@@ -49,7 +53,17 @@ public class ResponseSizeSpeechletResponseVerifier implements SpeechletResponseV
             return false;
         }
 
-        int responseSize = jsonBytes.length;
+        return verify(responseEnvelope, jsonBytes, session);
+    }
+
+    @Override
+    public boolean verify(SpeechletResponseEnvelope responseEnvelope, byte[] serializedResponse,
+            Session session) {
+        if (responseEnvelope == null || serializedResponse == null) {
+            return false;
+        }
+
+        int responseSize = serializedResponse.length;
         if (responseSize > MAX_RESPONSE_SIZE) {
             log.warn("Speechlet response with size of {} bytes exceeds the maximum allowed "
                     + "size of {} bytes and will be rejected by the Alexa service", responseSize,
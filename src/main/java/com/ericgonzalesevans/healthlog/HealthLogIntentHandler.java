@@ -0,0 +1,68 @@
+package com.ericgonzalesevans.healthlog;
+
+import com.amazon.speech.slu.Intent;
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.SpeechletResponse;
+
+/**
+ * Handles one intent of the skill, and declares how it uses the health log storage.
+ */
+abstract class HealthLogIntentHandler {
+    /**
+     * How a handler uses the health log storage.
+     */
+    enum StorageAccess {
+        /**
+         * The handler does not load or write the customer's metrics.
+         */
+        NONE,
+
+        /**
+         * The handler loads the customer's metrics.
+         */
+        READ,
+
+        /**
+         * The handler loads the customer's metrics and writes them back changed.
+         */
+        READ_MODIFY_WRITE,
+
+        /**
+         * The handler changes the customer's metrics without loading them first.
+         */
+        WRITE;
+
+        /**
+         * Returns true if the handler loads the customer's metrics, which is what a prefetch
+         * speeds up.
+         *
+         * @return
+         */
+        boolean readsMetrics() {
+            return this == READ || this == READ_MODIFY_WRITE;
+        }
+    }
+
+    private final StorageAccess storageAccess;
+
+    HealthLogIntentHandler(StorageAccess storageAccess) {
+        this.storageAccess = storageAccess;
+    }
+
+    StorageAccess getStorageAccess() {
+        return storageAccess;
+    }
+
+    /**
+     * Creates and returns the response for the intent.
+     *
+     * @param intent
+     *            {@link Intent} for this request
+     * @param session
+     *            Speechlet {@link Session} for this request
+     * @param skillContext
+     *            {@link SkillContext} for this request
+     * @return response for the intent
+     */
+    abstract SpeechletResponse handle(Intent intent, Session session, SkillContext skillContext);
+}
@@ -0,0 +1,159 @@
+package com.ericgonzalesevans.healthlog;
+
+import com.amazon.speech.slu.Intent;
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.ericgonzalesevans.healthlog.HealthLogIntentHandler.StorageAccess;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps the intent names of the skill to their {@link HealthLogIntentHandler}s, with a fallback
+ * handler for intents that are not registered. The registry is built once and then only read.
+ */
+final class HealthLogIntentRegistry {
+    private static final Logger log = LoggerFactory.getLogger(HealthLogIntentRegistry.class);
+
+    private final Map<String, HealthLogIntentHandler> handlers =
+            new HashMap<String, HealthLogIntentHandler>();
+    private final HealthLogIntentHandler fallbackHandler;
+
+    HealthLogIntentRegistry(HealthLogIntentHandler fallbackHandler) {
+        this.fallbackHandler = fallbackHandler;
+    }
+
+    /**
+     * Returns a registry of the intents handled by a {@link HealthLogManager}.
+     *
+     * @param healthLogManager
+     * @return
+     */
+    static HealthLogIntentRegistry forManager(final HealthLogManager healthLogManager) {
+        HealthLogIntentRegistry registry =
+                new HealthLogIntentRegistry(new HealthLogIntentHandler(StorageAccess.NONE) {
+                    @Override
+                    SpeechletResponse handle(Intent intent, Session session,
+                            SkillContext skillContext) {
+                        return healthLogManager.getUnknownIntentResponse(intent, session);
+                    }
+                });
+
+        registry.register("AddUserIntent",
+                new HealthLogIntentHandler(StorageAccess.READ_MODIFY_WRITE) {
+                    @Override
+                    SpeechletResponse handle(Intent intent, Session session,
+                            SkillContext skillContext) {
+                        return healthLogManager.getAddUserIntentResponse(intent, session,
+                                skillContext);
+                    }
+                });
+        registry.register("SetWeightIntent", new HealthLogIntentHandler(StorageAccess.WRITE) {
+            @Override
+            SpeechletResponse handle(Intent intent, Session session, SkillContext skillContext) {
+                return healthLogManager.getSetWeightIntentResponse(intent, session, skillContext);
+            }
+        });
+        registry.register("SetHeightIntent", new HealthLogIntentHandler(StorageAccess.WRITE) {
+            @Override
+            SpeechletResponse handle(Intent intent, Session session, SkillContext skillContext) {
+                return healthLogManager.getSetHeightIntentResponse(intent, session, skillContext);
+            }
+        });
+        registry.register("TellWeightIntent", new HealthLogIntentHandler(StorageAccess.READ) {
+            @Override
+            SpeechletResponse handle(Intent intent, Session session, SkillContext skillContext) {
+                return healthLogManager.getTellWeightIntentResponse(intent, session);
+            }
+        });
+        registry.register("TellHeightIntent", new HealthLogIntentHandler(StorageAccess.READ) {
+            @Override
+            SpeechletResponse handle(Intent intent, Session session, SkillContext skillContext) {
+                return healthLogManager.getTellHeightIntentResponse(intent, session);
+            }
+        });
+        // reads the log for its users, and then the measurement history of one of them
+        registry.register("TellWeightHistoryIntent",
+                new HealthLogIntentHandler(StorageAccess.READ) {
+                    @Override
+                    SpeechletResponse handle(Intent intent, Session session,
+                            SkillContext skillContext) {
+                        return healthLogManager.getTellWeightHistoryIntentResponse(intent,
+                                session);
+                    }
+                });
+        registry.register("ResetUsersIntent",
+                new HealthLogIntentHandler(StorageAccess.READ_MODIFY_WRITE) {
+                    @Override
+                    SpeechletResponse handle(Intent intent, Session session,
+                            SkillContext skillContext) {
+                        return healthLogManager.getResetUsersIntent(intent, session);
+                    }
+                });
+        registry.register("AMAZON.HelpIntent", new HealthLogIntentHandler(StorageAccess.NONE) {
+            @Override
+            SpeechletResponse handle(Intent intent, Session session, SkillContext skillContext) {
+                return healthLogManager.getHelpIntentResponse(intent, session, skillContext);
+            }
+        });
+
+        HealthLogIntentHandler exitHandler = new HealthLogIntentHandler(StorageAccess.NONE) {
+            @Override
+            SpeechletResponse handle(Intent intent, Session session, SkillContext skillContext) {
+                return healthLogManager.getExitIntentResponse(intent, session, skillContext);
+            }
+        };
+        registry.register("AMAZON.CancelIntent", exitHandler);
+        registry.register("AMAZON.StopIntent", exitHandler);
+
+        return registry;
+    }
+
+    /**
+     * Registers the handler of an intent, replacing any handler registered for the same name.
+     *
+     * @param intentName
+     * @param handler
+     */
+    void register(String intentName, HealthLogIntentHandler handler) {
+        handlers.put(intentName, handler);
+    }
+
+    /**
+     * Returns the handler registered for an intent name, or the fallback handler.
+     *
+     * @param intentName
+     * @return
+     */
+    HealthLogIntentHandler getHandler(String intentName) {
+        HealthLogIntentHandler handler = handlers.get(intentName);
+        return handler != null ? handler : fallbackHandler;
+    }
+
+    /**
+     * Handles an intent with its registered handler, or the fallback handler if there is none.
+     *
+     * @param intent
+     * @param session
+     * @param skillContext
+     * @return response for the intent
+     */
+    SpeechletResponse dispatch(Intent intent, Session session, SkillContext skillContext) {
+        HealthLogIntentHandler handler = getHandler(intent.getName());
+        if (handler == fallbackHandler) {
+            log.warn("No handler registered for intent {}", intent.getName());
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            return handler.handle(intent, session, skillContext);
+        } finally {
+            if (log.isDebugEnabled()) {
+                log.debug("Handled intent {} ({} storage access) in {} us", intent.getName(),
+                        handler.getStorageAccess(), (System.nanoTime() - startNanos) / 1000);
+            }
+        }
+    }
+}
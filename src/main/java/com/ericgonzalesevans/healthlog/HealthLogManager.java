@@ -11,12 +11,16 @@ import com.amazon.speech.ui.SimpleCard;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.ericgonzalesevans.healthlog.storage.HealthLogDao;
 import com.ericgonzalesevans.healthlog.storage.HealthLogDynamoDbClient;
-import com.ericgonzalesevans.healthlog.storage.HealthLogMetricData;
+import com.ericgonzalesevans.healthlog.storage.HealthLogMeasurementItem;
+import com.ericgonzalesevans.healthlog.storage.HealthLogMetricType;
 import com.ericgonzalesevans.healthlog.storage.HealthLogMetrics;
+import com.ericgonzalesevans.healthlog.storage.HealthLogStore;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.SortedMap;
+import java.util.concurrent.Future;
 
 /**
  * The {@link HealthLogManager} receives various events and intents and manages the flow.
@@ -42,12 +46,23 @@ public class HealthLogManager {
      */
     private static final int MAX_USERS_FOR_SPEECH = 3;
 
+    /**
+     * Number of past weights read out for the weight history intent.
+     */
+    private static final int MAX_HISTORY_FOR_SPEECH = 5;
+
     private final HealthLogDao healthLogDao;
 
     public HealthLogManager(final AmazonDynamoDBClient amazonDynamoDbClient) {
-        HealthLogDynamoDbClient dynamoDbClient =
-                new HealthLogDynamoDbClient(amazonDynamoDbClient);
-        healthLogDao = new HealthLogDao(dynamoDbClient);
+        this(new HealthLogDynamoDbClient(amazonDynamoDbClient));
+    }
+
+    public HealthLogManager(final HealthLogStore store) {
+        this(new HealthLogDao(store));
+    }
+
+    public HealthLogManager(final HealthLogDao healthLogDao) {
+        this.healthLogDao = healthLogDao;
     }
 
     /**
@@ -98,23 +113,15 @@ public class HealthLogManager {
         // add a user to the current log,
         // terminate or continue the conversation based on whether the intent
         // is from a one shot command or not.
-        String newUserName =
+        final String newUserName =
                 HealthLogTextUtil.getUserName(intent.getSlot(SLOT_USER_NAME).getValue());
         if (newUserName == null) {
             String speechText = "OK. Who do you want to add?";
             return getAskSpeechletResponse(speechText, speechText);
         }
 
-        // Load the previous log
-        HealthLogMetrics metrics = healthLogDao.getHealthLogMetrics(session);
-        if (metrics == null) {
-            metrics = HealthLogMetrics.newInstance(session, HealthLogMetricData.newInstance());
-        }
-
-        metrics.addUser(newUserName);
-
-        // Save the updated metrics
-        healthLogDao.saveHealthLogMetrics(metrics);
+        // Add the user to the latest log, retrying if another request changes it meanwhile
+        HealthLogMetrics metrics = healthLogDao.addUser(session, newUserName);
 
         String speechText = newUserName + " has been added your log. You can now keep track of their health metrics!";
         String repromptText = null;
@@ -164,25 +171,13 @@ public class HealthLogManager {
             return getAskSpeechletResponse(speechText, speechText);
         }
 
-        HealthLogMetrics metrics = healthLogDao.getHealthLogMetrics(session);
+        // Update weight in a single conditional write and record it in the history
+        HealthLogMetrics metrics = healthLogDao.setMetricValue(session, userName,
+                HealthLogMetricType.WEIGHT, weight);
         if (metrics == null) {
-            return getTellSpeechletResponse("A health log has not been started.");
+            return getUserNotUpdatedResponse(session, userName);
         }
 
-        if (metrics.getNumberOfUsers() == 0) {
-            String speechText = "Sorry, no users are on the health log. Try adding a user?";
-            return getAskSpeechletResponse(speechText, speechText);
-        }
-
-        // Update weight
-        if (!metrics.addWeightForUser(userName, weight)) {
-            String speechText = "Sorry, " + userName + " is not on this log. What else?";
-            return getAskSpeechletResponse(speechText, speechText);
-        }
-
-        // Save metrics
-        healthLogDao.saveHealthLogMetrics(metrics);
-
         // Prepare speech text
         String speechText = weight + " pounds for " + userName + ". ";
         if (metrics.getNumberOfUsers() > MAX_USERS_FOR_SPEECH) {
@@ -222,25 +217,13 @@ public class HealthLogManager {
             return getAskSpeechletResponse(speechText, speechText);
         }
 
-        HealthLogMetrics metrics = healthLogDao.getHealthLogMetrics(session);
+        // Update height in a single conditional write and record it in the history
+        HealthLogMetrics metrics = healthLogDao.setMetricValue(session, userName,
+                HealthLogMetricType.HEIGHT, height);
         if (metrics == null) {
-            return getTellSpeechletResponse("A health log has not been started.");
+            return getUserNotUpdatedResponse(session, userName);
         }
 
-        if (metrics.getNumberOfUsers() == 0) {
-            String speechText = "Sorry, no users are on the health log. Try adding a user?";
-            return getAskSpeechletResponse(speechText, speechText);
-        }
-
-        // Update height
-        if (!metrics.addHeightForUser(userName, height)) {
-            String speechText = "Sorry, " + userName + " is not on this log. What else?";
-            return getAskSpeechletResponse(speechText, speechText);
-        }
-
-        // Save metrics
-        healthLogDao.saveHealthLogMetrics(metrics);
-
         // Prepare speech text
         String speechText = height + " inches for " + userName + ". ";
         if (metrics.getNumberOfUsers() > MAX_USERS_FOR_SPEECH) {
@@ -306,6 +289,53 @@ public class HealthLogManager {
         return SpeechletResponse.newTellResponse(speech, leaderboardMetricsCard);
     }
 
+    /**
+     * Creates and returns response for the tell weight history intent, which reads out the last
+     * weights logged for a user.
+     *
+     * @param intent
+     *            {@link Intent} for this request
+     * @param session
+     *            {@link Session} for this request
+     * @return response for the tell weight history intent
+     */
+    public SpeechletResponse getTellWeightHistoryIntentResponse(Intent intent, Session session) {
+        String userName =
+                HealthLogTextUtil.getUserName(intent.getSlot(SLOT_USER_NAME).getValue());
+        if (userName == null) {
+            String speechText = "Sorry, I did not hear the user name. Please say again?";
+            return getAskSpeechletResponse(speechText, speechText);
+        }
+
+        HealthLogMetrics metrics = healthLogDao.getHealthLogMetrics(session);
+        if (metrics == null || !metrics.hasUser(userName)) {
+            return getTellSpeechletResponse("Sorry, " + userName + " is not on this log.");
+        }
+
+        List<HealthLogMeasurementItem> measurements = healthLogDao.getRecentMeasurements(metrics,
+                userName, HealthLogMetricType.WEIGHT, MAX_HISTORY_FOR_SPEECH);
+        if (measurements.isEmpty()) {
+            return getTellSpeechletResponse("No weights have been logged for " + userName + ".");
+        }
+
+        StringBuilder speechText = new StringBuilder("The last ");
+        if (measurements.size() == 1) {
+            speechText.append("weight logged for ").append(userName).append(" was ");
+        } else {
+            speechText.append(measurements.size()).append(" weights logged for ")
+                    .append(userName).append(", newest first, were ");
+        }
+        for (int i = 0; i < measurements.size(); i++) {
+            if (i > 0) {
+                speechText.append(i == measurements.size() - 1 ? " and " : ", ");
+            }
+            speechText.append(measurements.get(i).getValue());
+        }
+        speechText.append(" pounds.");
+
+        return getTellSpeechletResponse(speechText.toString());
+    }
+
     /**
      * Creates and returns response for the reset users intent.
      *
@@ -317,9 +347,7 @@ public class HealthLogManager {
      */
     public SpeechletResponse getResetUsersIntent(Intent intent, Session session) {
         // Remove all users
-        HealthLogMetrics metrics =
-                HealthLogMetrics.newInstance(session, HealthLogMetricData.newInstance());
-        healthLogDao.saveHealthLogMetrics(metrics);
+        healthLogDao.resetHealthLogMetrics(session);
 
         String speechText = "New health log started without users. Who do you want to add first?";
         return getAskSpeechletResponse(speechText, speechText);
@@ -362,6 +390,104 @@ public class HealthLogManager {
                 : getTellSpeechletResponse("");
     }
 
+    /**
+     * Creates and returns response for an intent the skill does not handle.
+     *
+     * @param intent
+     *            {@link Intent} for this request
+     * @param session
+     *            {@link Session} for this request
+     * @return response asking the user what they would like to do
+     */
+    public SpeechletResponse getUnknownIntentResponse(Intent intent, Session session) {
+        return getAskSpeechletResponse("Sorry, I did not understand that. "
+                + HealthLogTextUtil.NEXT_HELP, HealthLogTextUtil.NEXT_HELP);
+    }
+
+    /**
+     * Writes the changes buffered in the session when a response ends it, and returns the
+     * response. If the changes cannot be written, the session is kept open so they are not lost,
+     * and the user is asked to try again. While the session goes on, only changes that reached
+     * the write-behind limits are written, and a failure leaves them buffered.
+     *
+     * @param session
+     *            {@link Session} for this request
+     * @param response
+     *            response for this request
+     * @return the response, or one asking to try again
+     */
+    public SpeechletResponse getSessionEndingResponse(Session session, SpeechletResponse response) {
+        if (!response.getShouldEndSession()) {
+            try {
+                healthLogDao.flushExpiredChanges(session);
+            } catch (RuntimeException e) {
+                // logged with the changes by the DAO, and written again on a later request
+            }
+            return response;
+        }
+
+        try {
+            healthLogDao.flushPendingChanges(session);
+            return response;
+        } catch (RuntimeException e) {
+            // logged with the changes by the DAO
+            String speechText = "Sorry, I could not save your changes just now. Please try again.";
+            return getAskSpeechletResponse(speechText, speechText);
+        }
+    }
+
+    /**
+     * Starts loading the metrics of the customer in the session ahead of the request that needs
+     * them.
+     *
+     * @param session
+     *            {@link Session} of the request, not verified yet
+     * @return the load, or null if none was started
+     */
+    public Future<?> prefetchHealthLogMetrics(Session session) {
+        return healthLogDao.prefetchHealthLogMetrics(session);
+    }
+
+    /**
+     * Writes the changes buffered in a session that has ended. If they cannot be written they are
+     * logged, since there is no response to tell the user in.
+     *
+     * @param session
+     *            {@link Session} that ended
+     */
+    public void onSessionEnded(Session session) {
+        try {
+            healthLogDao.flushPendingChanges(session);
+        } catch (RuntimeException e) {
+            // logged with the changes by the DAO
+        }
+    }
+
+    /**
+     * Returns the response for a metric update that was rejected because the log does not exist,
+     * has no users, or does not contain the user.
+     *
+     * @param session
+     *            {@link Session} for this request
+     * @param userName
+     *            Name of the user
+     * @return response explaining why the metric was not updated
+     */
+    private SpeechletResponse getUserNotUpdatedResponse(Session session, String userName) {
+        HealthLogMetrics metrics = healthLogDao.getHealthLogMetrics(session);
+        if (metrics == null) {
+            return getTellSpeechletResponse("A health log has not been started.");
+        }
+
+        if (metrics.getNumberOfUsers() == 0) {
+            String speechText = "Sorry, no users are on the health log. Try adding a user?";
+            return getAskSpeechletResponse(speechText, speechText);
+        }
+
+        String speechText = "Sorry, " + userName + " is not on this log. What else?";
+        return getAskSpeechletResponse(speechText, speechText);
+    }
+
     /**
      * Returns an ask Speechlet response for a speech and reprompt text.
      *
@@ -0,0 +1,55 @@
+package com.ericgonzalesevans.healthlog;
+
+import com.amazon.speech.speechlet.server.SpeechletHttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Runs the skill as a standalone HTTP server, as an alternative to Lambda or a servlet container.
+ * The port is read from the {@code PORT} environment variable and defaults to 8080. Supported
+ * application ids and the timestamp tolerance are configured with the same system properties as
+ * the servlet.
+ */
+public final class HealthLogServer {
+    private static final Logger log = LoggerFactory.getLogger(HealthLogServer.class);
+
+    private static final String PORT_ENVIRONMENT_VARIABLE = "PORT";
+    private static final int DEFAULT_PORT = 8080;
+
+    private HealthLogServer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        final SpeechletHttpServer server =
+                new SpeechletHttpServer(new HealthLogSpeechlet(), getPort());
+        // The skill never reads the request context, so only parse it if something asks for it.
+        server.setLazyContextParsing(true);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    log.warn("Unable to stop the server", e);
+                }
+            }
+        }));
+        server.start();
+    }
+
+    private static int getPort() {
+        String port = System.getenv(PORT_ENVIRONMENT_VARIABLE);
+        if (port == null || port.trim().isEmpty()) {
+            return DEFAULT_PORT;
+        }
+        try {
+            return Integer.parseInt(port.trim());
+        } catch (NumberFormatException e) {
+            log.warn("The configured value {} of {} is invalid, using {}", port,
+                    PORT_ENVIRONMENT_VARIABLE, DEFAULT_PORT);
+            return DEFAULT_PORT;
+        }
+    }
+}
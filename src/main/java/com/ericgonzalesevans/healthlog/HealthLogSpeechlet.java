@@ -1,19 +1,57 @@
 package com.ericgonzalesevans.healthlog;
 
+import com.amazon.speech.json.SpeechletRequestEnvelope;
 import com.amazon.speech.slu.Intent;
 import com.amazon.speech.speechlet.*;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.ericgonzalesevans.healthlog.storage.HealthLogStores;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class HealthLogSpeechlet implements Speechlet {
+import java.util.concurrent.Future;
+
+/**
+ * The HealthLog skill. The manager and intent registry are built once and only read afterwards,
+ * and the per-request {@link SkillContext} is derived from the session, so a single instance can
+ * handle concurrent requests.
+ * <p>
+ * Launch requests and intents that load the customer's metrics prefetch them while the request
+ * is verified. Intents that only write a value without loading the metrics do not.
+ */
+public class HealthLogSpeechlet implements Speechlet, SpeechletRequestPrefetcher {
     private static final Logger log = LoggerFactory.getLogger(HealthLogSpeechlet.class);
 
-    private AmazonDynamoDBClient amazonDynamoDBClient;
+    private final HealthLogManager healthLogManager;
 
-    private HealthLogManager healthLogManager;
+    private final HealthLogIntentRegistry intentRegistry;
 
-    private SkillContext skillContext;
+    public HealthLogSpeechlet() {
+        this(new HealthLogManager(HealthLogStores.fromEnvironment()));
+    }
+
+    HealthLogSpeechlet(final HealthLogManager healthLogManager) {
+        this.healthLogManager = healthLogManager;
+        this.intentRegistry = HealthLogIntentRegistry.forManager(healthLogManager);
+    }
+
+    @Override
+    public Future<?> prefetch(SpeechletRequestEnvelope<?> requestEnvelope) {
+        SpeechletRequest request = requestEnvelope.getRequest();
+        Session session = requestEnvelope.getSession();
+        if (session == null) {
+            return null;
+        }
+        if (request instanceof IntentRequest) {
+            Intent intent = ((IntentRequest) request).getIntent();
+            if (intent == null
+                    || !intentRegistry.getHandler(intent.getName()).getStorageAccess()
+                            .readsMetrics()) {
+                return null;
+            }
+        } else if (!(request instanceof LaunchRequest)) {
+            return null;
+        }
+        return healthLogManager.prefetchHealthLogMetrics(session);
+    }
 
     @Override
     public void onSessionStarted(final SessionStartedRequest request, final Session session)
@@ -21,11 +59,9 @@ public class HealthLogSpeechlet implements Speechlet {
         log.info("onSessionStarted requestId={}, sessionId={}", request.getRequestId(),
                 session.getSessionId());
 
-        initializeComponents();
-
         // if user said a one shot command that triggered an intent event,
         // it will start a new session, and then we should avoid speaking too many words.
-        skillContext.setNeedsMoreHelp(false);
+        SkillContext.setNeedsMoreHelp(session, false);
     }
 
     @Override
@@ -34,7 +70,7 @@ public class HealthLogSpeechlet implements Speechlet {
         log.info("onLaunch requestId={}, sessionId={}", request.getRequestId(),
                 session.getSessionId());
 
-        skillContext.setNeedsMoreHelp(true);
+        SkillContext.setNeedsMoreHelp(session, true);
         return healthLogManager.getLaunchResponse(request, session);
     }
 
@@ -43,39 +79,12 @@ public class HealthLogSpeechlet implements Speechlet {
             throws SpeechletException {
         log.info("onIntent requestId={}, sessionId={}", request.getRequestId(),
                 session.getSessionId());
-        initializeComponents();
-
-        Intent intent = request.getIntent();
-        if ("AddUserIntent".equals(intent.getName())) {
-            return healthLogManager.getAddUserIntentResponse(intent, session, skillContext);
 
-        } else if ("SetWeightIntent".equals(intent.getName())) {
-            return healthLogManager.getSetWeightIntentResponse(intent, session, skillContext);
+        SpeechletResponse response =
+                intentRegistry.dispatch(request.getIntent(), session,
+                        SkillContext.forSession(session));
 
-        } else if ("SetHeightIntent".equals(intent.getName())) {
-        return healthLogManager.getSetHeightIntentResponse(intent, session, skillContext);
-
-        }else if ("TellWeightIntent".equals(intent.getName())) {
-            return healthLogManager.getTellWeightIntentResponse(intent, session);
-
-        }else if ("TellHeightIntent".equals(intent.getName())) {
-            return healthLogManager.getTellHeightIntentResponse(intent, session);
-
-        } else if ("ResetUsersIntent".equals(intent.getName())) {
-            return healthLogManager.getResetUsersIntent(intent, session);
-
-        } else if ("AMAZON.HelpIntent".equals(intent.getName())) {
-            return healthLogManager.getHelpIntentResponse(intent, session, skillContext);
-
-        } else if ("AMAZON.CancelIntent".equals(intent.getName())) {
-            return healthLogManager.getExitIntentResponse(intent, session, skillContext);
-
-        } else if ("AMAZON.StopIntent".equals(intent.getName())) {
-            return healthLogManager.getExitIntentResponse(intent, session, skillContext);
-
-        } else {
-            throw new IllegalArgumentException("Unrecognized intent: " + intent.getName());
-        }
+        return healthLogManager.getSessionEndingResponse(session, response);
     }
 
     @Override
@@ -83,17 +92,7 @@ public class HealthLogSpeechlet implements Speechlet {
             throws SpeechletException {
         log.info("onSessionEnded requestId={}, sessionId={}", request.getRequestId(),
                 session.getSessionId());
-        // any cleanup logic goes here
-    }
 
-    /**
-     * Initializes the instance components if needed.
-     */
-    private void initializeComponents() {
-        if (amazonDynamoDBClient == null) {
-            amazonDynamoDBClient = new AmazonDynamoDBClient();
-            healthLogManager = new HealthLogManager(amazonDynamoDBClient);
-            skillContext = new SkillContext();
-        }
+        healthLogManager.onSessionEnded(session);
     }
 }
@@ -19,5 +19,7 @@ public final class HealthLogSpeechletRequestStreamHandler extends SpeechletReque
 
     public HealthLogSpeechletRequestStreamHandler() {
         super(new HealthLogSpeechlet(), supportedApplicationIds);
+        // The skill never reads the request context, so only parse it if something asks for it.
+        setLazyContextParsing(true);
     }
 }
@@ -1,13 +1,47 @@
 package com.ericgonzalesevans.healthlog;
 
-public class SkillContext {
-    private boolean needsMoreHelp = true;
+import com.amazon.speech.speechlet.Session;
 
-    public boolean needsMoreHelp() {
-        return needsMoreHelp;
-    }
+/**
+ * The per-request state of the skill, derived from the Alexa session. A session started with a
+ * launch request is a dialog and gets more help; a one-shot intent does not. The flag is kept in a
+ * session attribute, so instances are immutable and never shared between requests.
+ */
+public final class SkillContext {
+    /**
+     * Name of the session attribute holding whether the session needs more help.
+     */
+    static final String NEEDS_MORE_HELP_ATTRIBUTE = "needsMoreHelp";
 
-    public void setNeedsMoreHelp(boolean needsMoreHelp) {
+    private final boolean needsMoreHelp;
+
+    public SkillContext(boolean needsMoreHelp) {
         this.needsMoreHelp = needsMoreHelp;
     }
+
+    /**
+     * Returns the context of a request in a session. Sessions that were not launched do not need
+     * more help.
+     *
+     * @param session
+     * @return
+     */
+    static SkillContext forSession(Session session) {
+        Object needsMoreHelp = session.getAttribute(NEEDS_MORE_HELP_ATTRIBUTE);
+        return new SkillContext(Boolean.TRUE.equals(needsMoreHelp));
+    }
+
+    /**
+     * Records in the session whether its later requests need more help.
+     *
+     * @param session
+     * @param needsMoreHelp
+     */
+    static void setNeedsMoreHelp(Session session, boolean needsMoreHelp) {
+        session.setAttribute(NEEDS_MORE_HELP_ATTRIBUTE, needsMoreHelp);
+    }
+
+    public boolean needsMoreHelp() {
+        return needsMoreHelp;
+    }
 }
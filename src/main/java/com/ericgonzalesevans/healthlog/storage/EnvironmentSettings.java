@@ -0,0 +1,57 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads storage settings from environment variables. Unset, blank or invalid values fall back to
+ * the given default, and invalid values are logged.
+ */
+final class EnvironmentSettings {
+    private static final Logger log = LoggerFactory.getLogger(EnvironmentSettings.class);
+
+    private EnvironmentSettings() {
+    }
+
+    static String getString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    static int getInt(String name, int defaultValue) {
+        return (int) getLong(name, defaultValue);
+    }
+
+    static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            log.warn("The configured value {} of {} is invalid, using {}", value, name,
+                    defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    static <E extends Enum<E>> E getEnum(String name, Class<E> enumType, E defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(enumType, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("The configured value {} of {} is invalid, using {}", value, name,
+                    defaultValue);
+            return defaultValue;
+        }
+    }
+}
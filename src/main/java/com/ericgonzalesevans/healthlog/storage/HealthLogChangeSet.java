@@ -0,0 +1,152 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import com.amazon.speech.speechlet.Session;
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Changes to a customer's {@link HealthLogMetrics} that have been made in a session but not yet
+ * written to the store, kept in the session attributes between turns.
+ * <p>
+ * The changes are themselves a {@link HealthLogMetricData}: the users to add in order and the
+ * latest weight and height set for each user. They are kept as one string attribute holding the
+ * time of the first change, the number of changes and the {@link HealthLogMetricDataCodec}
+ * encoding of that data in Base64.
+ */
+final class HealthLogChangeSet {
+    private static final Logger log = LoggerFactory.getLogger(HealthLogChangeSet.class);
+
+    /**
+     * Name of the session attribute holding the changes.
+     */
+    static final String ATTRIBUTE = "healthLogPendingChanges";
+
+    private static final String FORMAT_PREFIX = "1:";
+
+    private final HealthLogMetricData changes;
+    private final long createdAt;
+    private int size;
+
+    private HealthLogChangeSet(HealthLogMetricData changes, long createdAt, int size) {
+        this.changes = changes;
+        this.createdAt = createdAt;
+        this.size = size;
+    }
+
+    /**
+     * Returns the changes kept in the session, or a new, empty change set if there are none. A
+     * malformed attribute is logged and removed from the session.
+     *
+     * @param session
+     * @return
+     */
+    static HealthLogChangeSet get(Session session) {
+        Object value = session.getAttribute(ATTRIBUTE);
+        if (!(value instanceof String) || !((String) value).startsWith(FORMAT_PREFIX)) {
+            return newEmpty();
+        }
+        String[] fields = ((String) value).substring(FORMAT_PREFIX.length()).split(":", 3);
+        try {
+            return new HealthLogChangeSet(HealthLogMetricDataCodec.decode(ByteBuffer.wrap(Base64
+                    .decodeBase64(fields[2]))), Long.parseLong(fields[0]),
+                    Integer.parseInt(fields[1]));
+        } catch (RuntimeException e) {
+            log.warn("Dropping malformed {} session attribute {}", ATTRIBUTE, value, e);
+            session.removeAttribute(ATTRIBUTE);
+            return newEmpty();
+        }
+    }
+
+    private static HealthLogChangeSet newEmpty() {
+        return new HealthLogChangeSet(HealthLogMetricData.newInstance(),
+                System.currentTimeMillis(), 0);
+    }
+
+    /**
+     * Returns the encoded changes kept in the session, or null if there are none. Logged when the
+     * changes cannot be written, so that they can be replayed.
+     *
+     * @param session
+     * @return
+     */
+    static Object getEncoded(Session session) {
+        return session.getAttribute(ATTRIBUTE);
+    }
+
+    /**
+     * Removes the changes from the session, once they have been written or discarded.
+     *
+     * @param session
+     */
+    static void remove(Session session) {
+        session.removeAttribute(ATTRIBUTE);
+    }
+
+    /**
+     * Keeps the changes in the session.
+     *
+     * @param session
+     */
+    void put(Session session) {
+        session.setAttribute(ATTRIBUTE, FORMAT_PREFIX + createdAt + ":" + size + ":"
+                + Base64.encodeBase64String(HealthLogMetricDataCodec.encode(changes)));
+    }
+
+    void addUser(String userName) {
+        changes.getUsers().add(userName);
+        size++;
+    }
+
+    void setMetricValue(String userName, HealthLogMetricType metricType, long value) {
+        if (metricType == HealthLogMetricType.WEIGHT) {
+            changes.getWeights().put(userName, value);
+        } else {
+            changes.getHeights().put(userName, value);
+        }
+        size++;
+    }
+
+    /**
+     * Returns the number of changes made.
+     *
+     * @return
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the time since the first change in milliseconds.
+     *
+     * @return
+     */
+    long getAgeMillis() {
+        return System.currentTimeMillis() - createdAt;
+    }
+
+    /**
+     * Applies the changes to metrics, adding the users before setting any values.
+     *
+     * @param metrics
+     * @return true if there were changes to apply
+     */
+    boolean applyTo(HealthLogMetrics metrics) {
+        for (String userName : changes.getUsers()) {
+            metrics.addUser(userName);
+        }
+        for (String userName : changes.getWeights().keySet()) {
+            metrics.addWeightForUser(userName, changes.getWeights().get(userName));
+        }
+        for (String userName : changes.getHeights().keySet()) {
+            metrics.addHeightForUser(userName, changes.getHeights().get(userName));
+        }
+        return size > 0;
+    }
+}
@@ -1,48 +1,783 @@
 package com.ericgonzalesevans.healthlog.storage;
 
 import com.amazon.speech.speechlet.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Contains the methods to interact with the persistence layer for HealthLog in DynamoDB.
+ * Contains the methods to interact with the persistence layer for HealthLog, backed by a
+ * {@link HealthLogStore}.
+ * <p>
+ * The latest value of every metric is kept in a small per-customer summary item, read through
+ * {@link #getHealthLogMetrics(Session)}. Every value set through
+ * {@link #setMetricValue(Session, String, HealthLogMetricType, long)} is also kept as its own item
+ * in the measurement history, see {@link #getRecentMeasurements}.
+ * <p>
+ * Summary reads go through a {@link HealthLogMetricsCache} and saves write through it. Saves are
+ * conditional on the item version the metrics were read at, so a stale cached read fails the
+ * save instead of overwriting a newer item. Changes made through
+ * {@link #updateHealthLogMetrics(Session, HealthLogMetricsMutation)} are retried on such
+ * conflicts against freshly loaded metrics.
+ * <p>
+ * Every read and write also leaves a {@link HealthLogSessionSnapshot} in the session, which later
+ * turns of the dialog read instead of the store. A copy is stale once the cache holds a newer
+ * version, it is older than {@link #SESSION_SNAPSHOT_MAX_AGE_ENV}, or a conditional write made
+ * from it fails; the metrics are then read from the cache or the store again.
+ * <p>
+ * With {@link #WRITE_BEHIND_ENV} set, users added and values set in a session are not written
+ * right away but kept as a {@link HealthLogChangeSet} in the session, and reads of that session
+ * see them applied. They are written together by {@link #flushPendingChanges(Session)}, or by
+ * the next conditional summary write of the session, and at the latest once they reach
+ * {@link #WRITE_BEHIND_MAX_CHANGES_ENV} changes or {@link #WRITE_BEHIND_MAX_AGE_ENV}. The age is
+ * checked on every request through {@link #flushExpiredChanges(Session)}, not only when another
+ * change is buffered.
+ * <p>
+ * {@link #prefetchHealthLogMetrics(Session)} starts loading a summary item in the background
+ * before the request that needs it has been verified. The next store read of that customer takes
+ * the prefetched item instead of loading it again.
  */
 public class HealthLogDao {
-    private final HealthLogDynamoDbClient dynamoDbClient;
+    private static final Logger log = LoggerFactory.getLogger(HealthLogDao.class);
+
+    /**
+     * Maximum number of attempts of a conditional write before the conflict is given up on.
+     */
+    public static final String MAX_WRITE_ATTEMPTS_ENV = "HEALTHLOG_MAX_WRITE_ATTEMPTS";
+
+    /**
+     * Base delay in milliseconds of the jittered exponential backoff between attempts.
+     */
+    public static final String WRITE_BACKOFF_ENV = "HEALTHLOG_WRITE_BACKOFF_MS";
+
+    /**
+     * Maximum age in milliseconds of the copy of the metrics kept in the session. Zero or less
+     * disables the copy.
+     */
+    public static final String SESSION_SNAPSHOT_MAX_AGE_ENV = "HEALTHLOG_SESSION_SNAPSHOT_MAX_AGE_MS";
+
+    /**
+     * Whether changes made in a session are buffered in the session until it ends. Defaults to
+     * false.
+     */
+    public static final String WRITE_BEHIND_ENV = "HEALTHLOG_WRITE_BEHIND";
+
+    /**
+     * Number of buffered changes at which they are written right away.
+     */
+    public static final String WRITE_BEHIND_MAX_CHANGES_ENV = "HEALTHLOG_WRITE_BEHIND_MAX_CHANGES";
+
+    /**
+     * Age in milliseconds of the first buffered change at which the changes are written right
+     * away.
+     */
+    public static final String WRITE_BEHIND_MAX_AGE_ENV = "HEALTHLOG_WRITE_BEHIND_MAX_AGE_MS";
+
+    /**
+     * Number of threads loading summary items ahead of the requests that need them. Zero or less
+     * disables the prefetch.
+     */
+    public static final String PREFETCH_THREADS_ENV = "HEALTHLOG_PREFETCH_THREADS";
+
+    private static final int MAX_WRITE_ATTEMPTS =
+            EnvironmentSettings.getInt(MAX_WRITE_ATTEMPTS_ENV, 4);
+    private static final long WRITE_BACKOFF_MILLIS =
+            EnvironmentSettings.getLong(WRITE_BACKOFF_ENV, 20L);
+    private static final long SESSION_SNAPSHOT_MAX_AGE_MILLIS =
+            EnvironmentSettings.getLong(SESSION_SNAPSHOT_MAX_AGE_ENV, 120000L);
+    private static final boolean WRITE_BEHIND =
+            EnvironmentSettings.getBoolean(WRITE_BEHIND_ENV, false);
+    private static final int WRITE_BEHIND_MAX_CHANGES =
+            EnvironmentSettings.getInt(WRITE_BEHIND_MAX_CHANGES_ENV, 10);
+    private static final long WRITE_BEHIND_MAX_AGE_MILLIS =
+            EnvironmentSettings.getLong(WRITE_BEHIND_MAX_AGE_ENV, 60000L);
+    private static final int PREFETCH_THREADS =
+            EnvironmentSettings.getInt(PREFETCH_THREADS_ENV, 8);
+
+    private static final HealthLogMetricsMutation NO_CHANGES = new HealthLogMetricsMutation() {
+        @Override
+        public boolean apply(HealthLogMetrics metrics) {
+            return false;
+        }
+    };
+
+    private final HealthLogStore store;
+    private final HealthLogMetricsCache metricsCache;
+    private final long sessionSnapshotMaxAgeMillis;
+    private final int prefetchThreads;
 
-    public HealthLogDao(HealthLogDynamoDbClient dynamoDbClient) {
-        this.dynamoDbClient = dynamoDbClient;
+    /** Summary item loads started ahead of their reads, by customer id. */
+    private final ConcurrentMap<String, Prefetch> prefetches =
+            new ConcurrentHashMap<String, Prefetch>();
+    private final ThreadPoolExecutor prefetchExecutor;
+
+    private final AtomicLong writeAttemptCount = new AtomicLong();
+    private final AtomicLong writeConflictCount = new AtomicLong();
+    private final AtomicLong sessionSnapshotHitCount = new AtomicLong();
+    private final AtomicLong prefetchHitCount = new AtomicLong();
+
+    public HealthLogDao(HealthLogStore store) {
+        this(store, HealthLogMetricsCache.fromEnvironment());
+    }
+
+    public HealthLogDao(HealthLogStore store, HealthLogMetricsCache metricsCache) {
+        this(store, metricsCache, SESSION_SNAPSHOT_MAX_AGE_MILLIS, PREFETCH_THREADS);
     }
 
     /**
-     * Reads and returns the {@link HealthLogMetrics} using user information from the session.
+     * Creates a DAO that keeps the session copy and prefetches as given, rather than as set by
+     * {@link #SESSION_SNAPSHOT_MAX_AGE_ENV} and {@link #PREFETCH_THREADS_ENV}.
+     *
+     * @param store
+     * @param metricsCache
+     * @param sessionSnapshotMaxAgeMillis
+     *            maximum age of the copy of the metrics kept in the session, zero or less to
+     *            disable the copy
+     * @param prefetchThreads
+     *            number of prefetch threads, zero or less to disable the prefetch
+     */
+    public HealthLogDao(HealthLogStore store, HealthLogMetricsCache metricsCache,
+            long sessionSnapshotMaxAgeMillis, int prefetchThreads) {
+        this.store = store;
+        this.metricsCache = metricsCache;
+        this.sessionSnapshotMaxAgeMillis = sessionSnapshotMaxAgeMillis;
+        this.prefetchThreads = prefetchThreads;
+        this.prefetchExecutor = prefetchThreads > 0 ? newPrefetchExecutor(prefetchThreads) : null;
+    }
+
+    /**
+     * Starts loading the stored {@link HealthLogMetrics} of the customer in the session in the
+     * background, unless they can be read from the session copy or the cache, so that a following
+     * read does not wait for the store. Cancelling the returned future drops the load if no read
+     * has taken it.
      * <p>
-     * Returns null if the item could not be found in the database.
+     * Nothing is started when all prefetch threads are busy or the customer's item is already
+     * being prefetched.
+     *
+     * @param session
+     * @return the load, or null if none was started
+     */
+    public Future<?> prefetchHealthLogMetrics(Session session) {
+        if (prefetchExecutor == null || session.getUser() == null) {
+            return null;
+        }
+        final String customerId = session.getUser().getUserId();
+        if (customerId == null || metricsCache.get(customerId) != null
+                || (sessionSnapshotMaxAgeMillis > 0 && HealthLogSessionSnapshot.get(session,
+                        sessionSnapshotMaxAgeMillis) != null)) {
+            return null;
+        }
+
+        Prefetch prefetch = new Prefetch(customerId, new Callable<HealthLogUserDataItem>() {
+            @Override
+            public HealthLogUserDataItem call() {
+                return loadStoredItem(customerId);
+            }
+        });
+        if (prefetches.putIfAbsent(customerId, prefetch) != null) {
+            return null;
+        }
+        try {
+            prefetchExecutor.execute(prefetch);
+        } catch (RejectedExecutionException e) {
+            prefetches.remove(customerId, prefetch);
+            log.debug("All {} prefetch threads are busy, not prefetching", prefetchThreads);
+            return null;
+        }
+        return prefetch;
+    }
+
+    /**
+     * Reads and returns the {@link HealthLogMetrics} using user information from the session,
+     * with any changes still buffered in the session applied.
+     * <p>
+     * Returns null if the item could not be found in the database and there are no buffered
+     * changes.
      * 
      * @param session
      * @return
      */
     public HealthLogMetrics getHealthLogMetrics(Session session) {
-        HealthLogUserDataItem item = new HealthLogUserDataItem();
-        item.setCustomerId(session.getUser().getUserId());
+        HealthLogMetrics metrics = loadHealthLogMetrics(session);
+        if (WRITE_BEHIND) {
+            HealthLogChangeSet changes = HealthLogChangeSet.get(session);
+            if (!changes.isEmpty()) {
+                if (metrics == null) {
+                    metrics = HealthLogMetrics.newInstance(session,
+                            HealthLogMetricData.newInstance());
+                }
+                changes.applyTo(metrics);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Reads the {@link HealthLogMetrics} as stored, from the session copy, the cache or the
+     * store. Returns null if the item could not be found.
+     */
+    private HealthLogMetrics loadHealthLogMetrics(Session session) {
+        String customerId = session.getUser().getUserId();
+
+        HealthLogMetrics sessionMetrics = sessionSnapshotMaxAgeMillis > 0
+                ? HealthLogSessionSnapshot.get(session, sessionSnapshotMaxAgeMillis) : null;
+        HealthLogMetricsCache.Snapshot snapshot = metricsCache.get(customerId);
+        if (snapshot != null
+                && (sessionMetrics == null || isNewer(snapshot.getVersion(),
+                        sessionMetrics.getVersion()))) {
+            HealthLogMetrics metrics =
+                    HealthLogMetrics.newInstance(session, snapshot.getMetricData());
+            metrics.setVersion(snapshot.getVersion());
+            putSessionSnapshot(session, metrics.getMetricData(), metrics.getVersion());
+            return metrics;
+        }
+        if (sessionMetrics != null) {
+            sessionSnapshotHitCount.incrementAndGet();
+            return sessionMetrics;
+        }
 
-        item = dynamoDbClient.loadItem(item);
+        HealthLogUserDataItem item = loadItem(customerId);
+        log.debug("Loaded metrics for customer, cache {}", metricsCache);
 
         if (item == null) {
             return null;
         }
 
-        return HealthLogMetrics.newInstance(session, item.getMetricData());
+        metricsCache.put(customerId, item.getMetricData(), item.getVersion());
+        putSessionSnapshot(session, item.getMetricData(), item.getVersion());
+
+        HealthLogMetrics metrics = HealthLogMetrics.newInstance(session, item.getMetricData());
+        metrics.setVersion(item.getVersion());
+        return metrics;
     }
 
     /**
      * Saves the {@link HealthLogMetrics} into the database.
+     * <p>
+     * The save only succeeds if the stored item is still at the version the metrics were read at.
+     * Otherwise the cached entry and the copy in the session are dropped and the
+     * {@link HealthLogVersionConflictException} is rethrown, so the next read sees the newer item.
      * 
      * @param metrics
      */
     public void saveHealthLogMetrics(HealthLogMetrics metrics) {
+        String customerId = metrics.getSession().getUser().getUserId();
+
         HealthLogUserDataItem item = new HealthLogUserDataItem();
-        item.setCustomerId(metrics.getSession().getUser().getUserId());
+        item.setCustomerId(customerId);
         item.setMetricData(metrics.getMetricData());
+        item.setVersion(metrics.getVersion());
+
+        try {
+            store.saveItem(item);
+        } catch (HealthLogVersionConflictException e) {
+            metricsCache.invalidate(customerId);
+            HealthLogSessionSnapshot.remove(metrics.getSession());
+            dropPrefetch(customerId);
+            throw e;
+        }
+
+        // the store stamps the new version on the saved item
+        metrics.setVersion(item.getVersion());
+        metricsCache.put(customerId, item.getMetricData(), item.getVersion());
+        putSessionSnapshot(metrics.getSession(), item.getMetricData(), item.getVersion());
+    }
+
+    /**
+     * Loads the {@link HealthLogMetrics} of the customer in the session, applies the mutation and
+     * saves the result, and returns the saved metrics.
+     * <p>
+     * If the save fails because another request changed the item since it was read, the metrics
+     * are reloaded and the mutation is applied again after a jittered backoff, up to
+     * {@link #MAX_WRITE_ATTEMPTS_ENV} attempts. If there is no log yet, the mutation is applied to
+     * a new, empty one. Changes buffered in the session are applied first and written along.
+     *
+     * @param session
+     * @param mutation
+     *            the change to apply
+     * @return the metrics after the mutation
+     * @throws HealthLogVersionConflictException
+     *             if every attempt conflicted with a concurrent write
+     */
+    public HealthLogMetrics updateHealthLogMetrics(Session session,
+            HealthLogMetricsMutation mutation) {
+        HealthLogChangeSet changes = WRITE_BEHIND ? HealthLogChangeSet.get(session) : null;
+        for (int attempt = 1;; attempt++) {
+            HealthLogMetrics metrics = loadHealthLogMetrics(session);
+            if (metrics == null) {
+                metrics = HealthLogMetrics.newInstance(session, HealthLogMetricData.newInstance());
+            }
+
+            boolean changed = changes != null && changes.applyTo(metrics);
+            if (!mutation.apply(metrics) && !changed) {
+                return metrics;
+            }
+
+            writeAttemptCount.incrementAndGet();
+            try {
+                saveHealthLogMetrics(metrics);
+                if (changed) {
+                    HealthLogChangeSet.remove(session);
+                }
+                return metrics;
+            } catch (HealthLogVersionConflictException e) {
+                onWriteConflict(attempt, e);
+            }
+        }
+    }
+
+    /**
+     * Adds a user to the {@link HealthLogMetrics} of the customer in the session, starting a new
+     * log if there is none, and returns the updated metrics. With write-behind the user is only
+     * added to the changes buffered in the session.
+     *
+     * @param session
+     * @param userName
+     *            Name of the user
+     * @return the metrics with the user added
+     */
+    public HealthLogMetrics addUser(Session session, final String userName) {
+        if (WRITE_BEHIND) {
+            HealthLogMetrics metrics = getHealthLogMetrics(session);
+            if (metrics == null) {
+                metrics = HealthLogMetrics.newInstance(session, HealthLogMetricData.newInstance());
+            }
+            HealthLogChangeSet changes = HealthLogChangeSet.get(session);
+            changes.addUser(userName);
+            metrics.addUser(userName);
+            return bufferChanges(session, changes, metrics);
+        }
+
+        return updateHealthLogMetrics(session, new HealthLogMetricsMutation() {
+            @Override
+            public boolean apply(HealthLogMetrics latestMetrics) {
+                latestMetrics.addUser(userName);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Writes the changes buffered in the session, if any, as one conditional summary write and
+     * returns the metrics as written. The changes stay in the session if the write fails.
+     *
+     * @param session
+     * @return the metrics as written, or null if there were no buffered changes
+     */
+    public HealthLogMetrics flushPendingChanges(Session session) {
+        if (!WRITE_BEHIND || HealthLogChangeSet.get(session).isEmpty()) {
+            return null;
+        }
+        try {
+            return updateHealthLogMetrics(session, NO_CHANGES);
+        } catch (RuntimeException e) {
+            log.error("Unable to write changes {} buffered in session {}",
+                    HealthLogChangeSet.getEncoded(session), session.getSessionId(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the changes buffered in the session if they reached the size or age limit, so that a
+     * session that keeps going without making changes does not hold them indefinitely. The changes
+     * stay in the session if the write fails.
+     *
+     * @param session
+     * @return the metrics as written, or null if there were no changes due to be written
+     */
+    public HealthLogMetrics flushExpiredChanges(Session session) {
+        if (!WRITE_BEHIND || !isDue(HealthLogChangeSet.get(session))) {
+            return null;
+        }
+        return flushPendingChanges(session);
+    }
+
+    /**
+     * Returns the number of conditional summary writes attempted through the retrying paths.
+     *
+     * @return the number of attempted writes
+     */
+    public long getWriteAttemptCount() {
+        return writeAttemptCount.get();
+    }
+
+    /**
+     * Returns the number of those writes that failed because of a concurrent write.
+     *
+     * @return the number of conflicting writes
+     */
+    public long getWriteConflictCount() {
+        return writeConflictCount.get();
+    }
+
+    /**
+     * Returns the fraction of attempted writes that conflicted with a concurrent write.
+     *
+     * @return the conflict rate, between 0 and 1
+     */
+    public double getWriteConflictRate() {
+        long attempts = writeAttemptCount.get();
+        return attempts == 0 ? 0.0 : (double) writeConflictCount.get() / attempts;
+    }
+
+    /**
+     * Returns the number of reads answered from the copy of the metrics in the session.
+     *
+     * @return the number of session snapshot hits
+     */
+    public long getSessionSnapshotHitCount() {
+        return sessionSnapshotHitCount.get();
+    }
+
+    /**
+     * Returns the number of store reads answered by a prefetched item.
+     *
+     * @return the number of prefetch hits
+     */
+    public long getPrefetchHitCount() {
+        return prefetchHitCount.get();
+    }
+
+    /**
+     * Sets the latest value of a metric for a user in a single conditional write, without loading
+     * the item first, records the value in the measurement history, and returns the updated
+     * {@link HealthLogMetrics}.
+     * <p>
+     * Returns null if the log does not exist or the user is not in it, in which case nothing is
+     * written. With write-behind the latest value is only set in the changes buffered in the
+     * session, while the measurement is recorded right away.
+     *
+     * @param session
+     * @param userName
+     *            Name of the user
+     * @param metricType
+     *            the kind of measurement
+     * @param value
+     *            the new value
+     * @return the updated metrics, or null if the user is not in the log
+     */
+    public HealthLogMetrics setMetricValue(Session session, final String userName,
+            final HealthLogMetricType metricType, final long value) {
+        if (WRITE_BEHIND) {
+            HealthLogMetrics metrics = getHealthLogMetrics(session);
+            if (metrics == null || !metrics.hasUser(userName)) {
+                return null;
+            }
+            HealthLogChangeSet changes = HealthLogChangeSet.get(session);
+            changes.setMetricValue(userName, metricType, value);
+            if (metricType == HealthLogMetricType.WEIGHT) {
+                metrics.addWeightForUser(userName, value);
+            } else {
+                metrics.addHeightForUser(userName, value);
+            }
+            saveMeasurement(session, userName, metricType, value);
+            return bufferChanges(session, changes, metrics);
+        }
+
+        String customerId = session.getUser().getUserId();
+
+        HealthLogUserDataItem item = store.updateMetricValue(customerId, userName, metricType,
+                value, System.currentTimeMillis());
+        if (item == null) {
+            // Items saved before the UserNames attribute existed fail the condition even when the
+            // user is in the log. Those get one full save, which writes the attribute.
+            HealthLogMetrics metrics = updateHealthLogMetrics(session,
+                    new HealthLogMetricsMutation() {
+                        @Override
+                        public boolean apply(HealthLogMetrics latestMetrics) {
+                            return metricType == HealthLogMetricType.WEIGHT
+                                    ? latestMetrics.addWeightForUser(userName, value)
+                                    : latestMetrics.addHeightForUser(userName, value);
+                        }
+                    });
+            if (!metrics.hasUser(userName)) {
+                return null;
+            }
+            saveMeasurement(session, userName, metricType, value);
+            return metrics;
+        }
+
+        metricsCache.put(customerId, item.getMetricData(), item.getVersion());
+        putSessionSnapshot(session, item.getMetricData(), item.getVersion());
 
-        dynamoDbClient.saveItem(item);
+        HealthLogMetrics metrics = HealthLogMetrics.newInstance(session, item.getMetricData());
+        metrics.setVersion(item.getVersion());
+        return metrics;
+    }
+
+    /**
+     * Replaces the {@link HealthLogMetrics} of the customer in the session with an empty log and
+     * returns it. Changes buffered in the session are discarded, and the measurement history
+     * reads leave out the measurements taken before the reset.
+     *
+     * @param session
+     * @return the new, empty metrics
+     */
+    public HealthLogMetrics resetHealthLogMetrics(Session session) {
+        String customerId = session.getUser().getUserId();
+        HealthLogChangeSet.remove(session);
+
+        for (int attempt = 1;; attempt++) {
+            HealthLogMetrics existingMetrics = getHealthLogMetrics(session);
+
+            long startedAt = System.currentTimeMillis();
+            HealthLogMetrics metrics = HealthLogMetrics.newInstance(session,
+                    HealthLogMetricData.newInstance(startedAt));
+            writeAttemptCount.incrementAndGet();
+            try {
+                if (existingMetrics == null) {
+                    saveHealthLogMetrics(metrics);
+                    return metrics;
+                }
+
+                metrics.setVersion(store.clearItem(customerId,
+                        existingMetrics.getMetricData().getUsers(),
+                        existingMetrics.getVersion(), startedAt));
+                metricsCache.put(customerId, metrics.getMetricData(), metrics.getVersion());
+                putSessionSnapshot(session, metrics.getMetricData(), metrics.getVersion());
+                return metrics;
+            } catch (HealthLogVersionConflictException e) {
+                metricsCache.invalidate(customerId);
+                HealthLogSessionSnapshot.remove(session);
+                dropPrefetch(customerId);
+                onWriteConflict(attempt, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the last {@code count} measurements of a metric for a user of the log, newest first.
+     * Measurements taken before the log was last reset are left out, and there are none for
+     * users who are not in the log.
+     *
+     * @param metrics
+     *            the metrics of the customer, as read by {@link #getHealthLogMetrics(Session)}
+     * @param userName
+     *            Name of the user
+     * @param metricType
+     *            the kind of measurement
+     * @param count
+     *            maximum number of measurements to return
+     * @return
+     */
+    public List<HealthLogMeasurementItem> getRecentMeasurements(HealthLogMetrics metrics,
+            String userName, HealthLogMetricType metricType, int count) {
+        if (!metrics.hasUser(userName)) {
+            return Collections.emptyList();
+        }
+        List<HealthLogMeasurementItem> items = store.queryLatestMeasurementItems(
+                newSeriesKey(metrics, userName, metricType), count);
+        Long startedAt = metrics.getMetricData().getStartedAt();
+        if (startedAt == null) {
+            return items;
+        }
+        // newest first, so measurements of an earlier log are at the end
+        int end = items.size();
+        while (end > 0 && items.get(end - 1).getTimestamp() < startedAt) {
+            end--;
+        }
+        return items.subList(0, end);
+    }
+
+    /**
+     * Returns the measurements of a metric for a user of the log taken between two dates
+     * (inclusive), newest first. As with
+     * {@link #getRecentMeasurements(HealthLogMetrics, String, HealthLogMetricType, int)}, only
+     * measurements of the current log are returned.
+     *
+     * @param metrics
+     *            the metrics of the customer, as read by {@link #getHealthLogMetrics(Session)}
+     * @param userName
+     *            Name of the user
+     * @param metricType
+     *            the kind of measurement
+     * @param from
+     *            start of the range
+     * @param to
+     *            end of the range
+     * @return
+     */
+    public List<HealthLogMeasurementItem> getMeasurementsBetween(HealthLogMetrics metrics,
+            String userName, HealthLogMetricType metricType, Date from, Date to) {
+        if (!metrics.hasUser(userName)) {
+            return Collections.emptyList();
+        }
+        Long startedAt = metrics.getMetricData().getStartedAt();
+        long fromTimestamp = startedAt != null ? Math.max(from.getTime(), startedAt)
+                : from.getTime();
+        return store.queryMeasurementItemsBetween(newSeriesKey(metrics, userName, metricType),
+                fromTimestamp, to.getTime());
+    }
+
+    private static String newSeriesKey(HealthLogMetrics metrics, String userName,
+            HealthLogMetricType metricType) {
+        return HealthLogMeasurementItem.newSeriesKey(
+                metrics.getSession().getUser().getUserId(), userName, metricType);
+    }
+
+    /**
+     * Records a single measurement for a user in the measurement history, timestamped with the
+     * current time. This is one small put and does not touch the summary item.
+     */
+    private void saveMeasurement(Session session, String userName,
+            HealthLogMetricType metricType, long value) {
+        store.saveMeasurementItem(HealthLogMeasurementItem.newInstance(
+                session.getUser().getUserId(), userName, metricType, value,
+                System.currentTimeMillis()));
+    }
+
+    /**
+     * Keeps buffered changes in the session, or writes them if they reached the size or age
+     * limit.
+     *
+     * @return the metrics with the changes applied
+     */
+    private HealthLogMetrics bufferChanges(Session session, HealthLogChangeSet changes,
+            HealthLogMetrics metrics) {
+        changes.put(session);
+        if (isDue(changes)) {
+            return flushPendingChanges(session);
+        }
+        return metrics;
+    }
+
+    private static boolean isDue(HealthLogChangeSet changes) {
+        return !changes.isEmpty() && (changes.size() >= WRITE_BEHIND_MAX_CHANGES
+                || changes.getAgeMillis() >= WRITE_BEHIND_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * Loads the summary item of a customer, taking a prefetch of it if one was started. A failed
+     * or cancelled prefetch is loaded again.
+     */
+    private HealthLogUserDataItem loadItem(String customerId) {
+        Prefetch prefetch = prefetches.remove(customerId);
+        if (prefetch != null) {
+            try {
+                HealthLogUserDataItem item = prefetch.get();
+                prefetchHitCount.incrementAndGet();
+                return item;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (CancellationException | ExecutionException e) {
+                log.debug("Prefetch of the metrics failed, loading them again", e);
+            }
+        }
+        return loadStoredItem(customerId);
+    }
+
+    private HealthLogUserDataItem loadStoredItem(String customerId) {
+        HealthLogUserDataItem item = new HealthLogUserDataItem();
+        item.setCustomerId(customerId);
+        return store.loadItem(item);
+    }
+
+    /**
+     * Drops a prefetch of a customer's item, which may predate a write that just conflicted.
+     */
+    private void dropPrefetch(String customerId) {
+        Prefetch prefetch = prefetches.get(customerId);
+        if (prefetch != null) {
+            prefetch.cancel(true);
+        }
+    }
+
+    private static ThreadPoolExecutor newPrefetchExecutor(int threads) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        // no queue: a load waiting for a thread would not be ahead of its read anymore
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                        new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable runnable) {
+                                Thread thread =
+                                        new Thread(runnable, "healthlog-prefetch-"
+                                                + threadNumber.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private void putSessionSnapshot(Session session, HealthLogMetricData metricData,
+            Long version) {
+        if (sessionSnapshotMaxAgeMillis > 0) {
+            HealthLogSessionSnapshot.put(session, metricData, version);
+        }
+    }
+
+    /**
+     * Returns true if the first item version is newer than the second. Items saved before
+     * versioning have no version.
+     */
+    private static boolean isNewer(Long version, Long otherVersion) {
+        return version != null && (otherVersion == null || version > otherVersion);
+    }
+
+    /**
+     * Records a write conflict and sleeps for a jittered, exponentially growing backoff before
+     * the next attempt. Rethrows the conflict once the attempts are used up.
+     *
+     * @param attempt
+     *            the attempt that conflicted, starting at 1
+     * @param conflict
+     *            the conflict raised by the conditional write
+     */
+    private void onWriteConflict(int attempt, HealthLogVersionConflictException conflict) {
+        writeConflictCount.incrementAndGet();
+        if (attempt >= MAX_WRITE_ATTEMPTS) {
+            log.warn("Giving up after {} conflicting writes, conflict rate {}", attempt,
+                    getWriteConflictRate());
+            throw conflict;
+        }
+
+        long maxBackoff = WRITE_BACKOFF_MILLIS << (attempt - 1);
+        long backoff = ThreadLocalRandom.current().nextLong(maxBackoff + 1);
+        log.info("Write conflict on attempt {}, retrying in {} ms", attempt, backoff);
+        try {
+            Thread.sleep(backoff);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw conflict;
+        }
+    }
+
+    /**
+     * A background load of the summary item of one customer, kept until a read of that customer
+     * takes it or it is cancelled.
+     */
+    private final class Prefetch extends FutureTask<HealthLogUserDataItem> {
+        private final String customerId;
+
+        Prefetch(String customerId, Callable<HealthLogUserDataItem> load) {
+            super(load);
+            this.customerId = customerId;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            prefetches.remove(customerId, this);
+            return super.cancel(mayInterruptIfRunning);
+        }
     }
 }
@@ -2,46 +2,438 @@ package com.ericgonzalesevans.healthlog.storage;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.ConsistentReads;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Client for DynamoDB persistance layer for the HealthLog skill.
+ * Client for DynamoDB persistance layer for the HealthLog skill, and the default
+ * {@link HealthLogStore}.
+ * <p>
+ * The {@link DynamoDBMapper} is created once and reused for every call, since it is thread safe
+ * and caches the reflected table model.
  */
-public class HealthLogDynamoDbClient {
+public class HealthLogDynamoDbClient implements HealthLogStore {
+    /**
+     * Number of timestamps a measurement is tried at before giving up, when earlier measurements
+     * of the same series took them.
+     */
+    private static final int MAX_MEASUREMENT_SAVE_ATTEMPTS = 16;
+
     private final AmazonDynamoDBClient dynamoDBClient;
+    private final DynamoDBMapper mapper;
+    private final boolean consistentReads;
 
     public HealthLogDynamoDbClient(final AmazonDynamoDBClient dynamoDBClient) {
+        this(dynamoDBClient, DynamoDBMapperConfig.DEFAULT);
+    }
+
+    public HealthLogDynamoDbClient(final AmazonDynamoDBClient dynamoDBClient,
+            final DynamoDBMapperConfig mapperConfig) {
         this.dynamoDBClient = dynamoDBClient;
+        this.mapper = new DynamoDBMapper(dynamoDBClient, mapperConfig);
+        this.consistentReads = mapperConfig.getConsistentReads() == ConsistentReads.CONSISTENT;
     }
 
     /**
      * Loads an item from DynamoDB by primary Hash Key. Callers of this method should pass in an
      * object which represents an item in the DynamoDB table item with the primary key populated.
+     * <p>
+     * Per-user metric value attributes are not part of the mapped model, so the item is read
+     * with a plain GetItem and those attributes are folded into the metric data.
      * 
      * @param tableItem
      * @return
      */
+    @Override
     public HealthLogUserDataItem loadItem(final HealthLogUserDataItem tableItem) {
-        DynamoDBMapper mapper = createDynamoDBMapper();
-        HealthLogUserDataItem item = mapper.load(tableItem);
-        return item;
+        GetItemRequest request = new GetItemRequest()
+                .withTableName(HealthLogUserDataItem.TABLE_NAME)
+                .withKey(newKey(tableItem.getCustomerId()))
+                .withConsistentRead(consistentReads);
+        return toUserDataItem(dynamoDBClient.getItem(request).getItem());
     }
 
     /**
-     * Stores an item to DynamoDB.
+     * Stores an item to DynamoDB, conditional on the stored item still being at the version of
+     * the given item, and stamps the new version on it.
+     * <p>
+     * The users go into the binary attribute and the values into the per-user metric value
+     * attributes, in one UpdateItem call: every value is SET and the value attributes of users
+     * without a value are REMOVEd, so no value attribute is left behind that disagrees with the
+     * saved metric data.
      * 
      * @param tableItem
      */
+    @Override
     public void saveItem(final HealthLogUserDataItem tableItem) {
-        DynamoDBMapper mapper = createDynamoDBMapper();
-        mapper.save(tableItem);
+        HealthLogMetricData metricData = tableItem.getMetricData();
+        Long newVersion = nextVersion(tableItem.getVersion());
+
+        Map<String, String> names = new HashMap<String, String>();
+        names.put("#data", HealthLogUserDataItem.ENCODED_METRIC_DATA_ATTRIBUTE);
+        names.put("#legacyData", HealthLogUserDataItem.LEGACY_METRIC_DATA_ATTRIBUTE);
+        names.put("#users", HealthLogUserDataItem.USER_NAMES_ATTRIBUTE);
+        names.put("#version", HealthLogUserDataItem.VERSION_ATTRIBUTE);
+
+        Map<String, AttributeValue> values = new HashMap<String, AttributeValue>();
+        values.put(":data", new AttributeValue().withB(ByteBuffer.wrap(
+                HealthLogMetricDataCodec.encode(withoutValues(metricData)))));
+        values.put(":newVersion", new AttributeValue().withN(Long.toString(newVersion)));
+
+        StringBuilder setExpression = new StringBuilder("SET #data = :data, #version = :newVersion");
+        StringBuilder removeExpression = new StringBuilder(" REMOVE #legacyData");
+        Set<String> userNames = tableItem.getUserNames();
+        if (userNames != null) {
+            setExpression.append(", #users = :users");
+            values.put(":users", new AttributeValue().withSS(userNames));
+        } else {
+            removeExpression.append(", #users");
+        }
+        int index = 0;
+        for (String userName : getMetricNames(metricData)) {
+            for (HealthLogMetricType metricType : HealthLogMetricType.values()) {
+                String placeholder = "#m" + index;
+                names.put(placeholder,
+                        HealthLogUserDataItem.getMetricValueAttributeName(metricType, userName));
+                Long value = (metricType == HealthLogMetricType.WEIGHT ? metricData.getWeights()
+                        : metricData.getHeights()).get(userName);
+                if (value != null) {
+                    setExpression.append(", ").append(placeholder).append(" = :m").append(index);
+                    values.put(":m" + index, new AttributeValue().withN(Long.toString(value)));
+                } else {
+                    removeExpression.append(", ").append(placeholder);
+                }
+                index++;
+            }
+        }
+
+        UpdateItemRequest request = new UpdateItemRequest()
+                .withTableName(HealthLogUserDataItem.TABLE_NAME)
+                .withKey(newKey(tableItem.getCustomerId()))
+                .withUpdateExpression(setExpression.append(removeExpression).toString())
+                .withConditionExpression(newVersionCondition(tableItem.getVersion(), values))
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(values);
+        try {
+            dynamoDBClient.updateItem(request);
+        } catch (ConditionalCheckFailedException e) {
+            throw new HealthLogVersionConflictException("Summary item changed since it was read",
+                    e);
+        }
+        tableItem.setVersion(newVersion);
     }
 
     /**
-     * Creates a {@link DynamoDBMapper} using the default configurations.
-     * 
+     * Sets the latest value of a metric for a user with a single UpdateItem call, without reading
+     * or rewriting the rest of the item, and then puts the measurement item. The update is
+     * conditional on the user being in the log, and bumps the item version so that concurrent
+     * full saves based on older reads fail.
+     * <p>
+     * This SDK has no transactional writes, so these are two requests. The measurement is only
+     * put once the update succeeded.
+     *
+     * @param customerId
+     * @param userName
+     *            Name of the user
+     * @param metricType
+     *            the kind of measurement
+     * @param value
+     *            the new value
+     * @param timestamp
+     *            time the value was measured, in milliseconds since the epoch
+     * @return the updated item, or null if the log does not exist or the user is not in it
+     */
+    @Override
+    public HealthLogUserDataItem updateMetricValue(final String customerId,
+            final String userName, final HealthLogMetricType metricType, final long value,
+            final long timestamp) {
+        Map<String, String> names = new HashMap<String, String>();
+        names.put("#value",
+                HealthLogUserDataItem.getMetricValueAttributeName(metricType, userName));
+        names.put("#version", HealthLogUserDataItem.VERSION_ATTRIBUTE);
+        names.put("#users", HealthLogUserDataItem.USER_NAMES_ATTRIBUTE);
+
+        Map<String, AttributeValue> values = new HashMap<String, AttributeValue>();
+        values.put(":value", new AttributeValue().withN(Long.toString(value)));
+        values.put(":one", new AttributeValue().withN("1"));
+        values.put(":user", new AttributeValue().withS(userName));
+
+        UpdateItemRequest request = new UpdateItemRequest()
+                .withTableName(HealthLogUserDataItem.TABLE_NAME)
+                .withKey(newKey(customerId))
+                .withUpdateExpression("SET #value = :value ADD #version :one")
+                .withConditionExpression("contains(#users, :user)")
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(values)
+                .withReturnValues(ReturnValue.ALL_NEW);
+        HealthLogUserDataItem item;
+        try {
+            item = toUserDataItem(dynamoDBClient.updateItem(request).getAttributes());
+        } catch (ConditionalCheckFailedException e) {
+            return null;
+        }
+
+        saveMeasurementItem(HealthLogMeasurementItem.newInstance(customerId, userName,
+                metricType, value, timestamp));
+        return item;
+    }
+
+    /**
+     * Replaces the metric data of an item with an empty log and removes the per-user metric
+     * value attributes of the given users, conditional on the item still being at the expected
+     * version.
+     *
+     * @param customerId
+     * @param userNames
+     *            the users currently in the log
+     * @param expectedVersion
+     *            the version the item was read at
+     * @return the new version of the item
+     * @throws HealthLogVersionConflictException
+     *             if the item is no longer at the expected version
+     */
+    @Override
+    public Long clearItem(final String customerId, final Collection<String> userNames,
+            final Long expectedVersion, final long timestamp) {
+        Long newVersion = nextVersion(expectedVersion);
+
+        Map<String, String> names = new HashMap<String, String>();
+        names.put("#data", HealthLogUserDataItem.ENCODED_METRIC_DATA_ATTRIBUTE);
+        names.put("#legacyData", HealthLogUserDataItem.LEGACY_METRIC_DATA_ATTRIBUTE);
+        names.put("#users", HealthLogUserDataItem.USER_NAMES_ATTRIBUTE);
+        names.put("#version", HealthLogUserDataItem.VERSION_ATTRIBUTE);
+
+        StringBuilder removeExpression = new StringBuilder(" REMOVE #legacyData, #users");
+        int index = 0;
+        for (String userName : userNames) {
+            for (HealthLogMetricType metricType : HealthLogMetricType.values()) {
+                String placeholder = "#m" + index++;
+                names.put(placeholder,
+                        HealthLogUserDataItem.getMetricValueAttributeName(metricType, userName));
+                removeExpression.append(", ").append(placeholder);
+            }
+        }
+
+        Map<String, AttributeValue> values = new HashMap<String, AttributeValue>();
+        values.put(":data", new AttributeValue().withB(ByteBuffer.wrap(
+                HealthLogMetricDataCodec.encode(HealthLogMetricData.newInstance(timestamp)))));
+        values.put(":newVersion", new AttributeValue().withN(Long.toString(newVersion)));
+
+        UpdateItemRequest request = new UpdateItemRequest()
+                .withTableName(HealthLogUserDataItem.TABLE_NAME)
+                .withKey(newKey(customerId))
+                .withUpdateExpression("SET #data = :data, #version = :newVersion"
+                        + removeExpression)
+                .withConditionExpression(newVersionCondition(expectedVersion, values))
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(values);
+        try {
+            dynamoDBClient.updateItem(request);
+        } catch (ConditionalCheckFailedException e) {
+            throw new HealthLogVersionConflictException("Summary item changed since it was read",
+                    e);
+        }
+        return newVersion;
+    }
+
+    /**
+     * Stores a single measurement item to DynamoDB with one PutItem call. The put is conditional
+     * on there being no item at its key yet, and is retried a millisecond later if there is one.
+     *
+     * @param measurementItem
+     */
+    @Override
+    public void saveMeasurementItem(final HealthLogMeasurementItem measurementItem) {
+        for (int attempt = 1;; attempt++) {
+            PutItemRequest request = new PutItemRequest()
+                    .withTableName(HealthLogMeasurementItem.TABLE_NAME)
+                    .withItem(newMeasurementAttributes(measurementItem))
+                    .withConditionExpression("attribute_not_exists(#key)")
+                    .addExpressionAttributeNamesEntry("#key",
+                            HealthLogMeasurementItem.SERIES_KEY_ATTRIBUTE);
+            try {
+                dynamoDBClient.putItem(request);
+                return;
+            } catch (ConditionalCheckFailedException e) {
+                if (attempt >= MAX_MEASUREMENT_SAVE_ATTEMPTS) {
+                    throw new IllegalStateException("No free timestamp for measurement "
+                            + measurementItem, e);
+                }
+                measurementItem.setTimestamp(measurementItem.getTimestamp() + 1);
+            }
+        }
+    }
+
+    /**
+     * Queries the most recent measurement items of a series, newest first. The series is the hash
+     * key, so the query reads nothing but the items it returns.
+     *
+     * @param seriesKey
+     *            hash key of the series, see {@link HealthLogMeasurementItem#newSeriesKey}
+     * @param limit
+     *            maximum number of items to return
+     * @return
+     */
+    @Override
+    public List<HealthLogMeasurementItem> queryLatestMeasurementItems(final String seriesKey,
+            final int limit) {
+        HealthLogMeasurementItem hashKeyValues = new HealthLogMeasurementItem();
+        hashKeyValues.setSeriesKey(seriesKey);
+
+        DynamoDBQueryExpression<HealthLogMeasurementItem> queryExpression =
+                new DynamoDBQueryExpression<HealthLogMeasurementItem>()
+                        .withHashKeyValues(hashKeyValues)
+                        .withScanIndexForward(false)
+                        .withLimit(limit);
+        return queryMeasurementItems(queryExpression, limit);
+    }
+
+    @Override
+    public List<HealthLogMeasurementItem> queryMeasurementItemsBetween(final String seriesKey,
+            final long fromTimestamp, final long toTimestamp) {
+        HealthLogMeasurementItem hashKeyValues = new HealthLogMeasurementItem();
+        hashKeyValues.setSeriesKey(seriesKey);
+
+        Condition timestampCondition = new Condition()
+                .withComparisonOperator(ComparisonOperator.BETWEEN)
+                .withAttributeValueList(
+                        new AttributeValue().withN(Long.toString(fromTimestamp)),
+                        new AttributeValue().withN(Long.toString(toTimestamp)));
+
+        DynamoDBQueryExpression<HealthLogMeasurementItem> queryExpression =
+                new DynamoDBQueryExpression<HealthLogMeasurementItem>()
+                        .withHashKeyValues(hashKeyValues)
+                        .withRangeKeyCondition(HealthLogMeasurementItem.TIMESTAMP_ATTRIBUTE,
+                                timestampCondition)
+                        .withScanIndexForward(false);
+        return queryMeasurementItems(queryExpression, Integer.MAX_VALUE);
+    }
+
+    private static Map<String, AttributeValue> newKey(final String customerId) {
+        Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put(HealthLogUserDataItem.CUSTOMER_ID_ATTRIBUTE, new AttributeValue().withS(customerId));
+        return key;
+    }
+
+    private static Map<String, AttributeValue> newMeasurementAttributes(
+            final HealthLogMeasurementItem measurementItem) {
+        Map<String, AttributeValue> attributes = new HashMap<String, AttributeValue>();
+        attributes.put(HealthLogMeasurementItem.SERIES_KEY_ATTRIBUTE,
+                new AttributeValue().withS(measurementItem.getSeriesKey()));
+        attributes.put(HealthLogMeasurementItem.TIMESTAMP_ATTRIBUTE,
+                new AttributeValue().withN(Long.toString(measurementItem.getTimestamp())));
+        attributes.put(HealthLogMeasurementItem.METRIC_ATTRIBUTE,
+                new AttributeValue().withS(measurementItem.getMetric()));
+        attributes.put(HealthLogMeasurementItem.VALUE_ATTRIBUTE,
+                new AttributeValue().withN(Long.toString(measurementItem.getValue())));
+        return attributes;
+    }
+
+    private static Long nextVersion(final Long version) {
+        return version == null ? 1L : version + 1;
+    }
+
+    /**
+     * Returns the condition that the item is at the expected version, or does not exist yet if
+     * there is none, adding the value it refers to.
+     *
+     * @param expectedVersion
+     * @param values
+     *            expression attribute values of the request
+     * @return
+     */
+    private static String newVersionCondition(final Long expectedVersion,
+            final Map<String, AttributeValue> values) {
+        if (expectedVersion == null) {
+            return "attribute_not_exists(#version)";
+        }
+        values.put(":expectedVersion", new AttributeValue().withN(Long.toString(expectedVersion)));
+        return "#version = :expectedVersion";
+    }
+
+    /**
+     * Returns the users of the metric data followed by any other names that have values.
+     */
+    private static Set<String> getMetricNames(final HealthLogMetricData metricData) {
+        Set<String> metricNames = new LinkedHashSet<String>(metricData.getUsers());
+        metricNames.addAll(metricData.getWeights().keySet());
+        metricNames.addAll(metricData.getHeights().keySet());
+        return metricNames;
+    }
+
+    /**
+     * Returns a copy of the metric data with only its users, as kept in the binary attribute.
+     */
+    private static HealthLogMetricData withoutValues(final HealthLogMetricData metricData) {
+        HealthLogMetricData users = HealthLogMetricData.newInstance();
+        users.getUsers().addAll(metricData.getUsers());
+        users.setStartedAt(metricData.getStartedAt());
+        return users;
+    }
+
+    /**
+     * Converts raw item attributes into a {@link HealthLogUserDataItem}, folding per-user metric
+     * value attributes into its metric data. Values in the binary attribute are only left for
+     * users without a value attribute, which happens for items last saved before those existed.
+     *
+     * @param attributes
+     * @return the item, or null if there are no attributes
+     */
+    private HealthLogUserDataItem toUserDataItem(final Map<String, AttributeValue> attributes) {
+        if (attributes == null || attributes.isEmpty()) {
+            return null;
+        }
+
+        HealthLogUserDataItem item =
+                mapper.marshallIntoObject(HealthLogUserDataItem.class, attributes);
+        if (item.getMetricData() == null) {
+            item.setMetricData(HealthLogMetricData.newInstance());
+        }
+        for (Map.Entry<String, AttributeValue> attribute : attributes.entrySet()) {
+            if (attribute.getValue().getN() != null) {
+                item.applyMetricValueAttribute(attribute.getKey(),
+                        Long.parseLong(attribute.getValue().getN()));
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Runs a measurement query and copies at most {@code limit} items out of the lazily paginated
+     * result, so no more pages are fetched than needed.
+     *
+     * @param queryExpression
+     * @param limit
      * @return
      */
-    private DynamoDBMapper createDynamoDBMapper() {
-        return new DynamoDBMapper(dynamoDBClient);
+    private List<HealthLogMeasurementItem> queryMeasurementItems(
+            final DynamoDBQueryExpression<HealthLogMeasurementItem> queryExpression,
+            final int limit) {
+        List<HealthLogMeasurementItem> items = new ArrayList<HealthLogMeasurementItem>();
+        Iterator<HealthLogMeasurementItem> iterator =
+                mapper.query(HealthLogMeasurementItem.class, queryExpression).iterator();
+        while (iterator.hasNext() && items.size() < limit) {
+            items.add(iterator.next());
+        }
+        return items;
     }
 }
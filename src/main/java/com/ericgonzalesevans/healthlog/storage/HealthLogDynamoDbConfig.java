@@ -0,0 +1,120 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.ConsistentReads;
+
+/**
+ * Connection and mapper settings for the DynamoDB persistence layer, read once from environment
+ * variables. Unset or invalid variables fall back to the defaults below, which are tuned for a
+ * warm Lambda container or servlet node making a handful of small calls per request.
+ */
+public final class HealthLogDynamoDbConfig {
+    /**
+     * Maximum number of pooled HTTP connections to DynamoDB.
+     */
+    public static final String MAX_CONNECTIONS_ENV = "HEALTHLOG_DYNAMODB_MAX_CONNECTIONS";
+
+    /**
+     * Timeout in milliseconds for establishing a connection to DynamoDB.
+     */
+    public static final String CONNECTION_TIMEOUT_ENV = "HEALTHLOG_DYNAMODB_CONNECTION_TIMEOUT_MS";
+
+    /**
+     * Timeout in milliseconds for reading data from an established connection.
+     */
+    public static final String SOCKET_TIMEOUT_ENV = "HEALTHLOG_DYNAMODB_SOCKET_TIMEOUT_MS";
+
+    /**
+     * Time in milliseconds a pooled connection may be reused before it is closed.
+     */
+    public static final String CONNECTION_TTL_ENV = "HEALTHLOG_DYNAMODB_CONNECTION_TTL_MS";
+
+    /**
+     * Whether TCP keep-alive is enabled on pooled connections.
+     */
+    public static final String TCP_KEEP_ALIVE_ENV = "HEALTHLOG_DYNAMODB_TCP_KEEP_ALIVE";
+
+    /**
+     * Maximum number of retries for throttled or failed calls.
+     */
+    public static final String MAX_ERROR_RETRY_ENV = "HEALTHLOG_DYNAMODB_MAX_ERROR_RETRY";
+
+    /**
+     * Read consistency of the mapper, either {@code CONSISTENT} or {@code EVENTUAL}. Eventually
+     * consistent reads cost half as much; a stale read only makes the versioned write after it
+     * conflict and retry.
+     */
+    public static final String CONSISTENT_READS_ENV = "HEALTHLOG_DYNAMODB_CONSISTENT_READS";
+
+    private final int maxConnections;
+    private final int connectionTimeout;
+    private final int socketTimeout;
+    private final long connectionTtl;
+    private final boolean tcpKeepAlive;
+    private final int maxErrorRetry;
+    private final ConsistentReads consistentReads;
+
+    private HealthLogDynamoDbConfig() {
+        maxConnections = EnvironmentSettings.getInt(MAX_CONNECTIONS_ENV, 10);
+        connectionTimeout = EnvironmentSettings.getInt(CONNECTION_TIMEOUT_ENV, 1000);
+        socketTimeout = EnvironmentSettings.getInt(SOCKET_TIMEOUT_ENV, 2000);
+        connectionTtl = EnvironmentSettings.getLong(CONNECTION_TTL_ENV, 60000L);
+        tcpKeepAlive = EnvironmentSettings.getBoolean(TCP_KEEP_ALIVE_ENV, true);
+        maxErrorRetry = EnvironmentSettings.getInt(MAX_ERROR_RETRY_ENV, 3);
+        consistentReads = EnvironmentSettings.getEnum(CONSISTENT_READS_ENV,
+                ConsistentReads.class, ConsistentReads.EVENTUAL);
+    }
+
+    /**
+     * Reads the settings from the environment.
+     *
+     * @return settings read from the environment
+     */
+    public static HealthLogDynamoDbConfig fromEnvironment() {
+        return new HealthLogDynamoDbConfig();
+    }
+
+    /**
+     * Returns a {@link ClientConfiguration} with the configured connection pool, timeouts,
+     * keep-alive and retry policy.
+     *
+     * @return the client configuration
+     */
+    public ClientConfiguration newClientConfiguration() {
+        ClientConfiguration clientConfiguration = new ClientConfiguration();
+        clientConfiguration.setMaxConnections(maxConnections);
+        clientConfiguration.setConnectionTimeout(connectionTimeout);
+        clientConfiguration.setSocketTimeout(socketTimeout);
+        clientConfiguration.setConnectionTTL(connectionTtl);
+        clientConfiguration.setUseTcpKeepAlive(tcpKeepAlive);
+        clientConfiguration.setRetryPolicy(PredefinedRetryPolicies
+                .getDynamoDBDefaultRetryPolicyWithCustomMaxRetries(maxErrorRetry));
+        return clientConfiguration;
+    }
+
+    /**
+     * Returns a {@link DynamoDBMapperConfig} with the configured read consistency. The mapper
+     * only reads and queries; summary and measurement writes are direct conditional requests.
+     *
+     * @return the mapper configuration
+     */
+    public DynamoDBMapperConfig newMapperConfig() {
+        return new DynamoDBMapperConfig.Builder()
+                .withConsistentReads(consistentReads)
+                .build();
+    }
+
+    /**
+     * Creates a new {@link AmazonDynamoDBClient} using the default credentials provider chain and
+     * the configured client settings. The client is thread safe and meant to be created once and
+     * shared.
+     *
+     * @return a new DynamoDB client
+     */
+    public AmazonDynamoDBClient newAmazonDynamoDBClient() {
+        return new AmazonDynamoDBClient(newClientConfiguration());
+    }
+}
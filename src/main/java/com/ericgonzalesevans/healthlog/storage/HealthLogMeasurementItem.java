@@ -0,0 +1,123 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBRangeKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+
+/**
+ * Model representing a single measurement in the HealthLogMeasurements table in DynamoDB for the
+ * HealthLog skill.
+ * <p>
+ * Every measurement is its own small item, hashed by customer, user name and metric and ranged
+ * by the time it was taken, so that recording a value is a single put and reading the last few
+ * values of a metric is a single query that reads nothing but those values.
+ * Timestamps are unique within a series: a measurement taken in the same millisecond as an
+ * earlier one is stored at the next free millisecond.
+ */
+@DynamoDBTable(tableName = HealthLogMeasurementItem.TABLE_NAME)
+public class HealthLogMeasurementItem {
+    /**
+     * Separator between the customer id, the user name and the metric in the hash key.
+     */
+    private static final String KEY_SEPARATOR = "#";
+
+    public static final String TABLE_NAME = "HealthLogMeasurements";
+
+    static final String SERIES_KEY_ATTRIBUTE = "SeriesKey";
+    static final String TIMESTAMP_ATTRIBUTE = "Timestamp";
+    static final String METRIC_ATTRIBUTE = "Metric";
+    static final String VALUE_ATTRIBUTE = "Value";
+
+    private String seriesKey;
+
+    private Long timestamp;
+
+    private String metric;
+
+    private Long value;
+
+    /**
+     * Builds the hash key for the measurements of one metric of a user within a customer's log.
+     *
+     * @param customerId
+     *            the Alexa user id of the customer
+     * @param userName
+     *            the name of the user in the log
+     * @param metricType
+     *            the kind of measurement
+     * @return the hash key for the measurement series
+     */
+    public static String newSeriesKey(String customerId, String userName,
+            HealthLogMetricType metricType) {
+        return customerId + KEY_SEPARATOR + userName + KEY_SEPARATOR
+                + metricType.getAttributeValue();
+    }
+
+    /**
+     * Creates the measurement item of a value of one metric of a user.
+     *
+     * @param customerId
+     *            the Alexa user id of the customer
+     * @param userName
+     *            the name of the user in the log
+     * @param metricType
+     *            the kind of measurement
+     * @param value
+     *            the measured value
+     * @param timestamp
+     *            time the value was measured, in milliseconds since the epoch
+     * @return the measurement item
+     */
+    public static HealthLogMeasurementItem newInstance(String customerId, String userName,
+            HealthLogMetricType metricType, long value, long timestamp) {
+        HealthLogMeasurementItem item = new HealthLogMeasurementItem();
+        item.setSeriesKey(newSeriesKey(customerId, userName, metricType));
+        item.setTimestamp(timestamp);
+        item.setMetric(metricType.getAttributeValue());
+        item.setValue(value);
+        return item;
+    }
+
+    @DynamoDBHashKey(attributeName = SERIES_KEY_ATTRIBUTE)
+    public String getSeriesKey() {
+        return seriesKey;
+    }
+
+    public void setSeriesKey(String seriesKey) {
+        this.seriesKey = seriesKey;
+    }
+
+    @DynamoDBRangeKey(attributeName = TIMESTAMP_ATTRIBUTE)
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @DynamoDBAttribute(attributeName = METRIC_ATTRIBUTE)
+    public String getMetric() {
+        return metric;
+    }
+
+    public void setMetric(String metric) {
+        this.metric = metric;
+    }
+
+    @DynamoDBAttribute(attributeName = VALUE_ATTRIBUTE)
+    public Long getValue() {
+        return value;
+    }
+
+    public void setValue(Long value) {
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return "[HealthLogMeasurementItem seriesKey: " + seriesKey + "] timestamp: " + timestamp
+                + "] metric: " + metric + "] value: " + value + "]";
+    }
+}
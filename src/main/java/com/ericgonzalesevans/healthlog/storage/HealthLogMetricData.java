@@ -12,6 +12,7 @@ public class HealthLogMetricData {
     private List<String> users;
     private Map<String, Long> weights;
     private Map<String, Long> heights;
+    private Long startedAt;
 
     public HealthLogMetricData() {
         // public no-arg constructor required for DynamoDBMapper marshalling
@@ -31,6 +32,20 @@ public class HealthLogMetricData {
         return newInstance;
     }
 
+    /**
+     * Creates a new instance of {@link HealthLogMetricData} with no users or measurements, for a
+     * log started at the given time.
+     *
+     * @param startedAt
+     *            time the log is started, in milliseconds since the epoch
+     * @return
+     */
+    public static HealthLogMetricData newInstance(long startedAt) {
+        HealthLogMetricData newInstance = newInstance();
+        newInstance.setStartedAt(startedAt);
+        return newInstance;
+    }
+
     public List<String> getUsers() {
         return users;
     }
@@ -55,6 +70,21 @@ public class HealthLogMetricData {
         this.heights = heights;
     }
 
+    /**
+     * Returns the time the log was started or last reset, in milliseconds since the epoch, or
+     * null for logs stored before it was recorded. Measurements taken before it belong to an
+     * earlier log.
+     *
+     * @return
+     */
+    public Long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Long startedAt) {
+        this.startedAt = startedAt;
+    }
+
     @Override
     public String toString() {
         return "[HealthLogMetricData users: " + users + "] weights: " + weights + "] heights: " + heights + "]";
@@ -0,0 +1,312 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact, versioned binary encoding of {@link HealthLogMetricData}.
+ * <p>
+ * The layout is a format version byte and a flags byte, followed by the body. The body is a table
+ * of names (varint count, then varint length and UTF-8 bytes for each name), the number of leading
+ * names in that table that are users, and the weights and heights as varint counts of
+ * (varint name index, zig-zag varint value) pairs, and then the time the log was started as a
+ * varint, if it is known. Bodies larger than
+ * {@link #DEFLATE_THRESHOLD_BYTES} are deflated, in which case the flags byte has
+ * {@link #FLAG_DEFLATED} set and the uncompressed length precedes the compressed body.
+ * <p>
+ * Every length and count read while decoding is checked against the bytes left, so a truncated or
+ * corrupt value fails with an {@link IllegalStateException} rather than a huge allocation.
+ */
+public final class HealthLogMetricDataCodec {
+    /**
+     * Current version of the binary format.
+     */
+    private static final byte FORMAT_VERSION = 1;
+
+    /**
+     * Flag set when the body is deflated.
+     */
+    private static final byte FLAG_DEFLATED = 0x01;
+
+    /**
+     * Bodies at or below this size are stored as is, since deflate only pays off on larger logs.
+     */
+    private static final int DEFLATE_THRESHOLD_BYTES = 256;
+
+    /**
+     * Largest uncompressed body accepted when decoding, far above any real health log.
+     */
+    private static final int MAX_BODY_BYTES = 1 << 20;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private HealthLogMetricDataCodec() {
+    }
+
+    /**
+     * Encodes the metric data into the binary format.
+     *
+     * @param metricData
+     * @return
+     */
+    public static byte[] encode(HealthLogMetricData metricData) {
+        byte[] body = encodeBody(metricData);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + 8);
+        out.write(FORMAT_VERSION);
+        if (body.length > DEFLATE_THRESHOLD_BYTES) {
+            out.write(FLAG_DEFLATED);
+            writeVarint(out, body.length);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(body);
+                deflater.finish();
+                byte[] buffer = new byte[body.length];
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(buffer);
+                    out.write(buffer, 0, length);
+                }
+            } finally {
+                deflater.end();
+            }
+        } else {
+            out.write(0);
+            out.write(body, 0, body.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes metric data from the binary format. The buffer's position is left unchanged.
+     *
+     * @param encoded
+     * @return
+     */
+    public static HealthLogMetricData decode(ByteBuffer encoded) {
+        try {
+            return decodeChecked(encoded.duplicate());
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("Truncated metric data value", e);
+        }
+    }
+
+    private static HealthLogMetricData decodeChecked(ByteBuffer in) {
+        byte version = in.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported metric data format version " + version);
+        }
+
+        byte flags = in.get();
+        if ((flags & FLAG_DEFLATED) == 0) {
+            return decodeBody(in);
+        }
+
+        int bodyLength = readVarint(in);
+        if (bodyLength < 0 || bodyLength > MAX_BODY_BYTES) {
+            throw new IllegalStateException("Invalid metric data body length " + bodyLength);
+        }
+        byte[] compressed = new byte[in.remaining()];
+        in.get(compressed);
+        byte[] body = new byte[bodyLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int offset = 0;
+            while (offset < bodyLength && !inflater.finished()) {
+                int length = inflater.inflate(body, offset, bodyLength - offset);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated metric data value, inflated "
+                            + offset + " of " + bodyLength + " bytes");
+                }
+                offset += length;
+            }
+            if (offset != bodyLength) {
+                throw new IllegalStateException("Metric data value inflated to " + offset
+                        + " bytes, expected " + bodyLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Unable to inflate metric data value", e);
+        } finally {
+            inflater.end();
+        }
+        return decodeBody(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Decodes metric data stored by earlier versions of the skill as a JSON string.
+     *
+     * @param json
+     * @return
+     */
+    public static HealthLogMetricData decodeJson(String json) {
+        try {
+            return OBJECT_MAPPER.readValue(json, HealthLogMetricData.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to unmarshall metric data value", e);
+        }
+    }
+
+    private static byte[] encodeBody(HealthLogMetricData metricData) {
+        // Users come first in the name table, exactly as listed, so the user list can be rebuilt
+        // from a prefix of the table. Metric keys that are not users are appended, and values
+        // refer to the first occurrence of their key.
+        List<String> names = new ArrayList<String>();
+        Map<String, Integer> nameIndexes = new HashMap<String, Integer>();
+        List<String> users = metricData.getUsers();
+        if (users != null) {
+            for (String userName : users) {
+                addName(names, nameIndexes, userName);
+            }
+        }
+        int userCount = names.size();
+        addNames(names, nameIndexes, metricData.getWeights());
+        addNames(names, nameIndexes, metricData.getHeights());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeVarint(out, names.size());
+        for (String name : names) {
+            byte[] nameBytes = name.getBytes(UTF_8);
+            writeVarint(out, nameBytes.length);
+            out.write(nameBytes, 0, nameBytes.length);
+        }
+        writeVarint(out, userCount);
+        writeValues(out, nameIndexes, metricData.getWeights());
+        writeValues(out, nameIndexes, metricData.getHeights());
+        if (metricData.getStartedAt() != null) {
+            // trailing and optional, so that values without it still decode
+            writeVarLong(out, metricData.getStartedAt());
+        }
+        return out.toByteArray();
+    }
+
+    private static HealthLogMetricData decodeBody(ByteBuffer in) {
+        // every name takes at least its length byte
+        int nameCount = readLength(in, in.remaining());
+        String[] names = new String[nameCount];
+        for (int i = 0; i < nameCount; i++) {
+            byte[] nameBytes = new byte[readLength(in, in.remaining())];
+            in.get(nameBytes);
+            names[i] = new String(nameBytes, UTF_8);
+        }
+
+        int userCount = readLength(in, nameCount);
+        List<String> users = new ArrayList<String>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            users.add(names[i]);
+        }
+
+        HealthLogMetricData metricData = new HealthLogMetricData();
+        metricData.setUsers(users);
+        metricData.setWeights(readValues(in, names));
+        metricData.setHeights(readValues(in, names));
+        if (in.hasRemaining()) {
+            metricData.setStartedAt(readVarLong(in));
+        }
+        return metricData;
+    }
+
+    private static void addNames(List<String> names, Map<String, Integer> nameIndexes,
+            Map<String, Long> values) {
+        if (values == null) {
+            return;
+        }
+        for (String name : values.keySet()) {
+            if (!nameIndexes.containsKey(name)) {
+                addName(names, nameIndexes, name);
+            }
+        }
+    }
+
+    private static void addName(List<String> names, Map<String, Integer> nameIndexes,
+            String name) {
+        if (!nameIndexes.containsKey(name)) {
+            nameIndexes.put(name, names.size());
+        }
+        names.add(name);
+    }
+
+    private static void writeValues(ByteArrayOutputStream out, Map<String, Integer> nameIndexes,
+            Map<String, Long> values) {
+        if (values == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, values.size());
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            writeVarint(out, nameIndexes.get(entry.getKey()));
+            long value = entry.getValue() != null ? entry.getValue() : 0L;
+            writeVarLong(out, (value << 1) ^ (value >> 63));
+        }
+    }
+
+    private static Map<String, Long> readValues(ByteBuffer in, String[] names) {
+        // every value takes at least a name index byte and a value byte
+        int count = readLength(in, in.remaining() / 2);
+        Map<String, Long> values = new HashMap<String, Long>();
+        for (int i = 0; i < count; i++) {
+            int nameIndex = readVarint(in);
+            if (nameIndex < 0 || nameIndex >= names.length) {
+                throw new IllegalStateException("Invalid name index " + nameIndex
+                        + " in metric data value");
+            }
+            String name = names[nameIndex];
+            long zigZag = readVarLong(in);
+            values.put(name, (zigZag >>> 1) ^ -(zigZag & 1));
+        }
+        return values;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads a varint length or count and checks that it is no more than a maximum.
+     */
+    private static int readLength(ByteBuffer in, int max) {
+        int length = readVarint(in);
+        if (length < 0 || length > max) {
+            throw new IllegalStateException("Invalid length " + length
+                    + " in metric data value, at most " + max + " expected");
+        }
+        return length;
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        return (int) readVarLong(in);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint in metric data value");
+    }
+}
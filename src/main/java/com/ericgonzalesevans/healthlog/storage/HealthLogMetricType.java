@@ -0,0 +1,24 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+/**
+ * The kinds of measurement that can be recorded in the measurement history.
+ */
+public enum HealthLogMetricType {
+    WEIGHT("Weight"),
+    HEIGHT("Height");
+
+    private final String attributeValue;
+
+    HealthLogMetricType(String attributeValue) {
+        this.attributeValue = attributeValue;
+    }
+
+    /**
+     * Returns the value stored in the Metric attribute of a measurement item.
+     *
+     * @return the value stored in the Metric attribute of a measurement item
+     */
+    public String getAttributeValue() {
+        return attributeValue;
+    }
+}
@@ -14,6 +14,7 @@ import java.util.TreeMap;
 public final class HealthLogMetrics {
     private Session session;
     private HealthLogMetricData metricData;
+    private Long version;
 
     private HealthLogMetrics() {
     }
@@ -53,6 +54,14 @@ public final class HealthLogMetrics {
         this.metricData = metricData;
     }
 
+    protected Long getVersion() {
+        return version;
+    }
+
+    protected void setVersion(Long version) {
+        this.version = version;
+    }
+
     /**
      * Returns true if the log has any users, false otherwise.
      * 
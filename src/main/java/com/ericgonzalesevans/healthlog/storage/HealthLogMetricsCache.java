@@ -0,0 +1,168 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, in-process read-through cache of {@link HealthLogMetricData} keyed by the Alexa user
+ * id of the customer.
+ * <p>
+ * Entries are stored as snapshots encoded with {@link HealthLogMetricDataCodec} together with the
+ * item version they were read or written at, so callers always get their own copy to mutate and
+ * saves can be made conditional on that version. Entries expire after a configurable time to
+ * live, and the least recently used entry is evicted once the cache is full. The cache lives as
+ * long as the {@link HealthLogDao} that owns it, which in a warm Lambda container or servlet
+ * spans many requests.
+ */
+public class HealthLogMetricsCache {
+    /**
+     * Maximum number of customers kept in the cache.
+     */
+    public static final String MAX_ENTRIES_ENV = "HEALTHLOG_CACHE_MAX_ENTRIES";
+
+    /**
+     * Time to live of a cache entry in milliseconds. Zero or less disables the cache.
+     */
+    public static final String TTL_ENV = "HEALTHLOG_CACHE_TTL_MS";
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<String, Snapshot> snapshots;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public HealthLogMetricsCache(final int maxEntries, final long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.snapshots = new LinkedHashMap<String, Snapshot>(16, 0.75f, true) {
+            private static final long serialVersionUID = -2166742938470384396L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+                if (size() > HealthLogMetricsCache.this.maxEntries) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Creates a cache sized by {@link #MAX_ENTRIES_ENV} and {@link #TTL_ENV}, defaulting to 1000
+     * customers for 60 seconds.
+     *
+     * @return a cache configured from the environment
+     */
+    public static HealthLogMetricsCache fromEnvironment() {
+        return new HealthLogMetricsCache(EnvironmentSettings.getInt(MAX_ENTRIES_ENV, 1000),
+                EnvironmentSettings.getLong(TTL_ENV, 60000L));
+    }
+
+    /**
+     * Returns a copy of the cached metric data for a customer, or null on a miss or if the entry
+     * has expired.
+     *
+     * @param customerId
+     * @return
+     */
+    public Snapshot get(String customerId) {
+        Snapshot snapshot;
+        synchronized (snapshots) {
+            snapshot = snapshots.get(customerId);
+            if (snapshot != null && snapshot.isExpired(ttlMillis)) {
+                snapshots.remove(customerId);
+                snapshot = null;
+            }
+        }
+
+        if (snapshot == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return snapshot;
+    }
+
+    /**
+     * Stores a snapshot of the metric data for a customer at the given item version.
+     *
+     * @param customerId
+     * @param metricData
+     * @param version
+     */
+    public void put(String customerId, HealthLogMetricData metricData, Long version) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        Snapshot snapshot = new Snapshot(HealthLogMetricDataCodec.encode(metricData), version);
+        synchronized (snapshots) {
+            snapshots.put(customerId, snapshot);
+        }
+    }
+
+    /**
+     * Removes the entry for a customer, for instance after a conditional write found it stale.
+     *
+     * @param customerId
+     */
+    public void invalidate(String customerId) {
+        synchronized (snapshots) {
+            snapshots.remove(customerId);
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[HealthLogMetricsCache hits: " + hitCount + ", misses: " + missCount
+                + ", evictions: " + evictionCount + "]";
+    }
+
+    /**
+     * An immutable, encoded copy of a customer's metric data and the item version it matches.
+     */
+    public static final class Snapshot {
+        private final byte[] encodedMetricData;
+        private final Long version;
+        private final long createdAt;
+
+        private Snapshot(byte[] encodedMetricData, Long version) {
+            this.encodedMetricData = encodedMetricData;
+            this.version = version;
+            this.createdAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns a new, mutable copy of the cached metric data.
+         *
+         * @return a copy of the cached metric data
+         */
+        public HealthLogMetricData getMetricData() {
+            return HealthLogMetricDataCodec.decode(ByteBuffer.wrap(encodedMetricData));
+        }
+
+        public Long getVersion() {
+            return version;
+        }
+
+        private boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - createdAt >= ttlMillis;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+/**
+ * A change to a customer's {@link HealthLogMetrics}, applied by
+ * {@link HealthLogDao#updateHealthLogMetrics(com.amazon.speech.speechlet.Session, HealthLogMetricsMutation)}.
+ * <p>
+ * If a concurrent write wins the race, the DAO reloads the metrics and applies the mutation
+ * again, so implementations must only depend on the metrics they are given.
+ */
+public interface HealthLogMetricsMutation {
+    /**
+     * Applies the change to the metrics.
+     *
+     * @param metrics
+     *            the latest metrics of the customer, or a new empty log if there are none yet
+     * @return true if the metrics changed and must be saved, false otherwise
+     */
+    boolean apply(HealthLogMetrics metrics);
+}
@@ -0,0 +1,82 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import com.amazon.speech.speechlet.Session;
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps a copy of a customer's {@link HealthLogMetricData} in the attributes of an Alexa session,
+ * so that later turns of the same dialog can be answered without loading the summary item again.
+ * <p>
+ * The copy is a single string attribute holding the item version, the time the copy was taken
+ * and the {@link HealthLogMetricDataCodec} encoding of the data in Base64, which survives the
+ * round trip through the request and response JSON. Copies older than a maximum age are ignored.
+ */
+public final class HealthLogSessionSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(HealthLogSessionSnapshot.class);
+
+    /**
+     * Name of the session attribute holding the copy.
+     */
+    public static final String ATTRIBUTE = "healthLogMetrics";
+
+    private static final String FORMAT_PREFIX = "1:";
+
+    private HealthLogSessionSnapshot() {
+    }
+
+    /**
+     * Returns the metrics copied into the session, or null if there is no copy or it is older
+     * than the given age.
+     *
+     * @param session
+     * @param maxAgeMillis
+     * @return the copied metrics, with the version they were copied at
+     */
+    static HealthLogMetrics get(Session session, long maxAgeMillis) {
+        Object value = session.getAttribute(ATTRIBUTE);
+        if (!(value instanceof String) || !((String) value).startsWith(FORMAT_PREFIX)) {
+            return null;
+        }
+        String[] fields = ((String) value).substring(FORMAT_PREFIX.length()).split(":", 3);
+        try {
+            long copiedAt = Long.parseLong(fields[1]);
+            if (System.currentTimeMillis() - copiedAt >= maxAgeMillis) {
+                return null;
+            }
+            HealthLogMetrics metrics = HealthLogMetrics.newInstance(session,
+                    HealthLogMetricDataCodec.decode(ByteBuffer.wrap(Base64.decodeBase64(fields[2]))));
+            metrics.setVersion(fields[0].isEmpty() ? null : Long.valueOf(fields[0]));
+            return metrics;
+        } catch (RuntimeException e) {
+            log.warn("Ignoring malformed {} session attribute", ATTRIBUTE, e);
+            session.removeAttribute(ATTRIBUTE);
+            return null;
+        }
+    }
+
+    /**
+     * Copies metric data and the item version it matches into the session.
+     *
+     * @param session
+     * @param metricData
+     * @param version
+     */
+    static void put(Session session, HealthLogMetricData metricData, Long version) {
+        session.setAttribute(ATTRIBUTE, FORMAT_PREFIX + (version != null ? version : "") + ":"
+                + System.currentTimeMillis() + ":"
+                + Base64.encodeBase64String(HealthLogMetricDataCodec.encode(metricData)));
+    }
+
+    /**
+     * Removes the copy from the session.
+     *
+     * @param session
+     */
+    static void remove(Session session) {
+        session.removeAttribute(ATTRIBUTE);
+    }
+}
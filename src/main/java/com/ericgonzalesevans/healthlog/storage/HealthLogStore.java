@@ -0,0 +1,110 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Storage backend behind {@link HealthLogDao}. Implementations keep the per-customer summary
+ * items and the measurement history, and must make every write conditional on the item version
+ * as described on each method, raising {@link HealthLogVersionConflictException} when it does not
+ * match. Implementations must be safe for concurrent use.
+ *
+ * @see HealthLogStores#fromEnvironment()
+ */
+public interface HealthLogStore {
+    /**
+     * Loads a summary item by customer id. Callers of this method should pass in an object with
+     * the customer id populated.
+     *
+     * @param tableItem
+     * @return the stored item, or null if there is none
+     */
+    HealthLogUserDataItem loadItem(HealthLogUserDataItem tableItem);
+
+    /**
+     * Stores a summary item if the stored item is still at the version of the given item (or does
+     * not exist, if the given item has no version), and stamps the new version on the given
+     * item.
+     *
+     * @param tableItem
+     * @throws HealthLogVersionConflictException
+     *             if the stored item is at a different version
+     */
+    void saveItem(HealthLogUserDataItem tableItem);
+
+    /**
+     * Sets the latest value of a metric for a user and increments the item version, if the
+     * customer's log exists and contains the user, and then stores the value as a measurement
+     * taken at the given time, as {@link #saveMeasurementItem(HealthLogMeasurementItem)} does.
+     * Local stores make both durable together.
+     *
+     * @param customerId
+     * @param userName
+     *            Name of the user
+     * @param metricType
+     *            the kind of measurement
+     * @param value
+     *            the new value
+     * @param timestamp
+     *            time the value was measured, in milliseconds since the epoch
+     * @return the updated item, or null if the log does not exist or the user is not in it, in
+     *         which case nothing is written
+     */
+    HealthLogUserDataItem updateMetricValue(String customerId, String userName,
+            HealthLogMetricType metricType, long value, long timestamp);
+
+    /**
+     * Replaces the metric data of a customer with an empty log started at the given time, if the
+     * stored item is still at the expected version. The measurement history is kept, and
+     * measurements taken before the new log started are left out of it by
+     * {@link HealthLogDao}.
+     *
+     * @param customerId
+     * @param userNames
+     *            the users currently in the log
+     * @param expectedVersion
+     *            the version the item was read at
+     * @param timestamp
+     *            time the new log is started, in milliseconds since the epoch
+     * @return the new version of the item
+     * @throws HealthLogVersionConflictException
+     *             if the stored item is at a different version
+     */
+    Long clearItem(String customerId, Collection<String> userNames, Long expectedVersion,
+            long timestamp);
+
+    /**
+     * Stores a single measurement item. If its series already has a measurement at its
+     * timestamp, it is stored at the next free millisecond instead and its timestamp is updated,
+     * so measurements taken in the same millisecond do not replace each other.
+     *
+     * @param measurementItem
+     */
+    void saveMeasurementItem(HealthLogMeasurementItem measurementItem);
+
+    /**
+     * Returns the most recent measurement items of a series, newest first.
+     *
+     * @param seriesKey
+     *            hash key of the series, see {@link HealthLogMeasurementItem#newSeriesKey}
+     * @param limit
+     *            maximum number of items to return
+     * @return
+     */
+    List<HealthLogMeasurementItem> queryLatestMeasurementItems(String seriesKey, int limit);
+
+    /**
+     * Returns the measurement items of a series taken between two timestamps (inclusive), newest
+     * first.
+     *
+     * @param seriesKey
+     *            hash key of the series, see {@link HealthLogMeasurementItem#newSeriesKey}
+     * @param fromTimestamp
+     *            start of the range, in milliseconds since the epoch
+     * @param toTimestamp
+     *            end of the range, in milliseconds since the epoch
+     * @return
+     */
+    List<HealthLogMeasurementItem> queryMeasurementItemsBetween(String seriesKey,
+            long fromTimestamp, long toTimestamp);
+}
@@ -0,0 +1,70 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import java.io.File;
+
+/**
+ * Creates the {@link HealthLogStore} selected by the environment.
+ */
+public final class HealthLogStores {
+    /**
+     * The store to use, one of {@link Type}. Defaults to {@link Type#DYNAMODB}.
+     */
+    public static final String STORE_ENV = "HEALTHLOG_STORE";
+
+    /**
+     * Directory of the {@link Type#FILE} and {@link Type#LOG} stores.
+     */
+    public static final String STORE_DIRECTORY_ENV = "HEALTHLOG_STORE_DIRECTORY";
+
+    /**
+     * The available store implementations.
+     */
+    public enum Type {
+        /**
+         * {@link HealthLogDynamoDbClient}, configured by {@link HealthLogDynamoDbConfig}.
+         */
+        DYNAMODB,
+
+        /**
+         * {@link InMemoryHealthLogStore}, for load tests and benchmarks.
+         */
+        MEMORY,
+
+        /**
+         * {@link LocalFileHealthLogStore} under {@link #STORE_DIRECTORY_ENV}.
+         */
+        FILE,
+
+        /**
+         * {@link SegmentLogHealthLogStore} under {@link #STORE_DIRECTORY_ENV}, configured by
+         * {@link SegmentLogConfig}.
+         */
+        LOG
+    }
+
+    private HealthLogStores() {
+    }
+
+    /**
+     * Creates the store selected by {@link #STORE_ENV}.
+     *
+     * @return a new store
+     */
+    public static HealthLogStore fromEnvironment() {
+        Type type = EnvironmentSettings.getEnum(STORE_ENV, Type.class, Type.DYNAMODB);
+        switch (type) {
+            case MEMORY:
+                return new InMemoryHealthLogStore();
+            case FILE:
+                return new LocalFileHealthLogStore(new File(EnvironmentSettings.getString(
+                        STORE_DIRECTORY_ENV, "healthlog-data")));
+            case LOG:
+                return SegmentLogHealthLogStore.fromEnvironment(new File(EnvironmentSettings
+                        .getString(STORE_DIRECTORY_ENV, "healthlog-data")));
+            default:
+                HealthLogDynamoDbConfig dynamoDbConfig = HealthLogDynamoDbConfig.fromEnvironment();
+                return new HealthLogDynamoDbClient(dynamoDbConfig.newAmazonDynamoDBClient(),
+                        dynamoDbConfig.newMapperConfig());
+        }
+    }
+}
@@ -1,23 +1,54 @@
 package com.ericgonzalesevans.healthlog.storage;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.*;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Model representing an item of the HealthLogUserData table in DynamoDB for the HealthLog
  * skill.
+ * <p>
+ * This item is the per-customer summary: the users in the log and the latest value of each
+ * metric. The full history of values lives in {@link HealthLogMeasurementItem}.
+ * <p>
+ * The metric data is stored as a Binary attribute encoded by {@link HealthLogMetricDataCodec}.
+ * Items written by earlier versions hold it as a JSON string in the Data attribute; those are
+ * read transparently and converted to the binary attribute on their next save.
+ * <p>
+ * The latest metric values are kept in per-user attributes such as {@code Weight:Bob}, see
+ * {@link #getMetricValueAttributeName(HealthLogMetricType, String)}, so that one value can be
+ * written without rewriting the binary attribute. Those attributes are the only place the store
+ * writes values to: a full save writes the users to the binary attribute and sets or removes the
+ * value attribute of every user in the same conditional write, and single value updates only
+ * write the value attribute. They are folded into the metric data when the item is loaded; values
+ * in the binary attribute, written before the per-user attributes existed, are only used for
+ * users without one. The UserNames attribute mirrors the user list so single value updates can
+ * check that the user exists.
  */
-@DynamoDBTable(tableName = "HealthLogUserData")
+@DynamoDBTable(tableName = HealthLogUserDataItem.TABLE_NAME)
 public class HealthLogUserDataItem {
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    public static final String TABLE_NAME = "HealthLogUserData";
+
+    static final String CUSTOMER_ID_ATTRIBUTE = "CustomerId";
+    static final String VERSION_ATTRIBUTE = "Version";
+    static final String ENCODED_METRIC_DATA_ATTRIBUTE = "BinaryData";
+    static final String LEGACY_METRIC_DATA_ATTRIBUTE = "Data";
+    static final String USER_NAMES_ATTRIBUTE = "UserNames";
+
+    /**
+     * Separator between the metric and the user name in per-user metric value attributes.
+     */
+    private static final String METRIC_VALUE_SEPARATOR = ":";
 
     private String customerId;
 
     private HealthLogMetricData metricData;
 
-    @DynamoDBHashKey(attributeName = "CustomerId")
+    private Long version;
+
+    @DynamoDBHashKey(attributeName = CUSTOMER_ID_ATTRIBUTE)
     public String getCustomerId() {
         return customerId;
     }
@@ -26,8 +57,22 @@ public class HealthLogUserDataItem {
         this.customerId = customerId;
     }
 
-    @DynamoDBAttribute(attributeName = "Data")
-    @DynamoDBMarshalling(marshallerClass = HealthLoggerMetricDataMarshaller.class)
+    /**
+     * Returns the item version. Every save increments it and is rejected if the stored version no
+     * longer matches.
+     *
+     * @return the item version, or null if the item has never been saved
+     */
+    @DynamoDBVersionAttribute(attributeName = VERSION_ATTRIBUTE)
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    @DynamoDBIgnore
     public HealthLogMetricData getMetricData() {
         return metricData;
     }
@@ -36,30 +81,86 @@ public class HealthLogUserDataItem {
         this.metricData = metricData;
     }
 
+    @DynamoDBAttribute(attributeName = ENCODED_METRIC_DATA_ATTRIBUTE)
+    public ByteBuffer getEncodedMetricData() {
+        return metricData != null ? ByteBuffer.wrap(HealthLogMetricDataCodec.encode(metricData))
+                : null;
+    }
+
+    public void setEncodedMetricData(ByteBuffer encodedMetricData) {
+        if (encodedMetricData != null) {
+            metricData = HealthLogMetricDataCodec.decode(encodedMetricData);
+        }
+    }
+
     /**
-     * A {@link DynamoDBMarshaller} that provides marshalling and unmarshalling logic for
-     * {@link HealthLogMetricData} values so that they can be persisted in the database as String.
+     * Returns the set of user names in the metric data, or null if there are none since DynamoDB
+     * does not store empty sets.
+     *
+     * @return the set of user names
      */
-    public static class HealthLoggerMetricDataMarshaller implements
-            DynamoDBMarshaller<HealthLogMetricData> {
-
-        @Override
-        public String marshall(HealthLogMetricData metricData) {
-            try {
-                return OBJECT_MAPPER.writeValueAsString(metricData);
-            } catch (JsonProcessingException e) {
-                throw new IllegalStateException("Unable to marshall metric data", e);
-            }
+    @DynamoDBAttribute(attributeName = USER_NAMES_ATTRIBUTE)
+    public Set<String> getUserNames() {
+        if (metricData == null || metricData.getUsers() == null
+                || metricData.getUsers().isEmpty()) {
+            return null;
         }
+        return new HashSet<String>(metricData.getUsers());
+    }
+
+    public void setUserNames(Set<String> userNames) {
+        // derived from the metric data
+    }
+
+    /**
+     * Returns the name of the attribute holding the latest value of a metric for a user.
+     *
+     * @param metricType
+     *            the kind of measurement
+     * @param userName
+     *            Name of the user
+     * @return the name of the per-user metric value attribute
+     */
+    public static String getMetricValueAttributeName(HealthLogMetricType metricType,
+            String userName) {
+        return metricType.getAttributeValue() + METRIC_VALUE_SEPARATOR + userName;
+    }
+
+    /**
+     * Folds a per-user metric value attribute into the metric data. Attributes that are not
+     * per-user metric values are ignored.
+     *
+     * @param attributeName
+     * @param value
+     */
+    void applyMetricValueAttribute(String attributeName, long value) {
+        int separator = attributeName.indexOf(METRIC_VALUE_SEPARATOR);
+        if (separator < 0 || metricData == null) {
+            return;
+        }
+        String metric = attributeName.substring(0, separator);
+        String userName = attributeName.substring(separator + 1);
+        if (HealthLogMetricType.WEIGHT.getAttributeValue().equals(metric)) {
+            metricData.getWeights().put(userName, value);
+        } else if (HealthLogMetricType.HEIGHT.getAttributeValue().equals(metric)) {
+            metricData.getHeights().put(userName, value);
+        }
+    }
+
+    /**
+     * Returns null so that the legacy JSON attribute is removed whenever the item is saved.
+     *
+     * @return null
+     */
+    @DynamoDBAttribute(attributeName = LEGACY_METRIC_DATA_ATTRIBUTE)
+    public String getLegacyMetricData() {
+        return null;
+    }
 
-        @Override
-        public HealthLogMetricData unmarshall(Class<HealthLogMetricData> clazz, String value) {
-            try {
-                return OBJECT_MAPPER.readValue(value, new TypeReference<HealthLogMetricData>() {
-                });
-            } catch (Exception e) {
-                throw new IllegalStateException("Unable to unmarshall metric data value", e);
-            }
+    public void setLegacyMetricData(String legacyMetricData) {
+        // the binary attribute wins if an item somehow carries both
+        if (legacyMetricData != null && metricData == null) {
+            metricData = HealthLogMetricDataCodec.decodeJson(legacyMetricData);
         }
     }
 }
@@ -0,0 +1,17 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+/**
+ * Thrown by a {@link HealthLogStore} when a conditional write finds the stored item at a
+ * different version than the one it was based on, because another request changed it first.
+ */
+public class HealthLogVersionConflictException extends RuntimeException {
+    private static final long serialVersionUID = -4473563357823408745L;
+
+    public HealthLogVersionConflictException(final String message) {
+        super(message);
+    }
+
+    public HealthLogVersionConflictException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,58 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * {@link HealthLogStore} that keeps everything in memory. Data lives as long as the store
+ * instance, which makes it suited to load tests and benchmarks of the skill without a network,
+ * not to production use.
+ */
+public class InMemoryHealthLogStore extends LockStripedHealthLogStore {
+    private final ConcurrentMap<String, StoredSummary> summaries =
+            new ConcurrentHashMap<String, StoredSummary>();
+
+    private final ConcurrentMap<String, ConcurrentSkipListMap<Long, HealthLogMeasurementItem>> measurements =
+            new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, HealthLogMeasurementItem>>();
+
+    @Override
+    protected StoredSummary readSummary(String customerId) {
+        return summaries.get(customerId);
+    }
+
+    @Override
+    protected void writeSummary(String customerId, StoredSummary summary) {
+        summaries.put(customerId, summary);
+    }
+
+    @Override
+    protected void writeMeasurement(HealthLogMeasurementItem measurementItem) {
+        ConcurrentSkipListMap<Long, HealthLogMeasurementItem> seriesMeasurements =
+                measurements.get(measurementItem.getSeriesKey());
+        if (seriesMeasurements == null) {
+            seriesMeasurements = new ConcurrentSkipListMap<Long, HealthLogMeasurementItem>();
+            measurements.put(measurementItem.getSeriesKey(), seriesMeasurements);
+        }
+        seriesMeasurements.put(measurementItem.getTimestamp(), measurementItem);
+    }
+
+    @Override
+    protected boolean containsMeasurement(String seriesKey, long timestamp) {
+        ConcurrentSkipListMap<Long, HealthLogMeasurementItem> seriesMeasurements =
+                measurements.get(seriesKey);
+        return seriesMeasurements != null && seriesMeasurements.containsKey(timestamp);
+    }
+
+    @Override
+    protected Collection<HealthLogMeasurementItem> readMeasurements(String seriesKey) {
+        ConcurrentSkipListMap<Long, HealthLogMeasurementItem> seriesMeasurements =
+                measurements.get(seriesKey);
+        if (seriesMeasurements == null) {
+            return Collections.emptyList();
+        }
+        return seriesMeasurements.values();
+    }
+}
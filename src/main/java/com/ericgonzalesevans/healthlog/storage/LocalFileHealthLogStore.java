@@ -0,0 +1,131 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.TreeMap;
+
+/**
+ * {@link HealthLogStore} that keeps its data in files under a local directory, for self-hosted
+ * deployments without DynamoDB.
+ * <p>
+ * Each customer's summary is a file holding the item version and the
+ * {@link HealthLogMetricDataCodec} encoding of its metric data, replaced atomically on every
+ * write. The measurements of each user and metric are records appended to a log file. Both are
+ * forced to disk before a write returns. File names are SHA-256 digests of the keys, since Alexa
+ * user ids are too long for most file systems.
+ */
+public class LocalFileHealthLogStore extends LockStripedHealthLogStore {
+    private final File summaryDirectory;
+    private final File measurementDirectory;
+
+    public LocalFileHealthLogStore(final File directory) {
+        this.summaryDirectory = new File(directory, "summaries");
+        this.measurementDirectory = new File(directory, "measurements");
+        if (!summaryDirectory.isDirectory() && !summaryDirectory.mkdirs()
+                || !measurementDirectory.isDirectory() && !measurementDirectory.mkdirs()) {
+            throw new IllegalStateException("Unable to create store directory " + directory);
+        }
+    }
+
+    @Override
+    protected StoredSummary readSummary(String customerId) {
+        File file = new File(summaryDirectory, fileNameFor(customerId));
+        try {
+            // read the file in one go, since a concurrent write may replace it at any time
+            ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            long version = contents.getLong();
+            byte[] encodedMetricData = new byte[contents.remaining()];
+            contents.get(encodedMetricData);
+            return new StoredSummary(encodedMetricData, version);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read summary file " + file, e);
+        }
+    }
+
+    @Override
+    protected void writeSummary(String customerId, StoredSummary summary) {
+        String fileName = fileNameFor(customerId);
+        File file = new File(summaryDirectory, fileName);
+        File tempFile = new File(summaryDirectory, fileName + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                DataOutputStream dataOut = new DataOutputStream(out);
+                dataOut.writeLong(summary.getVersion());
+                dataOut.write(summary.getEncodedMetricData());
+                dataOut.flush();
+                out.getChannel().force(true);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write summary file " + file, e);
+        }
+    }
+
+    @Override
+    protected void writeMeasurement(HealthLogMeasurementItem measurementItem) {
+        File file = new File(measurementDirectory, fileNameFor(measurementItem.getSeriesKey()));
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream(32);
+            DataOutputStream dataOut = new DataOutputStream(record);
+            dataOut.writeLong(measurementItem.getTimestamp());
+            dataOut.writeUTF(measurementItem.getMetric());
+            dataOut.writeLong(measurementItem.getValue());
+
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                record.writeTo(out);
+                out.getChannel().force(true);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to append to measurement file " + file, e);
+        }
+    }
+
+    @Override
+    protected Collection<HealthLogMeasurementItem> readMeasurements(String seriesKey) {
+        File file = new File(measurementDirectory, fileNameFor(seriesKey));
+        // later records replace earlier ones with the same timestamp
+        TreeMap<Long, HealthLogMeasurementItem> items =
+                new TreeMap<Long, HealthLogMeasurementItem>();
+        try (InputStream fileIn = new BufferedInputStream(new FileInputStream(file))) {
+            DataInputStream in = new DataInputStream(fileIn);
+            while (true) {
+                HealthLogMeasurementItem item = new HealthLogMeasurementItem();
+                item.setSeriesKey(seriesKey);
+                item.setTimestamp(in.readLong());
+                item.setMetric(in.readUTF());
+                item.setValue(in.readLong());
+                items.put(item.getTimestamp(), item);
+            }
+        } catch (FileNotFoundException e) {
+            // no measurements yet
+        } catch (EOFException e) {
+            // end of the log, or a record torn by a crash during an append
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read measurement file " + file, e);
+        }
+        return items.values();
+    }
+
+    private static String fileNameFor(String key) {
+        return DigestUtils.sha256Hex(key);
+    }
+}
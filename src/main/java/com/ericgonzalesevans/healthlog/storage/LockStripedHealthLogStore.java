@@ -0,0 +1,336 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Base class for {@link HealthLogStore}s that keep their data on the local host. It implements
+ * the conditional write semantics of the store on top of plain reads and writes of encoded
+ * summaries and measurement items, serializing writes to the same key with a fixed set of lock
+ * stripes so that writes to different customers rarely contend. Stores that make writes durable
+ * in the background wait for them in {@link #awaitWrites()}, once the stripes are released.
+ * <p>
+ * The stripes are {@link ReentrantLock}s rather than monitors: writes do file I/O while holding
+ * them, and a virtual thread blocked inside a monitor pins its carrier thread.
+ */
+abstract class LockStripedHealthLogStore implements HealthLogStore {
+    private static final int LOCK_STRIPES = 64;
+
+    private static final Comparator<HealthLogMeasurementItem> NEWEST_FIRST =
+            new Comparator<HealthLogMeasurementItem>() {
+                @Override
+                public int compare(HealthLogMeasurementItem a, HealthLogMeasurementItem b) {
+                    return b.getTimestamp().compareTo(a.getTimestamp());
+                }
+            };
+
+    private final ReentrantLock[] locks;
+
+    protected LockStripedHealthLogStore() {
+        locks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the stored summary of a customer, or null if there is none.
+     *
+     * @param customerId
+     * @return
+     */
+    protected abstract StoredSummary readSummary(String customerId);
+
+    /**
+     * Replaces the stored summary of a customer. Called with the customer's lock stripe held.
+     *
+     * @param customerId
+     * @param summary
+     */
+    protected abstract void writeSummary(String customerId, StoredSummary summary);
+
+    /**
+     * Stores a measurement item, replacing any item of the same series key and timestamp. Called
+     * with the series key's lock stripe held.
+     *
+     * @param measurementItem
+     */
+    protected abstract void writeMeasurement(HealthLogMeasurementItem measurementItem);
+
+    /**
+     * Returns the stored measurement items of a series key, in any order and with at most one item
+     * per timestamp.
+     *
+     * @param seriesKey
+     * @return
+     */
+    protected abstract Collection<HealthLogMeasurementItem> readMeasurements(String seriesKey);
+
+    /**
+     * Returns the stored measurement items of a series key taken between two timestamps
+     * (inclusive), in any order. Stores with an index by timestamp should override the default,
+     * which reads all measurements of the series.
+     *
+     * @param seriesKey
+     * @param fromTimestamp
+     * @param toTimestamp
+     * @return
+     */
+    protected Collection<HealthLogMeasurementItem> readMeasurementsBetween(String seriesKey,
+            long fromTimestamp, long toTimestamp) {
+        List<HealthLogMeasurementItem> items = new ArrayList<HealthLogMeasurementItem>();
+        for (HealthLogMeasurementItem item : readMeasurements(seriesKey)) {
+            if (item.getTimestamp() >= fromTimestamp && item.getTimestamp() <= toTimestamp) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Returns true if a series has a stored measurement item at a timestamp. Called with the
+     * series key's lock stripe held. Stores with an index by timestamp should override the
+     * default, which reads all measurements of the series.
+     *
+     * @param seriesKey
+     * @param timestamp
+     * @return
+     */
+    protected boolean containsMeasurement(String seriesKey, long timestamp) {
+        for (HealthLogMeasurementItem item : readMeasurements(seriesKey)) {
+            if (item.getTimestamp() == timestamp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits until the writes this thread made are durable. Called with no lock stripe held, after
+     * every write operation of the store. The default does nothing, for stores whose writes are
+     * durable when they return.
+     */
+    protected void awaitWrites() {
+    }
+
+    @Override
+    public HealthLogUserDataItem loadItem(HealthLogUserDataItem tableItem) {
+        StoredSummary summary = readSummary(tableItem.getCustomerId());
+        if (summary == null) {
+            return null;
+        }
+        return summary.toItem(tableItem.getCustomerId());
+    }
+
+    @Override
+    public void saveItem(HealthLogUserDataItem tableItem) {
+        String customerId = tableItem.getCustomerId();
+        ReentrantLock lock = lockFor(customerId);
+        lock.lock();
+        try {
+            StoredSummary summary = readSummary(customerId);
+            checkVersion(summary, tableItem.getVersion());
+
+            Long newVersion = nextVersion(tableItem.getVersion());
+            writeSummary(customerId, new StoredSummary(
+                    HealthLogMetricDataCodec.encode(tableItem.getMetricData()), newVersion));
+            tableItem.setVersion(newVersion);
+        } finally {
+            lock.unlock();
+        }
+        awaitWrites();
+    }
+
+    @Override
+    public HealthLogUserDataItem updateMetricValue(String customerId, String userName,
+            HealthLogMetricType metricType, long value, long timestamp) {
+        HealthLogUserDataItem item = updateSummaryValue(customerId, userName, metricType, value);
+        if (item != null) {
+            // not under the customer's stripe, since taking a second stripe could deadlock
+            writeMeasurementAtFreeTimestamp(HealthLogMeasurementItem.newInstance(customerId,
+                    userName, metricType, value, timestamp));
+            // one wait for both records
+            awaitWrites();
+        }
+        return item;
+    }
+
+    private HealthLogUserDataItem updateSummaryValue(String customerId, String userName,
+            HealthLogMetricType metricType, long value) {
+        ReentrantLock lock = lockFor(customerId);
+        lock.lock();
+        try {
+            StoredSummary summary = readSummary(customerId);
+            if (summary == null) {
+                return null;
+            }
+
+            HealthLogUserDataItem item = summary.toItem(customerId);
+            HealthLogMetricData metricData = item.getMetricData();
+            if (!metricData.getUsers().contains(userName)) {
+                return null;
+            }
+            if (metricType == HealthLogMetricType.WEIGHT) {
+                metricData.getWeights().put(userName, value);
+            } else {
+                metricData.getHeights().put(userName, value);
+            }
+
+            item.setVersion(nextVersion(summary.getVersion()));
+            writeSummary(customerId, new StoredSummary(
+                    HealthLogMetricDataCodec.encode(metricData), item.getVersion()));
+            return item;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Long clearItem(String customerId, Collection<String> userNames, Long expectedVersion,
+            long timestamp) {
+        Long newVersion = nextVersion(expectedVersion);
+        ReentrantLock lock = lockFor(customerId);
+        lock.lock();
+        try {
+            StoredSummary summary = readSummary(customerId);
+            checkVersion(summary, expectedVersion);
+
+            writeSummary(customerId, new StoredSummary(
+                    HealthLogMetricDataCodec.encode(HealthLogMetricData.newInstance(timestamp)),
+                    newVersion));
+        } finally {
+            lock.unlock();
+        }
+        awaitWrites();
+        return newVersion;
+    }
+
+    @Override
+    public void saveMeasurementItem(HealthLogMeasurementItem measurementItem) {
+        writeMeasurementAtFreeTimestamp(measurementItem);
+        awaitWrites();
+    }
+
+    private void writeMeasurementAtFreeTimestamp(HealthLogMeasurementItem measurementItem) {
+        ReentrantLock lock = lockFor(measurementItem.getSeriesKey());
+        lock.lock();
+        try {
+            while (containsMeasurement(measurementItem.getSeriesKey(),
+                    measurementItem.getTimestamp())) {
+                measurementItem.setTimestamp(measurementItem.getTimestamp() + 1);
+            }
+            writeMeasurement(copyOf(measurementItem));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<HealthLogMeasurementItem> queryLatestMeasurementItems(String seriesKey,
+            int limit) {
+        List<HealthLogMeasurementItem> items = newestFirst(readMeasurements(seriesKey));
+        return items.size() > limit ? new ArrayList<HealthLogMeasurementItem>(items.subList(0,
+                limit)) : items;
+    }
+
+    @Override
+    public List<HealthLogMeasurementItem> queryMeasurementItemsBetween(String seriesKey,
+            long fromTimestamp, long toTimestamp) {
+        return newestFirst(readMeasurementsBetween(seriesKey, fromTimestamp, toTimestamp));
+    }
+
+    private static List<HealthLogMeasurementItem> newestFirst(
+            Collection<HealthLogMeasurementItem> storedItems) {
+        List<HealthLogMeasurementItem> items = new ArrayList<HealthLogMeasurementItem>();
+        for (HealthLogMeasurementItem item : storedItems) {
+            items.add(copyOf(item));
+        }
+        Collections.sort(items, NEWEST_FIRST);
+        return items;
+    }
+
+    /**
+     * Runs an action with all lock stripes held, when no write is in progress.
+     *
+     * @param action
+     */
+    protected void withAllLocks(Runnable action) {
+        withLocksFrom(0, action);
+    }
+
+    private void withLocksFrom(int stripe, Runnable action) {
+        if (stripe == LOCK_STRIPES) {
+            action.run();
+            return;
+        }
+        ReentrantLock lock = locks[stripe];
+        lock.lock();
+        try {
+            withLocksFrom(stripe + 1, action);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock lockFor(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return locks[(hash & 0x7FFFFFFF) % LOCK_STRIPES];
+    }
+
+    private static void checkVersion(StoredSummary summary, Long expectedVersion) {
+        Long storedVersion = summary != null ? summary.getVersion() : null;
+        if (storedVersion == null ? expectedVersion != null
+                : !storedVersion.equals(expectedVersion)) {
+            throw new HealthLogVersionConflictException("Summary item is at version "
+                    + storedVersion + ", expected " + expectedVersion);
+        }
+    }
+
+    private static Long nextVersion(Long version) {
+        return version == null ? 1L : version + 1;
+    }
+
+    static HealthLogMeasurementItem copyOf(HealthLogMeasurementItem item) {
+        HealthLogMeasurementItem copy = new HealthLogMeasurementItem();
+        copy.setSeriesKey(item.getSeriesKey());
+        copy.setTimestamp(item.getTimestamp());
+        copy.setMetric(item.getMetric());
+        copy.setValue(item.getValue());
+        return copy;
+    }
+
+    /**
+     * An immutable, encoded summary item as kept by a local store.
+     */
+    static final class StoredSummary {
+        private final byte[] encodedMetricData;
+        private final Long version;
+
+        StoredSummary(byte[] encodedMetricData, Long version) {
+            this.encodedMetricData = encodedMetricData;
+            this.version = version;
+        }
+
+        byte[] getEncodedMetricData() {
+            return encodedMetricData;
+        }
+
+        Long getVersion() {
+            return version;
+        }
+
+        HealthLogUserDataItem toItem(String customerId) {
+            HealthLogUserDataItem item = new HealthLogUserDataItem();
+            item.setCustomerId(customerId);
+            item.setVersion(version);
+            item.setMetricData(HealthLogMetricDataCodec.decode(ByteBuffer.wrap(encodedMetricData)));
+            return item;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed-capacity segment file of a {@link SegmentLogHealthLogStore}, memory mapped in full.
+ * <p>
+ * The file starts with the 8 byte order of the segment in the log, which stays zero until a
+ * segment written by compaction is complete. Records follow back to back as a 4 byte body
+ * length, a 4 byte CRC32 of the type and body, a 1 byte record type and the body. The unused
+ * rest of the file is zero, so a zero length marks the end of the written records. Appends are
+ * not thread safe and must be serialized by the caller; reads of records below the write
+ * position are.
+ */
+final class LogSegment implements Closeable {
+    /**
+     * Size of the record header: body length, checksum and type.
+     */
+    static final int HEADER_BYTES = 9;
+
+    /**
+     * Offset of the first record, after the segment order.
+     */
+    static final int FIRST_RECORD_OFFSET = 8;
+
+    private static final String FILE_PREFIX = "segment-";
+    private static final String FILE_SUFFIX = ".log";
+
+    private final int id;
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private volatile int writePosition = FIRST_RECORD_OFFSET;
+    private final AtomicLong liveBytes = new AtomicLong();
+
+    private LogSegment(int id, File file, int capacity) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.capacity = capacity;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        if (randomAccessFile.length() < capacity) {
+            randomAccessFile.setLength(capacity);
+        }
+        this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Creates a new segment file in a directory.
+     *
+     * @param directory
+     * @param id
+     * @param capacity
+     *            size of the segment file in bytes
+     * @param order
+     *            order of the segment in the log, or zero to set it once the segment is complete
+     * @return the mapped segment
+     * @throws IOException
+     */
+    static LogSegment create(File directory, int id, int capacity, long order) throws IOException {
+        File file = new File(directory, fileName(id));
+        if (!file.createNewFile()) {
+            throw new IOException("Segment file " + file + " already exists");
+        }
+        LogSegment segment = new LogSegment(id, file, capacity);
+        if (order != 0) {
+            segment.setOrder(order);
+        }
+        return segment;
+    }
+
+    /**
+     * Opens an existing segment file. Its write position is set by {@link #truncate(int)} once
+     * its records have been scanned.
+     *
+     * @param file
+     * @param capacity
+     *            minimum size of the segment file in bytes
+     * @return the mapped segment
+     * @throws IOException
+     */
+    static LogSegment open(File file, int capacity) throws IOException {
+        return new LogSegment(idOf(file.getName()), file, (int) Math.max(file.length(), capacity));
+    }
+
+    /**
+     * Returns the id of a segment file name, or -1 if the name is not one of a segment.
+     *
+     * @param fileName
+     * @return
+     */
+    static int idOf(String fileName) {
+        if (!fileName.startsWith(FILE_PREFIX) || !fileName.endsWith(FILE_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(fileName.substring(FILE_PREFIX.length(),
+                    fileName.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static String fileName(int id) {
+        return String.format(Locale.US, "%s%08d%s", FILE_PREFIX, id, FILE_SUFFIX);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getOrder() {
+        return buffer.getLong(0);
+    }
+
+    /**
+     * Sets the order of the segment and forces the segment to disk, which makes a segment
+     * written by compaction part of the log.
+     *
+     * @param order
+     */
+    void setOrder(long order) {
+        buffer.putLong(0, order);
+        buffer.force();
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * Returns the number of bytes taken by records in the segment.
+     *
+     * @return
+     */
+    int getWrittenBytes() {
+        return writePosition - FIRST_RECORD_OFFSET;
+    }
+
+    /**
+     * Returns the number of bytes taken by records the index still refers to.
+     *
+     * @return
+     */
+    long getLiveBytes() {
+        return liveBytes.get();
+    }
+
+    void addLiveBytes(long delta) {
+        liveBytes.addAndGet(delta);
+    }
+
+    /**
+     * Returns true if a record with a body of the given length fits after the write position.
+     *
+     * @param bodyLength
+     * @return
+     */
+    boolean hasRoomFor(int bodyLength) {
+        return writePosition + HEADER_BYTES + bodyLength <= capacity;
+    }
+
+    /**
+     * Appends a record at the write position.
+     *
+     * @param type
+     * @param body
+     * @return the offset of the record
+     */
+    int append(byte type, byte[] body) {
+        int offset = writePosition;
+        ByteBuffer out = buffer.duplicate();
+        out.position(offset);
+        out.putInt(body.length);
+        out.putInt(checksum(type, body, 0, body.length));
+        out.put(type);
+        out.put(body);
+        writePosition = out.position();
+        return offset;
+    }
+
+    /**
+     * Returns the offset of the record following the one at the given offset, or -1 if there is
+     * no valid record at the given offset.
+     *
+     * @param offset
+     * @return
+     */
+    int nextRecordOffset(int offset) {
+        if (offset + HEADER_BYTES > capacity) {
+            return -1;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || offset + HEADER_BYTES + length > capacity) {
+            return -1;
+        }
+        byte[] body = new byte[length];
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset + HEADER_BYTES);
+        in.get(body);
+        if (checksum(buffer.get(offset + 8), body, 0, length) != buffer.getInt(offset + 4)) {
+            return -1;
+        }
+        return offset + HEADER_BYTES + length;
+    }
+
+    /**
+     * Returns true if the given offset is the end of the written records rather than an invalid
+     * record.
+     *
+     * @param offset
+     * @return
+     */
+    boolean isEnd(int offset) {
+        return offset + 4 > capacity || buffer.getInt(offset) == 0;
+    }
+
+    /**
+     * Sets the write position after recovery. If there is a torn record at the position,
+     * everything after it is zeroed so that it cannot be mistaken for a written record later.
+     *
+     * @param position
+     */
+    void truncate(int position) {
+        if (!isEnd(position)) {
+            for (int i = position; i < capacity; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        writePosition = position;
+    }
+
+    byte typeAt(int offset) {
+        return buffer.get(offset + 8);
+    }
+
+    /**
+     * Returns the size of the record at the given offset, header included.
+     *
+     * @param offset
+     * @return
+     */
+    int recordBytesAt(int offset) {
+        return HEADER_BYTES + buffer.getInt(offset);
+    }
+
+    /**
+     * Returns a read-only view of the body of the record at the given offset.
+     *
+     * @param offset
+     * @return
+     */
+    ByteBuffer bodyAt(int offset) {
+        int length = buffer.getInt(offset);
+        ByteBuffer body = buffer.asReadOnlyBuffer();
+        body.position(offset + HEADER_BYTES);
+        body.limit(offset + HEADER_BYTES + length);
+        return body.slice();
+    }
+
+    /**
+     * Forces the written records to disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        randomAccessFile.close();
+    }
+
+    /**
+     * Closes and deletes the segment file. The mapping stays readable until it is garbage
+     * collected, so readers still holding the segment are not affected.
+     *
+     * @return true if the file was deleted
+     * @throws IOException
+     */
+    boolean delete() throws IOException {
+        randomAccessFile.close();
+        return file.delete();
+    }
+
+    private static int checksum(byte type, byte[] body, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(body, offset, length);
+        return (int) crc.getValue();
+    }
+}
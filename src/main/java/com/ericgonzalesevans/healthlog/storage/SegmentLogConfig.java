@@ -0,0 +1,113 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+/**
+ * Settings of a {@link SegmentLogHealthLogStore}, either given explicitly or read once from
+ * environment variables. Unset or invalid variables fall back to the defaults below.
+ */
+public final class SegmentLogConfig {
+    /**
+     * Size of a segment file in bytes. Defaults to 64 MiB.
+     */
+    public static final String SEGMENT_BYTES_ENV = "HEALTHLOG_LOG_SEGMENT_BYTES";
+
+    /**
+     * Interval between group commits in milliseconds. Defaults to 10.
+     */
+    public static final String FSYNC_INTERVAL_ENV = "HEALTHLOG_LOG_FSYNC_INTERVAL_MS";
+
+    /**
+     * Whether writes wait for their group commit. Defaults to true; with false a crash loses the
+     * writes of up to one interval.
+     */
+    public static final String SYNC_WRITES_ENV = "HEALTHLOG_LOG_SYNC_WRITES";
+
+    /**
+     * Interval in milliseconds between checks whether the sealed segments need compaction.
+     * Defaults to one minute. Zero or less disables compaction.
+     */
+    public static final String COMPACTION_INTERVAL_ENV = "HEALTHLOG_LOG_COMPACTION_INTERVAL_MS";
+
+    /**
+     * Share of dead records, in percent of the bytes written to the sealed segments, above which
+     * they are compacted. Defaults to 50.
+     */
+    public static final String COMPACTION_GARBAGE_PERCENT_ENV =
+            "HEALTHLOG_LOG_COMPACTION_GARBAGE_PERCENT";
+
+    /**
+     * Maximum rate at which compaction copies live records, in bytes per second. Defaults to
+     * 8 MiB.
+     */
+    public static final String COMPACTION_BYTES_PER_SECOND_ENV =
+            "HEALTHLOG_LOG_COMPACTION_BYTES_PER_SEC";
+
+    /**
+     * Interval in milliseconds between index snapshots. Defaults to five minutes. Zero or less
+     * disables periodic snapshots.
+     */
+    public static final String SNAPSHOT_INTERVAL_ENV = "HEALTHLOG_LOG_SNAPSHOT_INTERVAL_MS";
+
+    private final int segmentBytes;
+    private final long fsyncIntervalMillis;
+    private final boolean syncWrites;
+    private final long compactionIntervalMillis;
+    private final int compactionGarbagePercent;
+    private final long compactionBytesPerSecond;
+    private final long snapshotIntervalMillis;
+
+    public SegmentLogConfig(final int segmentBytes, final long fsyncIntervalMillis,
+            final boolean syncWrites, final long compactionIntervalMillis,
+            final int compactionGarbagePercent, final long compactionBytesPerSecond,
+            final long snapshotIntervalMillis) {
+        this.segmentBytes = segmentBytes;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.syncWrites = syncWrites;
+        this.compactionIntervalMillis = compactionIntervalMillis;
+        this.compactionGarbagePercent = compactionGarbagePercent;
+        this.compactionBytesPerSecond = compactionBytesPerSecond;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    /**
+     * Reads the settings from the environment.
+     *
+     * @return settings read from the environment
+     */
+    public static SegmentLogConfig fromEnvironment() {
+        return new SegmentLogConfig(EnvironmentSettings.getInt(SEGMENT_BYTES_ENV, 64 * 1024 * 1024),
+                EnvironmentSettings.getLong(FSYNC_INTERVAL_ENV, 10L),
+                EnvironmentSettings.getBoolean(SYNC_WRITES_ENV, true),
+                EnvironmentSettings.getLong(COMPACTION_INTERVAL_ENV, 60000L),
+                EnvironmentSettings.getInt(COMPACTION_GARBAGE_PERCENT_ENV, 50),
+                EnvironmentSettings.getLong(COMPACTION_BYTES_PER_SECOND_ENV, 8L * 1024 * 1024),
+                EnvironmentSettings.getLong(SNAPSHOT_INTERVAL_ENV, 300000L));
+    }
+
+    int getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    long getFsyncIntervalMillis() {
+        return fsyncIntervalMillis;
+    }
+
+    boolean isSyncWrites() {
+        return syncWrites;
+    }
+
+    long getCompactionIntervalMillis() {
+        return compactionIntervalMillis;
+    }
+
+    int getCompactionGarbagePercent() {
+        return compactionGarbagePercent;
+    }
+
+    long getCompactionBytesPerSecond() {
+        return compactionBytesPerSecond;
+    }
+
+    long getSnapshotIntervalMillis() {
+        return snapshotIntervalMillis;
+    }
+}
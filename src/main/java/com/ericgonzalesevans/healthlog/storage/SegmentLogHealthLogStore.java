@@ -0,0 +1,1029 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link HealthLogStore} that appends every summary and measurement write as a record to a log
+ * of memory-mapped {@link LogSegment} files under a local directory, for self-hosted deployments
+ * with write rates the per-file {@link LocalFileHealthLogStore} cannot sustain.
+ * <p>
+ * An in-memory hash index maps each customer id to the location of its latest summary record,
+ * and each measurement series to the locations of its measurement records by timestamp, so reads
+ * are served straight from the mapped segments. Instead of forcing every write, a background
+ * thread forces the active segment on a fixed interval and a write waits for the next such group
+ * commit before it returns, after releasing its lock stripe. A write is visible to readers as soon
+ * as it is appended; since records are appended in order, any write based on it is later in the
+ * log and cannot survive a crash that loses it. Every second or so the thread also records the
+ * forced position in a checkpoint file.
+ * <p>
+ * A second background thread compacts the sealed segments once enough of their records are dead,
+ * copying the live records into new segments while reads and writes go on, and periodically
+ * writes a snapshot of the index. On open the index is restored from the latest snapshot and only
+ * the segments written after it are scanned; an invalid record after the checkpoint is a write
+ * torn by a crash and is truncated, one before it means the log is corrupt.
+ */
+public class SegmentLogHealthLogStore extends LockStripedHealthLogStore implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(SegmentLogHealthLogStore.class);
+
+    static final byte SUMMARY_RECORD = 1;
+    static final byte MEASUREMENT_RECORD = 2;
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String SNAPSHOT_FILE = "index.snapshot";
+    private static final int SNAPSHOT_FORMAT_VERSION = 1;
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 1000L;
+
+    private static final Comparator<LogSegment> LOG_ORDER = new Comparator<LogSegment>() {
+        @Override
+        public int compare(LogSegment a, LogSegment b) {
+            return Long.compare(a.getOrder(), b.getOrder());
+        }
+    };
+
+    private final File directory;
+    private final SegmentLogConfig config;
+
+    private final ConcurrentMap<Integer, LogSegment> segments =
+            new ConcurrentHashMap<Integer, LogSegment>();
+    private final AtomicInteger nextSegmentId = new AtomicInteger(1);
+    private final ConcurrentMap<String, Long> summaryIndex = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<String, ConcurrentSkipListMap<Long, Long>> measurementIndex =
+            new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, Long>>();
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private LogSegment activeSegment;
+    private boolean closed;
+
+    private final ReentrantLock durableLock = new ReentrantLock();
+    private final Condition durableLocationAdvanced = durableLock.newCondition();
+    private long durableLocation;
+    /** End of the last record this thread appended and has not waited for yet. */
+    private final ThreadLocal<Long> pendingEndLocation = new ThreadLocal<Long>();
+
+    private final ScheduledExecutorService flusher;
+    private final ScheduledExecutorService maintenance;
+    private long lastCheckpointMillis;
+
+    private final AtomicLong compactionCount = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private final AtomicLong snapshotCount = new AtomicLong();
+    private final AtomicLong pauseCount = new AtomicLong();
+    private final AtomicLong totalPauseNanos = new AtomicLong();
+    private final AtomicLong maxPauseNanos = new AtomicLong();
+    private final long recoveryMillis;
+
+    public SegmentLogHealthLogStore(final File directory, final SegmentLogConfig config) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create store directory " + directory);
+        }
+        this.directory = directory;
+        this.config = config;
+
+        long startMillis = System.currentTimeMillis();
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open segment log in " + directory, e);
+        }
+        recoveryMillis = System.currentTimeMillis() - startMillis;
+        log.info("Recovered segment log in {}: {} segments, {} customers in {} ms", directory,
+                segments.size(), summaryIndex.size(), recoveryMillis);
+
+        flusher = Executors.newSingleThreadScheduledExecutor(
+                newDaemonThreadFactory("healthlog-segment-log-flusher"));
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException | IOException e) {
+                    log.error("Group commit of segment log in {} failed", directory, e);
+                }
+            }
+        }, config.getFsyncIntervalMillis(), config.getFsyncIntervalMillis(),
+                TimeUnit.MILLISECONDS);
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(
+                newDaemonThreadFactory("healthlog-segment-log-maintenance"));
+        if (config.getCompactionIntervalMillis() > 0) {
+            maintenance.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (RuntimeException | IOException e) {
+                        log.error("Compaction of segment log in {} failed", directory, e);
+                    }
+                }
+            }, config.getCompactionIntervalMillis(), config.getCompactionIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+        if (config.getSnapshotIntervalMillis() > 0) {
+            maintenance.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeSnapshot();
+                    } catch (RuntimeException | IOException e) {
+                        log.error("Snapshot of segment log index in {} failed", directory, e);
+                    }
+                }
+            }, config.getSnapshotIntervalMillis(), config.getSnapshotIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Opens the store in a directory with the settings of {@link SegmentLogConfig#fromEnvironment()}.
+     *
+     * @param directory
+     * @return the opened store
+     */
+    public static SegmentLogHealthLogStore fromEnvironment(File directory) {
+        return new SegmentLogHealthLogStore(directory, SegmentLogConfig.fromEnvironment());
+    }
+
+    @Override
+    protected StoredSummary readSummary(String customerId) {
+        while (true) {
+            Long location = summaryIndex.get(customerId);
+            if (location == null) {
+                return null;
+            }
+            LogSegment segment = segments.get(segmentIdOf(location));
+            if (segment == null) {
+                // compacted away after the index lookup, the index now has the new location
+                checkRelocated(location, summaryIndex.get(customerId));
+                continue;
+            }
+            ByteBuffer body = segment.bodyAt(offsetOf(location));
+            readString(body);
+            long version = body.getLong();
+            byte[] encodedMetricData = new byte[body.remaining()];
+            body.get(encodedMetricData);
+            return new StoredSummary(encodedMetricData, version);
+        }
+    }
+
+    @Override
+    protected void writeSummary(String customerId, StoredSummary summary) {
+        byte[] key = customerId.getBytes(StandardCharsets.UTF_8);
+        byte[] encodedMetricData = summary.getEncodedMetricData();
+        ByteBuffer body = ByteBuffer.allocate(4 + key.length + 8 + encodedMetricData.length);
+        body.putInt(key.length).put(key);
+        body.putLong(summary.getVersion());
+        body.put(encodedMetricData);
+
+        indexSummary(customerId, append(SUMMARY_RECORD, body.array()));
+    }
+
+    @Override
+    protected void writeMeasurement(HealthLogMeasurementItem measurementItem) {
+        byte[] key = measurementItem.getSeriesKey().getBytes(StandardCharsets.UTF_8);
+        byte[] metric = measurementItem.getMetric().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(4 + key.length + 8 + 4 + metric.length + 8);
+        body.putInt(key.length).put(key);
+        body.putLong(measurementItem.getTimestamp());
+        body.putInt(metric.length).put(metric);
+        body.putLong(measurementItem.getValue());
+
+        indexMeasurement(measurementItem.getSeriesKey(), measurementItem.getTimestamp(),
+                append(MEASUREMENT_RECORD, body.array()));
+    }
+
+    @Override
+    protected Collection<HealthLogMeasurementItem> readMeasurements(String seriesKey) {
+        ConcurrentSkipListMap<Long, Long> locations = measurementIndex.get(seriesKey);
+        if (locations == null) {
+            return Collections.emptyList();
+        }
+        List<HealthLogMeasurementItem> items = new ArrayList<HealthLogMeasurementItem>();
+        for (Long timestamp : locations.keySet()) {
+            HealthLogMeasurementItem item = readMeasurement(locations, timestamp);
+            if (item != null) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    @Override
+    protected Collection<HealthLogMeasurementItem> readMeasurementsBetween(String seriesKey,
+            long fromTimestamp, long toTimestamp) {
+        ConcurrentSkipListMap<Long, Long> locations = measurementIndex.get(seriesKey);
+        if (locations == null || fromTimestamp > toTimestamp) {
+            return Collections.emptyList();
+        }
+        List<HealthLogMeasurementItem> items = new ArrayList<HealthLogMeasurementItem>();
+        for (Long timestamp : locations.subMap(fromTimestamp, true, toTimestamp, true).keySet()) {
+            HealthLogMeasurementItem item = readMeasurement(locations, timestamp);
+            if (item != null) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    @Override
+    protected boolean containsMeasurement(String seriesKey, long timestamp) {
+        ConcurrentSkipListMap<Long, Long> locations = measurementIndex.get(seriesKey);
+        return locations != null && locations.containsKey(timestamp);
+    }
+
+    /**
+     * Returns the number of compactions that have completed.
+     *
+     * @return
+     */
+    public long getCompactionCount() {
+        return compactionCount.get();
+    }
+
+    /**
+     * Returns the number of bytes of dead records removed by compaction.
+     *
+     * @return
+     */
+    public long getBytesReclaimed() {
+        return bytesReclaimed.get();
+    }
+
+    /**
+     * Returns the number of index snapshots that have been written.
+     *
+     * @return
+     */
+    public long getSnapshotCount() {
+        return snapshotCount.get();
+    }
+
+    /**
+     * Returns the number of times writes were paused, which happens while an index snapshot
+     * records a consistent position in the log.
+     *
+     * @return
+     */
+    public long getPauseCount() {
+        return pauseCount.get();
+    }
+
+    /**
+     * Returns the longest pause of writes in microseconds.
+     *
+     * @return
+     */
+    public long getMaxPauseMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxPauseNanos.get());
+    }
+
+    /**
+     * Returns the total time writes were paused in microseconds.
+     *
+     * @return
+     */
+    public long getTotalPauseMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(totalPauseNanos.get());
+    }
+
+    /**
+     * Returns the time it took to open the store and rebuild its index in milliseconds.
+     *
+     * @return
+     */
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "[SegmentLogHealthLogStore segments: " + segments.size() + "] compactions: "
+                + compactionCount + "] bytesReclaimed: " + bytesReclaimed + "] snapshots: "
+                + snapshotCount + "] maxPauseMicros: " + getMaxPauseMicros()
+                + "] recoveryMillis: " + recoveryMillis + "]";
+    }
+
+    /**
+     * Stops the background threads, forces outstanding writes to disk, records a checkpoint and
+     * unmaps the segments. Writes fail after the store is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            appendLock.unlock();
+        }
+        maintenance.shutdown();
+        flusher.shutdown();
+        try {
+            maintenance.awaitTermination(1, TimeUnit.MINUTES);
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        appendLock.lock();
+        try {
+            writeCheckpoint(activeSegment.getOrder(), activeSegment.getWritePosition());
+        } finally {
+            appendLock.unlock();
+        }
+        for (LogSegment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    @Override
+    protected void awaitWrites() {
+        Long endLocation = pendingEndLocation.get();
+        if (endLocation != null) {
+            pendingEndLocation.remove();
+            awaitDurable(endLocation);
+        }
+    }
+
+    /**
+     * Appends a record to the active segment, rolling over to a new segment if it does not fit.
+     * Unless writes are asynchronous, the end of the record is left for {@link #awaitWrites()} to
+     * wait for, so that the records of one write share a group commit.
+     *
+     * @param type
+     * @param body
+     * @return the location of the record
+     */
+    private long append(byte type, byte[] body) {
+        if (body.length > config.getSegmentBytes() - LogSegment.FIRST_RECORD_OFFSET
+                - LogSegment.HEADER_BYTES) {
+            throw new IllegalArgumentException("Record of " + body.length
+                    + " bytes does not fit in a segment of " + config.getSegmentBytes() + " bytes");
+        }
+        long location;
+        appendLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Segment log in " + directory + " is closed");
+            }
+            if (!activeSegment.hasRoomFor(body.length)) {
+                // everything before the new segment must be durable once it is forced
+                activeSegment.force();
+                try {
+                    activeSegment = newActiveSegment();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to roll over segment log in "
+                            + directory, e);
+                }
+            }
+            location = locationOf(activeSegment.getId(), activeSegment.append(type, body));
+        } finally {
+            appendLock.unlock();
+        }
+        if (config.isSyncWrites()) {
+            pendingEndLocation.set(location + LogSegment.HEADER_BYTES + body.length);
+        }
+        return location;
+    }
+
+    private void awaitDurable(long endLocation) {
+        durableLock.lock();
+        try {
+            while (durableLocation < endLocation) {
+                try {
+                    durableLocationAdvanced.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for group commit", e);
+                }
+            }
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    /**
+     * Forces the active segment and wakes up the writers waiting for it.
+     */
+    private void flush() throws IOException {
+        LogSegment segment;
+        int position;
+        appendLock.lock();
+        try {
+            segment = activeSegment;
+            position = segment.getWritePosition();
+        } finally {
+            appendLock.unlock();
+        }
+        long location = locationOf(segment.getId(), position);
+        durableLock.lock();
+        try {
+            if (location <= durableLocation) {
+                return;
+            }
+        } finally {
+            durableLock.unlock();
+        }
+        segment.force();
+        durableLock.lock();
+        try {
+            durableLocation = location;
+            durableLocationAdvanced.signalAll();
+        } finally {
+            durableLock.unlock();
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastCheckpointMillis >= CHECKPOINT_INTERVAL_MILLIS) {
+            writeCheckpoint(segment.getOrder(), position);
+            lastCheckpointMillis = now;
+        }
+    }
+
+    /**
+     * Copies the live records of the sealed segments into new segments, points the index at the
+     * copies and deletes the sealed segments, if enough of their records are dead. Records
+     * written meanwhile go to the active segment and win over the copies, since they replace the
+     * index entries the copies would have taken over.
+     */
+    private void compact() throws IOException {
+        LogSegment active;
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            active = activeSegment;
+        } finally {
+            appendLock.unlock();
+        }
+        List<LogSegment> inputs = new ArrayList<LogSegment>();
+        long writtenBytes = 0;
+        long liveBytes = 0;
+        for (LogSegment segment : segments.values()) {
+            if (segment.getOrder() < active.getOrder()) {
+                inputs.add(segment);
+                writtenBytes += segment.getWrittenBytes();
+                liveBytes += segment.getLiveBytes();
+            }
+        }
+        if (inputs.isEmpty()
+                || (writtenBytes - liveBytes) * 100 < writtenBytes * config.getCompactionGarbagePercent()) {
+            return;
+        }
+        Collections.sort(inputs, LOG_ORDER);
+
+        long startNanos = System.nanoTime();
+        List<LogSegment> outputs = new ArrayList<LogSegment>();
+        List<Relocation> relocations = new ArrayList<Relocation>();
+        try {
+            copyLiveRecords(inputs, outputs, relocations, startNanos);
+            // the copies take the place of the inputs in the log, before anything written since
+            long outputOrder = inputs.get(inputs.size() - 1).getOrder() + 1;
+            for (LogSegment output : outputs) {
+                output.setOrder(outputOrder);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (LogSegment output : outputs) {
+                output.delete();
+            }
+            throw e;
+        }
+
+        for (LogSegment output : outputs) {
+            segments.put(output.getId(), output);
+        }
+        for (Relocation relocation : relocations) {
+            if (relocation.swap()) {
+                addLiveBytes(relocation.to, 1);
+            }
+        }
+        for (LogSegment input : inputs) {
+            segments.remove(input.getId());
+        }
+        // the previous snapshot refers to the inputs, so replace it before they are deleted
+        try {
+            writeSnapshot();
+        } catch (IOException | RuntimeException e) {
+            for (LogSegment input : inputs) {
+                segments.put(input.getId(), input);
+            }
+            throw e;
+        }
+
+        long reclaimed = 0;
+        for (LogSegment input : inputs) {
+            reclaimed += input.getWrittenBytes();
+            if (!input.delete()) {
+                log.warn("Unable to delete compacted segment {}", input.getFile());
+            }
+        }
+        for (LogSegment output : outputs) {
+            reclaimed -= output.getWrittenBytes();
+        }
+        bytesReclaimed.addAndGet(reclaimed);
+        compactionCount.incrementAndGet();
+        log.info("Compacted {} segments into {} in {} ms, reclaiming {} bytes", inputs.size(),
+                outputs.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                reclaimed);
+    }
+
+    private void copyLiveRecords(List<LogSegment> inputs, List<LogSegment> outputs,
+            List<Relocation> relocations, long startNanos) throws IOException {
+        LogSegment output = null;
+        long copiedBytes = 0;
+        for (LogSegment input : inputs) {
+            int end = input.getWritePosition();
+            for (int offset = LogSegment.FIRST_RECORD_OFFSET; offset < end;
+                    offset += input.recordBytesAt(offset)) {
+                Relocation relocation = liveRecordAt(input, offset);
+                if (relocation == null) {
+                    continue;
+                }
+                ByteBuffer body = input.bodyAt(offset);
+                byte[] bytes = new byte[body.remaining()];
+                body.get(bytes);
+                if (output == null || !output.hasRoomFor(bytes.length)) {
+                    output = LogSegment.create(directory, nextSegmentId.getAndIncrement(),
+                            config.getSegmentBytes(), 0);
+                    outputs.add(output);
+                }
+                relocation.to = locationOf(output.getId(), output.append(relocation.type, bytes));
+                relocations.add(relocation);
+
+                copiedBytes += LogSegment.HEADER_BYTES + bytes.length;
+                throttle(startNanos, copiedBytes);
+            }
+        }
+    }
+
+    /**
+     * Returns the relocation of the record at an offset if the index still refers to it, or
+     * null if the record is dead.
+     */
+    private Relocation liveRecordAt(LogSegment segment, int offset) {
+        long location = locationOf(segment.getId(), offset);
+        ByteBuffer body = segment.bodyAt(offset);
+        byte type = segment.typeAt(offset);
+        String key = readString(body);
+        if (type == SUMMARY_RECORD) {
+            Long indexed = summaryIndex.get(key);
+            return indexed != null && indexed == location
+                    ? new Relocation(type, key, 0L, location) : null;
+        }
+        long timestamp = body.getLong();
+        ConcurrentSkipListMap<Long, Long> locations = measurementIndex.get(key);
+        Long indexed = locations != null ? locations.get(timestamp) : null;
+        return indexed != null && indexed == location
+                ? new Relocation(type, key, timestamp, location) : null;
+    }
+
+    private void throttle(long startNanos, long copiedBytes) throws IOException {
+        long bytesPerSecond = config.getCompactionBytesPerSecond();
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long aheadNanos = copiedBytes * 1000000000L / bytesPerSecond
+                - (System.nanoTime() - startNanos);
+        if (aheadNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted during compaction", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the index to the snapshot file along with the position in the log it reflects.
+     * Writes are paused just long enough to read that position while no write is between its
+     * append and its index update.
+     */
+    private void writeSnapshot() throws IOException {
+        final LogSegment[] replaySegment = new LogSegment[1];
+        final int[] replayOffset = new int[1];
+        long startNanos = System.nanoTime();
+        withAllLocks(new Runnable() {
+            @Override
+            public void run() {
+                appendLock.lock();
+                try {
+                    replaySegment[0] = activeSegment;
+                    replayOffset[0] = activeSegment.getWritePosition();
+                } finally {
+                    appendLock.unlock();
+                }
+            }
+        });
+        recordPause(System.nanoTime() - startNanos);
+        // the snapshot may only refer to records that are on disk
+        replaySegment[0].force();
+
+        long replayOrder = replaySegment[0].getOrder();
+        List<LogSegment> snapshotSegments = new ArrayList<LogSegment>();
+        for (LogSegment segment : segments.values()) {
+            if (segment.getOrder() <= replayOrder) {
+                snapshotSegments.add(segment);
+            }
+        }
+
+        File file = new File(directory, SNAPSHOT_FILE);
+        File tempFile = new File(directory, SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(SNAPSHOT_FORMAT_VERSION);
+            out.writeLong(replayOrder);
+            out.writeInt(replayOffset[0]);
+            out.writeInt(snapshotSegments.size());
+            for (LogSegment segment : snapshotSegments) {
+                out.writeInt(segment.getId());
+                out.writeInt(segment == replaySegment[0] ? replayOffset[0]
+                        : segment.getWritePosition());
+            }
+            for (Map.Entry<String, Long> entry : summaryIndex.entrySet()) {
+                out.writeBoolean(true);
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.writeBoolean(false);
+            for (Map.Entry<String, ConcurrentSkipListMap<Long, Long>> entry : measurementIndex
+                    .entrySet()) {
+                out.writeBoolean(true);
+                out.writeUTF(entry.getKey());
+                for (Map.Entry<Long, Long> measurement : entry.getValue().entrySet()) {
+                    out.writeBoolean(true);
+                    out.writeLong(measurement.getKey());
+                    out.writeLong(measurement.getValue());
+                }
+                out.writeBoolean(false);
+            }
+            out.writeBoolean(false);
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        snapshotCount.incrementAndGet();
+    }
+
+    /**
+     * Rebuilds the index from the latest snapshot and the segments written after it, or from
+     * all segments if there is no usable snapshot, and positions the active segment after the
+     * last valid record.
+     */
+    private void recover() throws IOException {
+        List<LogSegment> opened = new ArrayList<LogSegment>();
+        File[] files = directory.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            int id = LogSegment.idOf(file.getName());
+            if (id < 0) {
+                continue;
+            }
+            nextSegmentId.set(Math.max(nextSegmentId.get(), id + 1));
+            LogSegment segment = LogSegment.open(file, config.getSegmentBytes());
+            if (segment.getOrder() == 0) {
+                log.warn("Deleting segment {} left by an interrupted compaction", file);
+                segment.delete();
+                continue;
+            }
+            opened.add(segment);
+            segments.put(id, segment);
+        }
+        Collections.sort(opened, LOG_ORDER);
+
+        long[] checkpoint = readCheckpoint();
+        Map<Integer, Integer> snapshotPositions = new HashMap<Integer, Integer>();
+        long[] replayFrom = readSnapshot(snapshotPositions);
+        for (LogSegment segment : opened) {
+            long order = segment.getOrder();
+            int offset;
+            boolean indexRecords = true;
+            if (replayFrom == null || order > replayFrom[0]) {
+                offset = LogSegment.FIRST_RECORD_OFFSET;
+            } else if (order == replayFrom[0]) {
+                offset = (int) replayFrom[1];
+            } else if (snapshotPositions.containsKey(segment.getId())) {
+                segment.truncate(snapshotPositions.get(segment.getId()));
+                continue;
+            } else {
+                // written by a compaction that did not get to replace the snapshot
+                offset = LogSegment.FIRST_RECORD_OFFSET;
+                indexRecords = false;
+            }
+
+            int next;
+            while ((next = segment.nextRecordOffset(offset)) >= 0) {
+                if (indexRecords) {
+                    index(segment, offset);
+                }
+                offset = next;
+            }
+            if (checkpoint != null && (order < checkpoint[0] && !segment.isEnd(offset)
+                    || order == checkpoint[0] && offset < checkpoint[1])) {
+                throw new IllegalStateException("Segment " + segment.getFile()
+                        + " is corrupt at offset " + offset + ", before the last checkpoint");
+            }
+            if (!segment.isEnd(offset)) {
+                log.warn("Truncating torn record at offset {} of segment {}", offset,
+                        segment.getFile());
+            }
+            segment.truncate(offset);
+        }
+
+        activeSegment = opened.isEmpty() ? newActiveSegment() : opened.get(opened.size() - 1);
+        durableLocation = locationOf(activeSegment.getId(), activeSegment.getWritePosition());
+    }
+
+    /**
+     * Restores the index from the snapshot file, keeping only entries for records before the
+     * position the snapshot reflects. Fills in the write positions of the segments the snapshot
+     * knows about.
+     *
+     * @return the order and offset to replay the log from, or null if there is no usable
+     *         snapshot
+     */
+    private long[] readSnapshot(Map<Integer, Integer> positions) throws IOException {
+        File file = new File(directory, SNAPSHOT_FILE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_FORMAT_VERSION) {
+                log.warn("Ignoring index snapshot {} of an unknown format", file);
+                return null;
+            }
+            long replayOrder = in.readLong();
+            int replayOffset = in.readInt();
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                positions.put(in.readInt(), in.readInt());
+            }
+            while (in.readBoolean()) {
+                String customerId = in.readUTF();
+                long location = in.readLong();
+                if (isBeforeSnapshot(location, replayOrder, replayOffset, positions)) {
+                    indexSummary(customerId, location);
+                }
+            }
+            while (in.readBoolean()) {
+                String seriesKey = in.readUTF();
+                while (in.readBoolean()) {
+                    long timestamp = in.readLong();
+                    long location = in.readLong();
+                    if (isBeforeSnapshot(location, replayOrder, replayOffset, positions)) {
+                        indexMeasurement(seriesKey, timestamp, location);
+                    }
+                }
+            }
+            return new long[] {replayOrder, replayOffset};
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException | IllegalStateException e) {
+            log.warn("Ignoring unusable index snapshot {}, scanning the whole log", file, e);
+            summaryIndex.clear();
+            measurementIndex.clear();
+            positions.clear();
+            for (LogSegment segment : segments.values()) {
+                segment.addLiveBytes(-segment.getLiveBytes());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if a location from the snapshot is one of a record written before the
+     * snapshot position. Records written after it are restored by replaying the log.
+     */
+    private boolean isBeforeSnapshot(long location, long replayOrder, int replayOffset,
+            Map<Integer, Integer> positions) {
+        if (!positions.containsKey(segmentIdOf(location))) {
+            return false;
+        }
+        LogSegment segment = segments.get(segmentIdOf(location));
+        if (segment == null) {
+            throw new IllegalStateException("Index snapshot refers to missing segment "
+                    + segmentIdOf(location));
+        }
+        return segment.getOrder() < replayOrder || offsetOf(location) < replayOffset;
+    }
+
+    private void index(LogSegment segment, int offset) {
+        ByteBuffer body = segment.bodyAt(offset);
+        long location = locationOf(segment.getId(), offset);
+        switch (segment.typeAt(offset)) {
+            case SUMMARY_RECORD:
+                indexSummary(readString(body), location);
+                break;
+            case MEASUREMENT_RECORD:
+                String seriesKey = readString(body);
+                indexMeasurement(seriesKey, body.getLong(), location);
+                break;
+            default:
+                throw new IllegalStateException("Unknown record type " + segment.typeAt(offset)
+                        + " at offset " + offset + " of segment " + segment.getFile());
+        }
+    }
+
+    private void indexSummary(String customerId, long location) {
+        Long previous = summaryIndex.put(customerId, location);
+        addLiveBytes(location, 1);
+        if (previous != null) {
+            addLiveBytes(previous, -1);
+        }
+    }
+
+    private void indexMeasurement(String seriesKey, long timestamp, long location) {
+        Long previous = measurementsOf(seriesKey).put(timestamp, location);
+        addLiveBytes(location, 1);
+        if (previous != null) {
+            addLiveBytes(previous, -1);
+        }
+    }
+
+    private void addLiveBytes(long location, int sign) {
+        LogSegment segment = segments.get(segmentIdOf(location));
+        if (segment != null) {
+            segment.addLiveBytes(sign * segment.recordBytesAt(offsetOf(location)));
+        }
+    }
+
+    private HealthLogMeasurementItem readMeasurement(ConcurrentSkipListMap<Long, Long> locations,
+            Long timestamp) {
+        while (true) {
+            Long location = locations.get(timestamp);
+            if (location == null) {
+                return null;
+            }
+            LogSegment segment = segments.get(segmentIdOf(location));
+            if (segment == null) {
+                // compacted away after the index lookup, the index now has the new location
+                checkRelocated(location, locations.get(timestamp));
+                continue;
+            }
+            ByteBuffer body = segment.bodyAt(offsetOf(location));
+            HealthLogMeasurementItem item = new HealthLogMeasurementItem();
+            item.setSeriesKey(readString(body));
+            item.setTimestamp(body.getLong());
+            item.setMetric(readString(body));
+            item.setValue(body.getLong());
+            return item;
+        }
+    }
+
+    private static void checkRelocated(Long location, Long indexedLocation) {
+        if (location.equals(indexedLocation)) {
+            throw new IllegalStateException("Index refers to missing segment "
+                    + segmentIdOf(location));
+        }
+    }
+
+    /**
+     * Creates a segment ordered after every segment in the log.
+     */
+    private LogSegment newActiveSegment() throws IOException {
+        int id = nextSegmentId.getAndIncrement();
+        LogSegment segment = LogSegment.create(directory, id, config.getSegmentBytes(),
+                (long) id << 32);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private ConcurrentSkipListMap<Long, Long> measurementsOf(String seriesKey) {
+        ConcurrentSkipListMap<Long, Long> locations = measurementIndex.get(seriesKey);
+        if (locations == null) {
+            ConcurrentSkipListMap<Long, Long> newLocations = new ConcurrentSkipListMap<Long, Long>();
+            locations = measurementIndex.putIfAbsent(seriesKey, newLocations);
+            if (locations == null) {
+                locations = newLocations;
+            }
+        }
+        return locations;
+    }
+
+    private void recordPause(long nanos) {
+        pauseCount.incrementAndGet();
+        totalPauseNanos.addAndGet(nanos);
+        long max = maxPauseNanos.get();
+        while (nanos > max && !maxPauseNanos.compareAndSet(max, nanos)) {
+            max = maxPauseNanos.get();
+        }
+    }
+
+    private long[] readCheckpoint() throws IOException {
+        try {
+            ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(new File(directory,
+                    CHECKPOINT_FILE).toPath()));
+            return new long[] {contents.getLong(), contents.getInt()};
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void writeCheckpoint(long order, int offset) throws IOException {
+        File file = new File(directory, CHECKPOINT_FILE);
+        File tempFile = new File(directory, CHECKPOINT_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            out.write(ByteBuffer.allocate(12).putLong(order).putInt(offset).array());
+            out.getChannel().force(true);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ThreadFactory newDaemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Packs a segment id and an offset into a location. Locations in the active segment grow
+     * with every append.
+     */
+    private static long locationOf(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentIdOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A live record copied by compaction, and the index entry to point at the copy.
+     */
+    private final class Relocation {
+        private final byte type;
+        private final String key;
+        private final long timestamp;
+        private final long from;
+        private long to;
+
+        Relocation(byte type, String key, long timestamp, long from) {
+            this.type = type;
+            this.key = key;
+            this.timestamp = timestamp;
+            this.from = from;
+        }
+
+        /**
+         * Points the index entry at the copy, unless a write has replaced it meanwhile.
+         */
+        boolean swap() {
+            if (type == SUMMARY_RECORD) {
+                return summaryIndex.replace(key, from, to);
+            }
+            ConcurrentSkipListMap<Long, Long> locations = measurementIndex.get(key);
+            return locations != null && locations.replace(timestamp, from, to);
+        }
+    }
+}
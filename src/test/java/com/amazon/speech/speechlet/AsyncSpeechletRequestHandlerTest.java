@@ -0,0 +1,219 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.verifier.SpeechletRequestEnvelopeVerifier;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests how {@link AsyncSpeechletRequestHandler} chains the futures of an
+ * {@link AsyncSpeechletV2}.
+ */
+public class AsyncSpeechletRequestHandlerTest {
+    private static final String LAUNCH_REQUEST =
+            "{\"type\":\"LaunchRequest\",\"requestId\":\"request\","
+                    + "\"timestamp\":\"2016-01-01T00:00:00Z\"}";
+    private static final String INTENT_REQUEST =
+            "{\"type\":\"IntentRequest\",\"requestId\":\"request\","
+                    + "\"timestamp\":\"2016-01-01T00:00:00Z\","
+                    + "\"intent\":{\"name\":\"TestIntent\",\"slots\":{}}}";
+
+    private final AsyncSpeechletRequestHandler handler = new AsyncSpeechletRequestHandler(
+            new SpeechletRequestHandler(
+                    Collections.<SpeechletRequestEnvelopeVerifier>emptyList()));
+
+    @Test
+    public void requestOfANewSessionIsHandledOnceTheSessionHasStarted() throws Exception {
+        RecordingSpeechlet speechlet = new RecordingSpeechlet();
+
+        CompletableFuture<byte[]> response =
+                handler.handleSpeechletCall(speechlet, envelope(true, LAUNCH_REQUEST));
+        assertEquals(Collections.singletonList("onSessionStarted"), speechlet.calls);
+        assertFalse(response.isDone());
+
+        speechlet.sessionStarted.complete(null);
+        assertEquals(2, speechlet.calls.size());
+        assertEquals("onLaunch", speechlet.calls.get(1));
+        assertFalse(response.isDone());
+
+        speechlet.response.complete(newTellResponse("launched"));
+        assertTrue(new String(response.get(), StandardCharsets.UTF_8).contains("launched"));
+    }
+
+    @Test
+    public void requestOfAnOngoingSessionDoesNotStartIt() throws Exception {
+        RecordingSpeechlet speechlet = new RecordingSpeechlet();
+
+        CompletableFuture<byte[]> response =
+                handler.handleSpeechletCall(speechlet, envelope(false, LAUNCH_REQUEST));
+        speechlet.response.complete(newTellResponse("launched"));
+
+        assertEquals(Collections.singletonList("onLaunch"), speechlet.calls);
+        assertTrue(response.isDone());
+    }
+
+    @Test
+    public void failedSessionStartFailsTheRequestWithoutHandlingIt() throws Exception {
+        RecordingSpeechlet speechlet = new RecordingSpeechlet();
+
+        CompletableFuture<byte[]> response =
+                handler.handleSpeechletCall(speechlet, envelope(true, LAUNCH_REQUEST));
+        speechlet.sessionStarted.completeExceptionally(new SpeechletException("not started"));
+
+        assertEquals(Collections.singletonList("onSessionStarted"), speechlet.calls);
+        assertFailedWithSpeechletException(response, "not started");
+    }
+
+    @Test
+    public void speechletExceptionOfAnAsyncSpeechletIsUnwrapped() throws Exception {
+        RecordingSpeechlet speechlet = new RecordingSpeechlet();
+
+        CompletableFuture<byte[]> response =
+                handler.handleSpeechletCall(speechlet, envelope(false, INTENT_REQUEST));
+        speechlet.response.completeExceptionally(new SpeechletException("async failure"));
+
+        assertFailedWithSpeechletException(response, "async failure");
+    }
+
+    @Test
+    public void speechletExceptionOfAnAdaptedSpeechletIsUnwrapped() throws Exception {
+        Speechlet speechlet = new Speechlet() {
+            @Override
+            public void onSessionStarted(SessionStartedRequest request, Session session) {
+            }
+
+            @Override
+            public SpeechletResponse onLaunch(LaunchRequest request, Session session) {
+                return newTellResponse("launched");
+            }
+
+            @Override
+            public SpeechletResponse onIntent(IntentRequest request, Session session)
+                    throws SpeechletException {
+                throw new SpeechletException("sync failure");
+            }
+
+            @Override
+            public void onSessionEnded(SessionEndedRequest request, Session session) {
+            }
+        };
+
+        CompletableFuture<byte[]> response = handler.handleSpeechletCall(
+                new SpeechletV2ToAsyncSpeechletV2Adapter(
+                        new SpeechletToSpeechletV2Adapter(speechlet)),
+                envelope(false, INTENT_REQUEST));
+
+        assertFailedWithSpeechletException(response, "sync failure");
+    }
+
+    @Test
+    public void cancellingTheResponseCancelsTheSpeechletFuture() {
+        RecordingSpeechlet speechlet = new RecordingSpeechlet();
+
+        CompletableFuture<byte[]> response =
+                handler.handleSpeechletCall(speechlet, envelope(false, LAUNCH_REQUEST));
+        assertFalse(speechlet.response.isDone());
+
+        assertTrue(response.cancel(true));
+        assertTrue(speechlet.response.isCancelled());
+    }
+
+    @Test
+    public void cancellingTheResponseWhileTheSessionStartsCancelsThatFuture() {
+        RecordingSpeechlet speechlet = new RecordingSpeechlet();
+
+        CompletableFuture<byte[]> response =
+                handler.handleSpeechletCall(speechlet, envelope(true, LAUNCH_REQUEST));
+
+        assertTrue(response.cancel(true));
+        assertTrue(speechlet.sessionStarted.isCancelled());
+        assertEquals(Collections.singletonList("onSessionStarted"), speechlet.calls);
+    }
+
+    private static void assertFailedWithSpeechletException(CompletableFuture<byte[]> response,
+            String message) throws InterruptedException {
+        try {
+            response.get();
+            fail("The response did not fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SpeechletException);
+            assertEquals(message, e.getCause().getMessage());
+        }
+    }
+
+    private static byte[] envelope(boolean newSession, String request) {
+        return ("{\"version\":\"1.0\",\"session\":{\"new\":" + newSession
+                + ",\"sessionId\":\"session\",\"application\":{\"applicationId\":\"app\"},"
+                + "\"attributes\":{},\"user\":{\"userId\":\"user\"}},\"request\":" + request
+                + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static SpeechletResponse newTellResponse(String text) {
+        PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+        speech.setText(text);
+        return SpeechletResponse.newTellResponse(speech);
+    }
+
+    /**
+     * Records the calls it receives, and returns futures that the test completes.
+     */
+    private static final class RecordingSpeechlet implements AsyncSpeechletV2 {
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        final CompletableFuture<Void> sessionStarted = new CompletableFuture<Void>();
+        final CompletableFuture<SpeechletResponse> response =
+                new CompletableFuture<SpeechletResponse>();
+
+        @Override
+        public CompletableFuture<Void> onSessionStarted(
+                SpeechletRequestEnvelope<SessionStartedRequest> requestEnvelope) {
+            calls.add("onSessionStarted");
+            return sessionStarted;
+        }
+
+        @Override
+        public CompletableFuture<SpeechletResponse> onLaunch(
+                SpeechletRequestEnvelope<LaunchRequest> requestEnvelope) {
+            calls.add("onLaunch");
+            return response;
+        }
+
+        @Override
+        public CompletableFuture<SpeechletResponse> onIntent(
+                SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            calls.add("onIntent");
+            return response;
+        }
+
+        @Override
+        public CompletableFuture<Void> onSessionEnded(
+                SpeechletRequestEnvelope<SessionEndedRequest> requestEnvelope) {
+            calls.add("onSessionEnded");
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
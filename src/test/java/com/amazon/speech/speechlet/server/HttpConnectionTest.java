@@ -0,0 +1,158 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet.server;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the request parsing of {@link HttpConnection} on byte sequences as they arrive from a
+ * client, one read at a time.
+ */
+public class HttpConnectionTest {
+    private static final int READ_BUFFER_BYTES = 256;
+    private static final int MAX_BODY_BYTES = 1024;
+
+    private HttpConnection connection;
+
+    @Before
+    public void setUp() {
+        connection = new HttpConnection(null, null, 0L);
+        connection.readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+    }
+
+    @Test
+    public void bodySplitAcrossReadsIsReassembled() {
+        read("POST / HTTP/1.1\r\nContent-Length: 11\r\n\r\nhello", 100L);
+        assertTrue(connection.pendingRequests.isEmpty());
+        assertTrue(connection.isReadingRequest());
+        assertEquals(100L, connection.requestStartMillis);
+
+        read(" world", 200L);
+        HttpRequest request = connection.pendingRequests.poll();
+        assertArrayEquals(bytes("hello world"), request.getBody());
+        assertTrue(request.isKeepAlive());
+        assertFalse(connection.isReadingRequest());
+        assertTrue(connection.isReadBufferEmpty());
+        assertEquals(0L, connection.requestStartMillis);
+    }
+
+    @Test
+    public void headersSplitAcrossReadsAreParsedOnceComplete() {
+        read("POST / HTTP/1.1\r\nContent-Le", 100L);
+        assertTrue(connection.pendingRequests.isEmpty());
+        assertTrue(connection.isReadingRequest());
+
+        read("ngth: 2\r\n\r\nok", 200L);
+        assertArrayEquals(bytes("ok"), connection.pendingRequests.poll().getBody());
+        assertTrue(connection.isReadBufferEmpty());
+    }
+
+    @Test
+    public void pipelinedRequestsInOneReadAreQueuedInOrder() {
+        read("POST /a HTTP/1.1\r\nContent-Length: 3\r\n\r\none"
+                + "\r\nPOST /b HTTP/1.1\r\nContent-Length: 3\r\n\r\ntwo", 100L);
+
+        assertEquals(2, connection.pendingRequests.size());
+        assertArrayEquals(bytes("one"), connection.pendingRequests.poll().getBody());
+        assertArrayEquals(bytes("two"), connection.pendingRequests.poll().getBody());
+        assertFalse(connection.isReadingRequest());
+        assertTrue(connection.isReadBufferEmpty());
+    }
+
+    @Test
+    public void pipelinedRequestAfterOneThatClosesIsIgnored() {
+        read("POST /a HTTP/1.0\r\nContent-Length: 3\r\n\r\none"
+                + "POST /b HTTP/1.0\r\nContent-Length: 3\r\n\r\ntwo", 100L);
+
+        assertEquals(1, connection.pendingRequests.size());
+        assertFalse(connection.pendingRequests.poll().isKeepAlive());
+        assertTrue(connection.stopReading);
+        assertFalse(connection.isReadingRequest());
+    }
+
+    @Test
+    public void headersLargerThanTheReadBufferAreRejected() {
+        StringBuilder headers = new StringBuilder("POST / HTTP/1.1\r\n");
+        while (headers.length() < READ_BUFFER_BYTES) {
+            headers.append("X-Padding: 0123456789\r\n");
+        }
+        read(headers.substring(0, READ_BUFFER_BYTES), 100L);
+
+        assertError(431);
+    }
+
+    @Test
+    public void invalidContentLengthIsRejected() {
+        read("POST / HTTP/1.1\r\nContent-Length: eleven\r\n\r\nhello world", 100L);
+
+        assertError(400);
+    }
+
+    @Test
+    public void negativeContentLengthIsRejected() {
+        read("POST / HTTP/1.1\r\nContent-Length: -1\r\n\r\n", 100L);
+
+        assertError(400);
+    }
+
+    @Test
+    public void conflictingContentLengthsAreRejected() {
+        read("POST / HTTP/1.1\r\nContent-Length: 3\r\nContent-Length: 4\r\n\r\nabcd", 100L);
+
+        assertError(400);
+    }
+
+    @Test
+    public void contentLengthOverTheLimitIsRejected() {
+        read("POST / HTTP/1.1\r\nContent-Length: " + (MAX_BODY_BYTES + 1) + "\r\n\r\n", 100L);
+
+        assertError(413);
+    }
+
+    @Test
+    public void expectContinueIsAnsweredBeforeTheBodyArrives() {
+        read("POST / HTTP/1.1\r\nContent-Length: 2\r\nExpect: 100-continue\r\n\r\n", 100L);
+        assertEquals(1, connection.pendingWrites.size());
+        assertTrue(connection.pendingRequests.isEmpty());
+
+        read("ok", 200L);
+        assertArrayEquals(bytes("ok"), connection.pendingRequests.poll().getBody());
+    }
+
+    private void read(String data, long nowMillis) {
+        connection.readBuffer.put(bytes(data));
+        connection.parseRequests(MAX_BODY_BYTES, nowMillis);
+    }
+
+    private void assertError(int status) {
+        assertEquals(1, connection.pendingRequests.size());
+        HttpRequest request = connection.pendingRequests.poll();
+        assertTrue(request.isError());
+        assertEquals(status, request.getErrorStatus());
+        assertTrue(connection.stopReading);
+    }
+
+    private static byte[] bytes(String data) {
+        return data.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
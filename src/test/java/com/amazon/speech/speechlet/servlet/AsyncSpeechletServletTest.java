@@ -0,0 +1,295 @@
+/*
+    Copyright 2014-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file
+    except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+    the specific language governing permissions and limitations under the License.
+ */
+
+package com.amazon.speech.speechlet.servlet;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.AsyncSpeechletV2;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.LaunchRequest;
+import com.amazon.speech.speechlet.SessionEndedRequest;
+import com.amazon.speech.speechlet.SessionStartedRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.speechlet.SpeechletV2;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link AsyncSpeechletServlet} admits a new request once one that timed out has been
+ * answered, with a pool of one thread and a queue of one request.
+ */
+public class AsyncSpeechletServletTest {
+    private static final long WAIT_SECONDS = 5;
+
+    private AsyncSpeechletServlet servlet;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, "true");
+        System.setProperty(Sdk.ASYNC_SERVLET_THREADS_SYSTEM_PROPERTY, "1");
+        System.setProperty(Sdk.ASYNC_SERVLET_QUEUE_CAPACITY_SYSTEM_PROPERTY, "1");
+        servlet = new AsyncSpeechletServlet();
+        servlet.init();
+    }
+
+    @After
+    public void tearDown() {
+        servlet.destroy();
+        System.clearProperty(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY);
+        System.clearProperty(Sdk.ASYNC_SERVLET_THREADS_SYSTEM_PROPERTY);
+        System.clearProperty(Sdk.ASYNC_SERVLET_QUEUE_CAPACITY_SYSTEM_PROPERTY);
+    }
+
+    @Test
+    public void timeoutOfAnAsyncSpeechletRequestReleasesItsAdmission() throws Exception {
+        PendingAsyncSpeechlet speechlet = new PendingAsyncSpeechlet();
+        servlet.setAsyncSpeechlet(speechlet);
+
+        Exchange first = post();
+        CompletableFuture<SpeechletResponse> firstResponse = speechlet.awaitCall();
+        Exchange second = post();
+        speechlet.awaitCall();
+        Exchange rejected = post();
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, rejected.status);
+        assertEquals(1, servlet.getRejectedCount());
+
+        first.timeOut();
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, first.status);
+        assertTrue(first.completed);
+        assertTrue(firstResponse.isCancelled());
+        assertEquals(1, servlet.getTimeoutCount());
+
+        post();
+        assertNotNull(speechlet.awaitCall());
+        assertEquals(1, servlet.getRejectedCount());
+        assertEquals(0, second.status);
+    }
+
+    @Test
+    public void timeoutOfABlockingSpeechletRequestReleasesItsAdmission() throws Exception {
+        BlockingSpeechlet speechlet = new BlockingSpeechlet();
+        servlet.setSpeechlet(speechlet);
+
+        Exchange first = post();
+        assertTrue(speechlet.started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        post();
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, post().status);
+
+        first.timeOut();
+        assertTrue(speechlet.interrupted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, first.status);
+
+        // the queued request takes the thread, and the freed admission queues another one
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+        while (servlet.getQueueDepth() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, post().status);
+        assertEquals(1, servlet.getRejectedCount());
+    }
+
+    private Exchange post() throws Exception {
+        Exchange exchange = new Exchange();
+        servlet.doPost(exchange.request, exchange.response);
+        return exchange;
+    }
+
+    private static byte[] launchRequest() {
+        return ("{\"version\":\"1.0\",\"session\":{\"new\":false,\"sessionId\":\"session\","
+                + "\"application\":{\"applicationId\":\"app\"},\"attributes\":{},"
+                + "\"user\":{\"userId\":\"user\"}},\"request\":{\"type\":\"LaunchRequest\","
+                + "\"requestId\":\"request\",\"timestamp\":\""
+                + Instant.now().truncatedTo(ChronoUnit.SECONDS) + "\"}}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(AsyncSpeechletServletTest.class.getClassLoader(),
+                new Class<?>[] {type}, handler);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (returnType == boolean.class) {
+            return false;
+        }
+        if (returnType == int.class) {
+            return 0;
+        }
+        if (returnType == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * A request and its response, with an {@link AsyncContext} whose timeout the test fires.
+     */
+    private static final class Exchange {
+        final HttpServletRequest request;
+        final HttpServletResponse response;
+        final AsyncContext asyncContext;
+
+        volatile AsyncListener listener;
+        volatile int status;
+        volatile boolean completed;
+
+        Exchange() {
+            final ByteArrayInputStream body = new ByteArrayInputStream(launchRequest());
+            final ServletInputStream in = new ServletInputStream() {
+                @Override
+                public int read() {
+                    return body.read();
+                }
+            };
+            response = proxy(HttpServletResponse.class, (target, method, args) -> {
+                if ("sendError".equals(method.getName())) {
+                    status = (Integer) args[0];
+                }
+                return defaultValue(method);
+            });
+            request = proxy(HttpServletRequest.class, (target, method, args) -> {
+                if ("startAsync".equals(method.getName())) {
+                    return asyncContext();
+                }
+                if ("getInputStream".equals(method.getName())) {
+                    return in;
+                }
+                return defaultValue(method);
+            });
+            asyncContext = proxy(AsyncContext.class, (target, method, args) -> {
+                switch (method.getName()) {
+                    case "addListener":
+                        listener = (AsyncListener) args[0];
+                        return null;
+                    case "getRequest":
+                        return request;
+                    case "getResponse":
+                        return response;
+                    case "complete":
+                        completed = true;
+                        return null;
+                    default:
+                        return defaultValue(method);
+                }
+            });
+        }
+
+        private AsyncContext asyncContext() {
+            return asyncContext;
+        }
+
+        void timeOut() throws Exception {
+            listener.onTimeout(null);
+        }
+    }
+
+    /**
+     * Hands out a pending future for every request.
+     */
+    private static final class PendingAsyncSpeechlet implements AsyncSpeechletV2 {
+        private final BlockingQueue<CompletableFuture<SpeechletResponse>> calls =
+                new LinkedBlockingQueue<CompletableFuture<SpeechletResponse>>();
+
+        CompletableFuture<SpeechletResponse> awaitCall() throws InterruptedException {
+            CompletableFuture<SpeechletResponse> call = calls.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull("The speechlet was not called", call);
+            return call;
+        }
+
+        @Override
+        public CompletableFuture<Void> onSessionStarted(
+                SpeechletRequestEnvelope<SessionStartedRequest> requestEnvelope) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<SpeechletResponse> onLaunch(
+                SpeechletRequestEnvelope<LaunchRequest> requestEnvelope) {
+            CompletableFuture<SpeechletResponse> call = new CompletableFuture<SpeechletResponse>();
+            calls.add(call);
+            return call;
+        }
+
+        @Override
+        public CompletableFuture<SpeechletResponse> onIntent(
+                SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            return new CompletableFuture<SpeechletResponse>();
+        }
+
+        @Override
+        public CompletableFuture<Void> onSessionEnded(
+                SpeechletRequestEnvelope<SessionEndedRequest> requestEnvelope) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Blocks every launch until its thread is interrupted.
+     */
+    private static final class BlockingSpeechlet implements SpeechletV2 {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        @Override
+        public void onSessionStarted(
+                SpeechletRequestEnvelope<SessionStartedRequest> requestEnvelope) {
+        }
+
+        @Override
+        public SpeechletResponse onLaunch(SpeechletRequestEnvelope<LaunchRequest> requestEnvelope) {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("Interrupted");
+        }
+
+        @Override
+        public SpeechletResponse onIntent(SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            return null;
+        }
+
+        @Override
+        public void onSessionEnded(SpeechletRequestEnvelope<SessionEndedRequest> requestEnvelope) {
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.ericgonzalesevans.healthlog;
+
+import com.amazon.speech.speechlet.SpeechletRequestHandler;
+import com.amazon.speech.speechlet.SpeechletToSpeechletV2Adapter;
+import com.amazon.speech.speechlet.SpeechletV2;
+import com.amazon.speech.speechlet.lambda.LambdaSpeechletRequestHandler;
+import com.ericgonzalesevans.healthlog.storage.HealthLogUserDataItem;
+import com.ericgonzalesevans.healthlog.storage.InMemoryHealthLogStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives one {@link HealthLogSpeechlet} from many threads at once, interleaving dialogs that
+ * launch the skill and ask for help with one-shot sessions that add a user, and checks that every
+ * session gets the responses of its own dialog.
+ */
+public class HealthLogSpeechletConcurrencyTest {
+    private static final String APPLICATION_ID = "amzn1.ask.skill.test";
+    private static final int THREADS = 32;
+    private static final int SESSIONS = 2000;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final InMemoryHealthLogStore store = new InMemoryHealthLogStore();
+    private final SpeechletV2 speechlet = new SpeechletToSpeechletV2Adapter(
+            new HealthLogSpeechlet(new HealthLogManager(store)));
+    private final SpeechletRequestHandler handler =
+            new LambdaSpeechletRequestHandler(Collections.singleton(APPLICATION_ID));
+
+    @Test
+    public void concurrentSessionsGetTheirOwnResponses() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> sessions = new ArrayList<Future<Void>>();
+            for (int i = 0; i < SESSIONS; i++) {
+                final int sessionNumber = i;
+                sessions.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        if (sessionNumber % 2 == 0) {
+                            runLaunchDialog(sessionNumber);
+                        } else {
+                            runOneShotSessions(sessionNumber);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> session : sessions) {
+                session.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int i = 1; i < SESSIONS; i += 2) {
+            HealthLogUserDataItem key = new HealthLogUserDataItem();
+            key.setCustomerId(customerIdOf(i));
+            HealthLogUserDataItem item = store.loadItem(key);
+            assertNotNull("log of customer " + i, item);
+            assertEquals(Collections.singletonList("bob"), item.getMetricData().getUsers());
+        }
+    }
+
+    /**
+     * Launches the skill and asks for help in the same session, which keeps the dialog open
+     * since the launch asked for more help.
+     */
+    private void runLaunchDialog(int sessionNumber) throws Exception {
+        JsonNode launch = call(sessionNumber, true, "{}", "{\"type\":\"LaunchRequest\"}");
+        assertEquals(false, launch.get("response").get("shouldEndSession").asBoolean());
+
+        JsonNode help = call(sessionNumber, false, launch.get("sessionAttributes").toString(),
+                intentRequest("AMAZON.HelpIntent", "{}"));
+        assertEquals("session " + sessionNumber, false,
+                help.get("response").get("shouldEndSession").asBoolean());
+    }
+
+    /**
+     * Adds a user and asks for help in two one-shot sessions, which both end right away.
+     */
+    private void runOneShotSessions(int sessionNumber) throws Exception {
+        JsonNode add = call(sessionNumber, true, "{}", intentRequest("AddUserIntent",
+                "{\"UserName\":{\"name\":\"UserName\",\"value\":\"bob\"}}"));
+        assertTrue(add.get("response").get("outputSpeech").get("text").asText()
+                .startsWith("bob has been added"));
+
+        JsonNode help = call(sessionNumber, true, "{}", intentRequest("AMAZON.HelpIntent", "{}"));
+        assertEquals("session " + sessionNumber, true,
+                help.get("response").get("shouldEndSession").asBoolean());
+    }
+
+    private JsonNode call(int sessionNumber, boolean newSession, String attributes,
+            String request) throws Exception {
+        String requestWithId = request.replaceFirst("\\{", "{\"requestId\":\"request-"
+                + sessionNumber + "\",\"timestamp\":\"2016-01-01T00:00:00Z\",");
+        String envelope = "{\"version\":\"1.0\",\"session\":{\"new\":" + newSession
+                + ",\"sessionId\":\"session-" + sessionNumber + "\",\"application\":"
+                + "{\"applicationId\":\"" + APPLICATION_ID + "\"},\"attributes\":" + attributes
+                + ",\"user\":{\"userId\":\"" + customerIdOf(sessionNumber) + "\"}},\"request\":"
+                + requestWithId + "}";
+        byte[] response =
+                handler.handleSpeechletCall(speechlet, envelope.getBytes(StandardCharsets.UTF_8));
+        return OBJECT_MAPPER.readTree(response);
+    }
+
+    private static String intentRequest(String intentName, String slots) {
+        return "{\"type\":\"IntentRequest\",\"intent\":{\"name\":\"" + intentName
+                + "\",\"slots\":" + slots + "}}";
+    }
+
+    private static String customerIdOf(int sessionNumber) {
+        return "customer-" + sessionNumber;
+    }
+}
@@ -0,0 +1,211 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.User;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that the summary writes of {@link HealthLogDynamoDbClient} keep the per-user metric value
+ * attributes in step with the metric data, against an in-memory stand-in for the table.
+ */
+public class HealthLogDynamoDbClientTest {
+    private static final String CUSTOMER_ID = "customer";
+
+    private final FakeDynamoDbClient dynamoDbClient = new FakeDynamoDbClient();
+    private final HealthLogDynamoDbClient store = new HealthLogDynamoDbClient(dynamoDbClient);
+
+    @Test
+    public void fullSaveAfterSingleValueUpdateKeepsTheSavedValues() {
+        HealthLogDao dao = new HealthLogDao(store, new HealthLogMetricsCache(0, 0));
+        Session session = newSession();
+        dao.addUser(session, "bob");
+        dao.setMetricValue(session, "bob", HealthLogMetricType.WEIGHT, 180L);
+
+        // a flush of buffered changes is one such full save of the loaded metrics
+        dao.updateHealthLogMetrics(newSession(), new HealthLogMetricsMutation() {
+            @Override
+            public boolean apply(HealthLogMetrics metrics) {
+                metrics.addWeightForUser("bob", 175L);
+                metrics.addUser("alice");
+                metrics.addHeightForUser("alice", 64L);
+                return true;
+            }
+        });
+
+        HealthLogMetricData metricData = load().getMetricData();
+        assertEquals(Long.valueOf(175L), metricData.getWeights().get("bob"));
+        assertEquals(Long.valueOf(64L), metricData.getHeights().get("alice"));
+        assertEquals(Long.valueOf(175L), dynamoDbClient.getNumber("Weight:bob"));
+        assertEquals(Long.valueOf(64L), dynamoDbClient.getNumber("Height:alice"));
+        assertEquals(1, dynamoDbClient.getMeasurementWriteCount());
+    }
+
+    @Test
+    public void fullSaveRemovesValueAttributesOfUsersWithoutValues() {
+        store.saveItem(newItem(null, "bob"));
+        assertEquals(Long.valueOf(2L),
+                store.updateMetricValue(CUSTOMER_ID, "bob", HealthLogMetricType.HEIGHT, 70L, 1L)
+                        .getVersion());
+
+        HealthLogUserDataItem item = load();
+        item.getMetricData().getHeights().remove("bob");
+        store.saveItem(item);
+
+        assertNull(dynamoDbClient.getNumber("Height:bob"));
+        assertFalse(load().getMetricData().getHeights().containsKey("bob"));
+        assertEquals(Long.valueOf(3L), load().getVersion());
+    }
+
+    @Test(expected = HealthLogVersionConflictException.class)
+    public void fullSaveFromAnOlderVersionConflicts() {
+        store.saveItem(newItem(null, "bob"));
+        HealthLogUserDataItem staleItem = load();
+        store.updateMetricValue(CUSTOMER_ID, "bob", HealthLogMetricType.WEIGHT, 180L, 1L);
+
+        store.saveItem(staleItem);
+    }
+
+    @Test
+    public void fullSaveAfterClearKeepsTheStartOfTheLog() {
+        store.saveItem(newItem(null, "bob"));
+        Long version = store.clearItem(CUSTOMER_ID, load().getMetricData().getUsers(), 1L, 2000L);
+        assertEquals(Long.valueOf(2000L), load().getMetricData().getStartedAt());
+
+        HealthLogUserDataItem item = load();
+        item.getMetricData().getUsers().add("bob");
+        store.saveItem(item);
+
+        assertEquals(Long.valueOf(version + 1), load().getVersion());
+        assertEquals(Long.valueOf(2000L), load().getMetricData().getStartedAt());
+    }
+
+    private HealthLogUserDataItem load() {
+        HealthLogUserDataItem key = new HealthLogUserDataItem();
+        key.setCustomerId(CUSTOMER_ID);
+        return store.loadItem(key);
+    }
+
+    private static HealthLogUserDataItem newItem(Long version, String userName) {
+        HealthLogUserDataItem item = new HealthLogUserDataItem();
+        item.setCustomerId(CUSTOMER_ID);
+        item.setVersion(version);
+        item.setMetricData(HealthLogMetricData.newInstance());
+        item.getMetricData().getUsers().add(userName);
+        return item;
+    }
+
+    private static Session newSession() {
+        return Session.builder().withSessionId("session").withIsNew(true)
+                .withUser(User.builder().withUserId(CUSTOMER_ID).build()).build();
+    }
+
+    /**
+     * Holds a single summary item and applies the subset of update and condition expressions the
+     * store uses. Measurement writes are only counted.
+     */
+    private static final class FakeDynamoDbClient extends AmazonDynamoDBClient {
+        private static final Pattern CLAUSE =
+                Pattern.compile("(SET|REMOVE|ADD) (.*?)(?= (?:SET|REMOVE|ADD) |$)");
+        private static final Pattern CONTAINS = Pattern.compile("contains\\((\\S+), (\\S+)\\)");
+        private static final Pattern NOT_EXISTS = Pattern.compile("attribute_not_exists\\((\\S+)\\)");
+        private static final Pattern EQUALS = Pattern.compile("(\\S+) = (\\S+)");
+
+        private Map<String, AttributeValue> item;
+        private int measurementWriteCount;
+
+        FakeDynamoDbClient() {
+            super(new BasicAWSCredentials("access", "secret"));
+        }
+
+        synchronized Long getNumber(String attributeName) {
+            AttributeValue value = item != null ? item.get(attributeName) : null;
+            return value != null ? Long.valueOf(value.getN()) : null;
+        }
+
+        @Override
+        public synchronized GetItemResult getItem(GetItemRequest request) {
+            return new GetItemResult().withItem(
+                    item != null ? new HashMap<String, AttributeValue>(item) : null);
+        }
+
+        synchronized int getMeasurementWriteCount() {
+            return measurementWriteCount;
+        }
+
+        @Override
+        public synchronized PutItemResult putItem(PutItemRequest request) {
+            measurementWriteCount++;
+            return new PutItemResult();
+        }
+
+        @Override
+        public synchronized UpdateItemResult updateItem(UpdateItemRequest request) {
+            Map<String, String> names = request.getExpressionAttributeNames();
+            Map<String, AttributeValue> values = request.getExpressionAttributeValues();
+            Map<String, AttributeValue> current = item != null ? item
+                    : new HashMap<String, AttributeValue>(request.getKey());
+            if (!matches(request.getConditionExpression(), current, names, values)) {
+                throw new ConditionalCheckFailedException("The conditional request failed");
+            }
+
+            Map<String, AttributeValue> updated = new HashMap<String, AttributeValue>(current);
+            Matcher clause = CLAUSE.matcher(request.getUpdateExpression());
+            while (clause.find()) {
+                for (String action : clause.group(2).split(", ")) {
+                    String[] operands = action.split(" (= )?");
+                    String name = names.get(operands[0]);
+                    if ("SET".equals(clause.group(1))) {
+                        updated.put(name, values.get(operands[1]));
+                    } else if ("REMOVE".equals(clause.group(1))) {
+                        updated.remove(name);
+                    } else {
+                        long sum = Long.parseLong(values.get(operands[1]).getN())
+                                + (updated.containsKey(name) ? Long.parseLong(updated.get(name)
+                                        .getN()) : 0L);
+                        updated.put(name, new AttributeValue().withN(Long.toString(sum)));
+                    }
+                }
+            }
+            item = updated;
+            return new UpdateItemResult().withAttributes(
+                    ReturnValue.ALL_NEW.toString().equals(request.getReturnValues())
+                            ? new HashMap<String, AttributeValue>(item) : null);
+        }
+
+        private static boolean matches(String condition, Map<String, AttributeValue> current,
+                Map<String, String> names, Map<String, AttributeValue> values) {
+            Matcher matcher;
+            if ((matcher = CONTAINS.matcher(condition)).matches()) {
+                AttributeValue set = current.get(names.get(matcher.group(1)));
+                return set != null && set.getSS().contains(values.get(matcher.group(2)).getS());
+            }
+            if ((matcher = NOT_EXISTS.matcher(condition)).matches()) {
+                return !current.containsKey(names.get(matcher.group(1)));
+            }
+            if ((matcher = EQUALS.matcher(condition)).matches()) {
+                return values.get(matcher.group(2)).equals(current.get(names.get(matcher.group(1))));
+            }
+            throw new UnsupportedOperationException("Condition " + condition);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.User;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the measurement history of the {@link LockStripedHealthLogStore}s on the in-memory one.
+ */
+public class InMemoryHealthLogStoreTest {
+    private final InMemoryHealthLogStore store = new InMemoryHealthLogStore();
+
+    @Test
+    public void measurementsInTheSameMillisecondAreAllKept() {
+        for (long value = 180; value < 183; value++) {
+            store.saveMeasurementItem(HealthLogMeasurementItem.newInstance("customer", "bob",
+                    HealthLogMetricType.WEIGHT, value, 1000L));
+        }
+
+        List<HealthLogMeasurementItem> items = store.queryLatestMeasurementItems(
+                HealthLogMeasurementItem.newSeriesKey("customer", "bob",
+                        HealthLogMetricType.WEIGHT), 10);
+        assertEquals(3, items.size());
+        assertEquals(Long.valueOf(182L), items.get(0).getValue());
+        assertEquals(Long.valueOf(1002L), items.get(0).getTimestamp());
+        assertEquals(Long.valueOf(180L), items.get(2).getValue());
+        assertEquals(Long.valueOf(1000L), items.get(2).getTimestamp());
+    }
+
+    @Test
+    public void metricValueUpdatesAreRecordedInTheirOwnSeries() {
+        HealthLogUserDataItem item = new HealthLogUserDataItem();
+        item.setCustomerId("customer");
+        item.setMetricData(HealthLogMetricData.newInstance());
+        item.getMetricData().getUsers().add("bob");
+        store.saveItem(item);
+
+        store.updateMetricValue("customer", "bob", HealthLogMetricType.WEIGHT, 180L, 1000L);
+        store.updateMetricValue("customer", "bob", HealthLogMetricType.HEIGHT, 70L, 2000L);
+        assertNull(store.updateMetricValue("customer", "alice", HealthLogMetricType.WEIGHT, 120L,
+                3000L));
+
+        List<HealthLogMeasurementItem> weights = store.queryLatestMeasurementItems(
+                HealthLogMeasurementItem.newSeriesKey("customer", "bob",
+                        HealthLogMetricType.WEIGHT), 10);
+        assertEquals(1, weights.size());
+        assertEquals(Long.valueOf(180L), weights.get(0).getValue());
+        assertEquals(0, store.queryLatestMeasurementItems(HealthLogMeasurementItem.newSeriesKey(
+                "customer", "alice", HealthLogMetricType.WEIGHT), 10).size());
+    }
+
+    @Test
+    public void measurementsBetweenTwoTimestampsAreReturnedNewestFirst() {
+        for (long timestamp = 1000; timestamp <= 5000; timestamp += 1000) {
+            store.saveMeasurementItem(HealthLogMeasurementItem.newInstance("customer", "bob",
+                    HealthLogMetricType.WEIGHT, timestamp / 10, timestamp));
+        }
+
+        List<HealthLogMeasurementItem> items = store.queryMeasurementItemsBetween(
+                HealthLogMeasurementItem.newSeriesKey("customer", "bob",
+                        HealthLogMetricType.WEIGHT), 2000L, 4000L);
+        assertEquals(3, items.size());
+        assertEquals(Long.valueOf(4000L), items.get(0).getTimestamp());
+        assertEquals(Long.valueOf(2000L), items.get(2).getTimestamp());
+        assertEquals(0, store.queryMeasurementItemsBetween(HealthLogMeasurementItem.newSeriesKey(
+                "customer", "bob", HealthLogMetricType.HEIGHT), 0L, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void historyOfTheDaoLeavesOutMeasurementsFromBeforeAReset() {
+        HealthLogDao dao = new HealthLogDao(store, new HealthLogMetricsCache(0, 0));
+        Session session = Session.builder().withSessionId("session").withIsNew(true)
+                .withUser(User.builder().withUserId("customer").build()).build();
+        dao.addUser(session, "bob");
+        store.saveMeasurementItem(HealthLogMeasurementItem.newInstance("customer", "bob",
+                HealthLogMetricType.WEIGHT, 180L, 1000L));
+
+        HealthLogMetrics metrics = dao.getHealthLogMetrics(session);
+        store.clearItem("customer", metrics.getMetricData().getUsers(), metrics.getVersion(),
+                2000L);
+        dao.addUser(session, "bob");
+        store.saveMeasurementItem(HealthLogMeasurementItem.newInstance("customer", "bob",
+                HealthLogMetricType.WEIGHT, 150L, 3000L));
+
+        metrics = dao.getHealthLogMetrics(session);
+        assertEquals(Long.valueOf(2000L), metrics.getMetricData().getStartedAt());
+        List<HealthLogMeasurementItem> items =
+                dao.getRecentMeasurements(metrics, "bob", HealthLogMetricType.WEIGHT, 10);
+        assertEquals(1, items.size());
+        assertEquals(Long.valueOf(150L), items.get(0).getValue());
+        assertEquals(1, dao.getMeasurementsBetween(metrics, "bob", HealthLogMetricType.WEIGHT,
+                new Date(0L), new Date(5000L)).size());
+        assertTrue(dao.getRecentMeasurements(metrics, "alice", HealthLogMetricType.WEIGHT, 10)
+                .isEmpty());
+    }
+}
@@ -0,0 +1,50 @@
+package com.ericgonzalesevans.healthlog.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the timestamp index reads of {@link SegmentLogHealthLogStore}.
+ */
+public class SegmentLogHealthLogStoreTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private SegmentLogHealthLogStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new SegmentLogHealthLogStore(folder.newFolder("log"), new SegmentLogConfig(
+                1024 * 1024, 10L, true, 60000L, 50, 8L * 1024 * 1024, 300000L));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    public void measurementsBetweenTwoTimestampsAreReadFromTheIndex() {
+        for (long timestamp = 1000; timestamp <= 5000; timestamp += 1000) {
+            store.saveMeasurementItem(HealthLogMeasurementItem.newInstance("customer", "bob",
+                    HealthLogMetricType.WEIGHT, timestamp / 10, timestamp));
+        }
+        String seriesKey =
+                HealthLogMeasurementItem.newSeriesKey("customer", "bob", HealthLogMetricType.WEIGHT);
+
+        List<HealthLogMeasurementItem> items =
+                store.queryMeasurementItemsBetween(seriesKey, 1500L, 4000L);
+        assertEquals(3, items.size());
+        assertEquals(Long.valueOf(400L), items.get(0).getValue());
+        assertEquals(Long.valueOf(2000L), items.get(2).getTimestamp());
+        assertEquals(0, store.queryMeasurementItemsBetween(seriesKey, 4000L, 1000L).size());
+        assertEquals(2, store.queryLatestMeasurementItems(seriesKey, 2).size());
+    }
+}